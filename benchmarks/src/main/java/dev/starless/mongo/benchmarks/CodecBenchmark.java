@@ -0,0 +1,60 @@
+package dev.starless.mongo.benchmarks;
+
+import dev.starless.mongo.StorageBuilder;
+import dev.starless.mongo.StorageContext;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+Encoding and decoding done by store, find and findFirst.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    private static final int DOCUMENTS = 100;
+
+    @Param({"small", "medium", "large"})
+    public String size;
+
+    private InProcessCollection<Object> collection;
+    private Object entity;
+    private BsonDocument keyFilter;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        StorageContext context = StorageBuilder.create("mongodb://localhost").buildContext();
+        collection = new InProcessCollection<>(context, (Class<Object>) Entities.type(size));
+        for (int i = 0; i < DOCUMENTS; i++) {
+            collection.store(Entities.create(size, i));
+        }
+
+        entity = Entities.create(size, DOCUMENTS / 2);
+        keyFilter = context.keyDocument(entity);
+    }
+
+    @Benchmark
+    public RawBsonDocument store() {
+        return collection.store(entity);
+    }
+
+    @Benchmark
+    public Object findFirst() {
+        return collection.findFirst(keyFilter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public List<Object> find() {
+        return collection.find();
+    }
+}
@@ -0,0 +1,123 @@
+package dev.starless.mongo.benchmarks;
+
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+
+import java.util.*;
+
+/*
+Entities of increasing size used by the benchmarks.
+ */
+public final class Entities {
+
+    private Entities() {
+    }
+
+    public static Object create(String size, int index) {
+        return switch (size) {
+            case "small" -> new Small(index);
+            case "medium" -> new Medium(index);
+            case "large" -> new Large(index);
+            default -> throw new IllegalArgumentException("Unknown size: " + size);
+        };
+    }
+
+    public static Class<?> type(String size) {
+        return create(size, 0).getClass();
+    }
+
+    @MongoObject(database = "benchmarks", collection = "small")
+    public static final class Small {
+
+        @MongoKey
+        private String id;
+        private int level;
+        private long balance;
+        private boolean active;
+
+        private Small() {
+        }
+
+        Small(int index) {
+            this.id = "user-" + index;
+            this.level = index % 100;
+            this.balance = index * 1000L;
+            this.active = index % 2 == 0;
+        }
+    }
+
+    @MongoObject(database = "benchmarks", collection = "medium")
+    public static final class Medium {
+
+        @MongoKey
+        private String guild;
+        @MongoKey
+        private long member;
+        private String name;
+        private String description;
+        private double score;
+        private Status status;
+        private List<String> roles;
+        private Map<String, Integer> counters;
+        private Address address;
+        private int[] history;
+
+        private Medium() {
+        }
+
+        Medium(int index) {
+            this.guild = "guild-" + (index % 16);
+            this.member = index;
+            this.name = "member-" + index;
+            this.description = "A medium sized entity used to measure the codecs";
+            this.score = index * 1.5;
+            this.status = Status.values()[index % Status.values().length];
+            this.roles = List.of("member", "booster", "role-" + index % 10);
+            this.counters = new HashMap<>();
+            for (int i = 0; i < 10; i++) {
+                counters.put("counter-" + i, i * index);
+            }
+            this.address = new Address("Main street " + index, "Rome", 100 + index % 900);
+            this.history = new int[32];
+            Arrays.fill(history, index);
+        }
+    }
+
+    @MongoObject(database = "benchmarks", collection = "large")
+    public static final class Large {
+
+        @MongoKey
+        private String id;
+        private String owner;
+        private List<Item> items;
+        private Map<String, Address> addresses;
+
+        private Large() {
+        }
+
+        Large(int index) {
+            this.id = "inventory-" + index;
+            this.owner = "user-" + index;
+            this.items = new ArrayList<>(500);
+            for (int i = 0; i < 500; i++) {
+                items.add(new Item("item-" + i, i, i * 0.25, i % 3 == 0));
+            }
+            this.addresses = new HashMap<>();
+            for (int i = 0; i < 20; i++) {
+                addresses.put("address-" + i, new Address("Street " + i, "City " + i, i));
+            }
+        }
+    }
+
+    public enum Status {
+        ONLINE,
+        AWAY,
+        OFFLINE
+    }
+
+    public record Address(String street, String city, int zip) {
+    }
+
+    public record Item(String name, int amount, double weight, boolean tradable) {
+    }
+}
@@ -0,0 +1,26 @@
+package dev.starless.mongo.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler, like passing -prof gc to the JMH jar.
+ * The other JMH options can be passed as arguments, for example a regex selecting the benchmarks:
+ * {@code java -cp target/benchmarks.jar dev.starless.mongo.benchmarks.GcProfiledRunner CodecBenchmark}
+ */
+public final class GcProfiledRunner {
+
+    private GcProfiledRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
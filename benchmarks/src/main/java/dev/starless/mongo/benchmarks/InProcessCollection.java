@@ -0,0 +1,60 @@
+package dev.starless.mongo.benchmarks;
+
+import dev.starless.mongo.StorageContext;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Stand-in for a MongoDB collection living in the same process.
+The objects are encoded to the same bytes sent to the server
+and decoded from the bytes it would return, so the benchmarks
+measure the work done by the library without the network.
+ */
+final class InProcessCollection<T> {
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().isEncodingCollectibleDocument(true).build();
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private final StorageContext context;
+    private final Codec<T> codec;
+    private final Map<BsonDocument, RawBsonDocument> documents;
+
+    InProcessCollection(StorageContext context, Class<T> type) {
+        this.context = context;
+        this.codec = context.getCodecRegistry().get(type);
+        this.documents = new HashMap<>();
+    }
+
+    // Same work of insertOne/replaceOne: building the key filter and encoding the object
+    RawBsonDocument store(T obj) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), obj, ENCODER_CONTEXT);
+
+        RawBsonDocument document = new RawBsonDocument(buffer.getInternalBuffer(), 0, buffer.getPosition());
+        documents.put(context.keyDocument(obj), document);
+        return document;
+    }
+
+    T findFirst(BsonDocument keyFilter) {
+        RawBsonDocument document = documents.get(keyFilter);
+        return document == null ? null : codec.decode(document.asBsonReader(), DECODER_CONTEXT);
+    }
+
+    List<T> find() {
+        List<T> list = new ArrayList<>(documents.size());
+        for (RawBsonDocument document : documents.values()) {
+            list.add(codec.decode(document.asBsonReader(), DECODER_CONTEXT));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,48 @@
+package dev.starless.mongo.benchmarks;
+
+import dev.starless.mongo.StorageBuilder;
+import dev.starless.mongo.StorageContext;
+import org.bson.BsonDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+Metadata lookups and key filters, built for every write and key lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyBenchmark {
+
+    // The medium entity has a compound key
+    @Param({"small", "medium"})
+    public String size;
+
+    private StorageContext context;
+    private Class<?> type;
+    private Object entity;
+
+    @Setup
+    public void setup() {
+        context = StorageBuilder.create("mongodb://localhost").buildContext();
+        type = Entities.type(size);
+        entity = Entities.create(size, 42);
+    }
+
+    // Former matchFilterFromKeys
+    @Benchmark
+    public BsonDocument keyFilter() {
+        return context.keyDocument(entity);
+    }
+
+    // Former getKeys
+    @Benchmark
+    public Map<String, Class<?>> keys() {
+        return context.keys(type);
+    }
+}
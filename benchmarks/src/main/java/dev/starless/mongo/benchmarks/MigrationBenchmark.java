@@ -0,0 +1,52 @@
+package dev.starless.mongo.benchmarks;
+
+import dev.starless.mongo.schema.MigrationSchema;
+import dev.starless.mongo.schema.suppliers.impl.SimpleSupplier;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+Application of a migration schema to a single document,
+done for every stale document by the bulk and the lazy migrations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MigrationBenchmark {
+
+    private MigrationSchema schema;
+    private Document stale;
+
+    @Setup
+    public void setup() {
+        schema = new MigrationSchema(Entities.Small.class)
+                .entry("level", 0)
+                .entry("balance", "money", 0L)
+                .entry("active", true)
+                .entry("nickname", new SimpleSupplier("name", "unknown"))
+                .version(2);
+
+        stale = new Document("_id", 1)
+                .append("id", "user-1")
+                .append("money", 1000L)
+                .append("name", "Steve");
+    }
+
+    @Benchmark
+    public Bson migrationUpdate() {
+        // The migration changes the document, so a copy is migrated every time
+        return schema.migrationUpdate(new Document(stale));
+    }
+
+    @Benchmark
+    public List<Bson> pipelineUpdate() {
+        return schema.pipelineUpdate();
+    }
+}
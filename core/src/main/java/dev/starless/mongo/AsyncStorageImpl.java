@@ -0,0 +1,145 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.api.AsyncMongoStorage;
+import dev.starless.mongo.api.IterableProcessor;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.logging.ILogger;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+final class AsyncStorageImpl implements AsyncMongoStorage {
+
+    private final MongoStorage storage;
+    private final ILogger logger;
+    private final Executor customExecutor;
+    private final Semaphore inFlight;
+    private final int maxInFlightRequests;
+
+    // Created lazily and shut down when the storage is closed,
+    // only when the user did not provide an executor.
+    private ExecutorService ownedExecutor;
+
+    AsyncStorageImpl(MongoStorage storage, ILogger logger, Executor customExecutor, int maxInFlightRequests) {
+        this.storage = storage;
+        this.logger = logger;
+        this.customExecutor = customExecutor;
+        this.inFlight = new Semaphore(maxInFlightRequests);
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    @Override
+    public <T> CompletableFuture<List<T>> find(@NotNull Class<? extends T> type,
+                                               @NotNull IterableProcessor processor,
+                                               @NotNull Bson filter) {
+        return submit(() -> storage.find(type, processor, filter));
+    }
+
+    @Override
+    public <T> CompletableFuture<Optional<T>> findFirst(@NotNull Class<? extends T> type,
+                                                        @NotNull IterableProcessor processor,
+                                                        @NotNull Bson filter) {
+        return submit(() -> storage.findFirst(type, processor, filter));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> store(@NotNull Object obj, boolean update) {
+        return submit(() -> storage.store(obj, update));
+    }
+
+    @Override
+    public CompletableFuture<Integer> remove(@NotNull Object obj) {
+        return submit(() -> storage.remove(obj));
+    }
+
+    @Override
+    public MongoStorage sync() {
+        return storage;
+    }
+
+    private <R> CompletableFuture<R> submit(Supplier<R> request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            executor().execute(() -> {
+                // The permit is acquired by the worker thread, so the caller never blocks.
+                // Only the custom executors can run more tasks than the permits:
+                // the virtual threads wait cheaply, and the fallback pool has one thread per permit.
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    future.completeExceptionally(e);
+                    return;
+                }
+
+                try {
+                    future.complete(request.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    synchronized Executor executor() {
+        if (customExecutor != null) return customExecutor;
+
+        if (ownedExecutor == null) {
+            ownedExecutor = createExecutor();
+        }
+        return ownedExecutor;
+    }
+
+    /**
+     * Stops the executor created by this instance, letting
+     * the requests already submitted finish their work.
+     */
+    synchronized void shutdown() {
+        if (ownedExecutor == null) return;
+
+        ownedExecutor.shutdown();
+        ownedExecutor = null;
+    }
+
+    // Virtual threads are available only from Java 21, while
+    // the library targets Java 17: look for them at runtime.
+    private ExecutorService createExecutor() {
+        try {
+            MethodHandle factory = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invokeExact();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            logger.info("Virtual threads are not available, async requests will use a pool of %d threads.", maxInFlightRequests);
+        } catch (Throwable e) {
+            logger.warn("Could not create a virtual thread executor: %s", e.getMessage());
+        }
+
+        // Platform threads are expensive, so the pool never grows beyond the
+        // maximum number of requests in flight: the other requests wait in the queue
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxInFlightRequests, maxInFlightRequests,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "MongoStorage-async-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
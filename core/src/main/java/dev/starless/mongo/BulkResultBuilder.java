@@ -0,0 +1,32 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.api.BulkResult;
+
+import java.util.Arrays;
+
+/*
+Collects the outcomes of a bulk operation while it runs,
+so that the BulkResult returned to the users is read-only.
+ */
+final class BulkResultBuilder {
+
+    private final BulkResult.Outcome[] outcomes;
+    private int removedCount;
+
+    BulkResultBuilder(int size) {
+        this.outcomes = new BulkResult.Outcome[size];
+        Arrays.fill(outcomes, BulkResult.Outcome.NOT_EXECUTED);
+    }
+
+    void set(int index, BulkResult.Outcome outcome) {
+        outcomes[index] = outcome;
+    }
+
+    void addRemoved(int count) {
+        removedCount += count;
+    }
+
+    BulkResult build() {
+        return new BulkResult(Arrays.asList(outcomes), removedCount);
+    }
+}
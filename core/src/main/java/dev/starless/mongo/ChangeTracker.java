@@ -0,0 +1,177 @@
+package dev.starless.mongo;
+
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Remembers the stored form of the objects loaded from MongoDB, so that saving them again
+only sends the fields which have changed. The snapshots are kept as raw BSON,
+and they are released as soon as the objects are garbage collected.
+ */
+final class ChangeTracker {
+
+    private static final BsonDocumentCodec DOCUMENT_CODEC = new BsonDocumentCodec();
+
+    private final Map<IdentityKey, RawBsonDocument> snapshots;
+    private final ReferenceQueue<Object> collected;
+
+    ChangeTracker() {
+        this.snapshots = new ConcurrentHashMap<>();
+        this.collected = new ReferenceQueue<>();
+    }
+
+    /**
+     * Wraps the codec of a type, so that every decoded object is tracked.
+     */
+    <T> Codec<T> wrap(Codec<T> codec) {
+        return new TrackingCodec<>(codec);
+    }
+
+    // Replaces the snapshot of an object after it has been written
+    void track(Object obj, BsonDocument document) {
+        RawBsonDocument raw = document instanceof RawBsonDocument rawDocument ? rawDocument : new RawBsonDocument(document, DOCUMENT_CODEC);
+        expunge();
+        snapshots.put(new IdentityKey(obj, collected), raw);
+    }
+
+    void forget(Object obj) {
+        expunge();
+        snapshots.remove(new IdentityKey(obj, null));
+    }
+
+    /**
+     * Compares the current form of an object with its snapshot.
+     *
+     * @param obj      Object loaded from MongoDB
+     * @param document The object encoded now
+     * @return The update applying the changes, which is empty if nothing has changed,
+     * or null if the object has not been loaded from MongoDB
+     */
+    BsonDocument diff(Object obj, BsonDocument document) {
+        RawBsonDocument snapshot = snapshots.get(new IdentityKey(obj, null));
+        if (snapshot == null) return null;
+
+        BsonDocument set = new BsonDocument();
+        BsonDocument unset = new BsonDocument();
+        // The raw document is decoded once, instead of scanning its bytes for every field
+        diff("", snapshot.decode(DOCUMENT_CODEC), document, set, unset);
+
+        BsonDocument update = new BsonDocument();
+        if (!set.isEmpty()) update.append("$set", set);
+        if (!unset.isEmpty()) update.append("$unset", unset);
+        return update;
+    }
+
+    private static void diff(String prefix, BsonDocument previous, BsonDocument current, BsonDocument set, BsonDocument unset) {
+        for (Map.Entry<String, BsonValue> entry : current.entrySet()) {
+            String name = entry.getKey();
+            BsonValue value = entry.getValue();
+            BsonValue old = previous.get(name);
+            if (value.equals(old)) continue;
+
+            // The embedded documents are compared field by field,
+            // unless the names of their fields cannot be written as a path
+            if (old != null && old.isDocument() && value.isDocument()
+                    && hasPathNames(old.asDocument()) && hasPathNames(value.asDocument())) {
+                diff(prefix + name + ".", old.asDocument(), value.asDocument(), set, unset);
+            } else {
+                set.append(prefix + name, value);
+            }
+        }
+
+        for (String name : previous.keySet()) {
+            // The _id is never part of the encoded objects, but it cannot be removed
+            if (!current.containsKey(name) && !(prefix.isEmpty() && name.equals("_id"))) {
+                unset.append(prefix + name, new BsonString(""));
+            }
+        }
+    }
+
+    // An empty document is set whole too, since setting its fields one by one would not write it
+    private static boolean hasPathNames(BsonDocument document) {
+        if (document.isEmpty()) return false;
+
+        for (String name : document.keySet()) {
+            if (name.isEmpty() || name.indexOf('.') >= 0 || name.charAt(0) == '$') return false;
+        }
+        return true;
+    }
+
+    // Removes the snapshots of the objects which have been garbage collected
+    private void expunge() {
+        Reference<?> reference;
+        while ((reference = collected.poll()) != null) {
+            snapshots.remove(reference);
+        }
+    }
+
+    private final class TrackingCodec<T> implements Codec<T> {
+
+        private final Codec<T> codec;
+        private final RawBsonDocumentCodec rawCodec;
+
+        private TrackingCodec(Codec<T> codec) {
+            this.codec = codec;
+            this.rawCodec = new RawBsonDocumentCodec();
+        }
+
+        @Override
+        public void encode(BsonWriter writer, T value, EncoderContext context) {
+            codec.encode(writer, value, context);
+        }
+
+        @Override
+        public T decode(BsonReader reader, DecoderContext context) {
+            // The document is copied once, to keep its bytes as the snapshot
+            RawBsonDocument raw = rawCodec.decode(reader, context);
+            T obj = codec.decode(raw.asBsonReader(), context);
+            if (obj != null) {
+                track(obj, raw);
+            }
+            return obj;
+        }
+
+        @Override
+        public Class<T> getEncoderClass() {
+            return codec.getEncoderClass();
+        }
+    }
+
+    /*
+    Weak reference compared by the identity of the object,
+    since the equality of the tracked objects may change with their fields.
+     */
+    private static final class IdentityKey extends WeakReference<Object> {
+
+        private final int hash;
+
+        private IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof IdentityKey other)) return false;
+
+            Object referent = get();
+            return referent != null && referent == other.get();
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package dev.starless.mongo;
+
+import org.bson.*;
+import org.bson.types.Decimal128;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+Evaluates the query filters, sorts and projections on documents kept in memory,
+following the semantics of MongoDB for the most common operators:
+$eq, $ne, $gt, $gte, $lt, $lte, $in, $nin, $exists, $regex, $size, $all,
+$elemMatch, $not, $and, $or and $nor.
+The other operators are rejected with an IllegalArgumentException.
+ */
+final class DocumentMatcher {
+
+    private DocumentMatcher() {
+    }
+
+    static boolean matches(BsonDocument document, BsonDocument filter) {
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            String name = entry.getKey();
+            BsonValue value = entry.getValue();
+            switch (name) {
+                case "$and" -> {
+                    for (BsonValue element : array(name, value)) {
+                        if (!matches(document, element.asDocument())) return false;
+                    }
+                }
+                case "$or" -> {
+                    boolean any = false;
+                    for (BsonValue element : array(name, value)) {
+                        if (matches(document, element.asDocument())) {
+                            any = true;
+                            break;
+                        }
+                    }
+                    if (!any) return false;
+                }
+                case "$nor" -> {
+                    for (BsonValue element : array(name, value)) {
+                        if (matches(document, element.asDocument())) return false;
+                    }
+                }
+                default -> {
+                    if (name.startsWith("$")) throw new IllegalArgumentException("unsupported operator " + name);
+                    if (!matchesField(document, name, value)) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesField(BsonDocument document, String path, BsonValue condition) {
+        if (condition.isRegularExpression()) {
+            return matchesRegex(resolve(document, path), condition.asRegularExpression());
+        }
+        if (!isOperatorDocument(condition)) {
+            return matchesOperator(document, path, "$eq", condition);
+        }
+
+        BsonDocument operators = condition.asDocument();
+        for (Map.Entry<String, BsonValue> entry : operators.entrySet()) {
+            String operator = entry.getKey();
+            if (operator.equals("$options")) continue;
+
+            if (operator.equals("$regex")) {
+                BsonValue options = operators.get("$options");
+                BsonRegularExpression regex = entry.getValue().isRegularExpression()
+                        ? entry.getValue().asRegularExpression()
+                        : new BsonRegularExpression(entry.getValue().asString().getValue(), options == null ? null : options.asString().getValue());
+                if (!matchesRegex(resolve(document, path), regex)) return false;
+            } else if (!matchesOperator(document, path, operator, entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesOperator(BsonDocument document, String path, String operator, BsonValue operand) {
+        List<BsonValue> values = resolve(document, path);
+        switch (operator) {
+            case "$eq" -> {
+                // {field: null} also matches the documents without the field
+                if (values.isEmpty()) return operand.isNull();
+                for (BsonValue value : values) {
+                    if (equal(value, operand)) return true;
+                }
+                return false;
+            }
+            case "$ne" -> {
+                return !matchesOperator(document, path, "$eq", operand);
+            }
+            case "$gt", "$gte", "$lt", "$lte" -> {
+                for (BsonValue value : values) {
+                    // Only the values of the same type are compared
+                    if (bracket(value) != bracket(operand)) continue;
+
+                    int comparison = compare(value, operand);
+                    boolean result = switch (operator) {
+                        case "$gt" -> comparison > 0;
+                        case "$gte" -> comparison >= 0;
+                        case "$lt" -> comparison < 0;
+                        default -> comparison <= 0;
+                    };
+                    if (result) return true;
+                }
+                return false;
+            }
+            case "$in" -> {
+                for (BsonValue element : array(operator, operand)) {
+                    boolean matched = element.isRegularExpression()
+                            ? matchesRegex(values, element.asRegularExpression())
+                            : matchesOperator(document, path, "$eq", element);
+                    if (matched) return true;
+                }
+                return false;
+            }
+            case "$nin" -> {
+                return !matchesOperator(document, path, "$in", operand);
+            }
+            case "$exists" -> {
+                boolean exists = operand.isBoolean() ? operand.asBoolean().getValue() : operand.isNumber() && operand.asNumber().intValue() != 0;
+                return values.isEmpty() != exists;
+            }
+            case "$not" -> {
+                return !matchesField(document, path, operand);
+            }
+            case "$size" -> {
+                int size = operand.asNumber().intValue();
+                for (BsonValue value : values) {
+                    if (value.isArray() && value.asArray().size() == size) return true;
+                }
+                return false;
+            }
+            case "$all" -> {
+                // Like MongoDB, an empty list matches nothing
+                if (array(operator, operand).isEmpty()) return false;
+                for (BsonValue element : array(operator, operand)) {
+                    if (!matchesOperator(document, path, "$eq", element)) return false;
+                }
+                return true;
+            }
+            case "$elemMatch" -> {
+                BsonDocument condition = operand.asDocument();
+                for (BsonValue value : values) {
+                    if (!value.isArray()) continue;
+
+                    for (BsonValue element : value.asArray()) {
+                        boolean matched = isOperatorDocument(condition)
+                                ? matchesField(new BsonDocument("v", element), "v", condition)
+                                : element.isDocument() && matches(element.asDocument(), condition);
+                        if (matched) return true;
+                    }
+                }
+                return false;
+            }
+            default -> throw new IllegalArgumentException("unsupported operator " + operator);
+        }
+    }
+
+    private static boolean matchesRegex(List<BsonValue> values, BsonRegularExpression regex) {
+        int flags = 0;
+        String options = regex.getOptions();
+        if (options.indexOf('i') >= 0) flags |= Pattern.CASE_INSENSITIVE;
+        if (options.indexOf('m') >= 0) flags |= Pattern.MULTILINE;
+        if (options.indexOf('s') >= 0) flags |= Pattern.DOTALL;
+        if (options.indexOf('x') >= 0) flags |= Pattern.COMMENTS;
+
+        Pattern pattern = Pattern.compile(regex.getPattern(), flags);
+        for (BsonValue value : values) {
+            if (value.isString() && pattern.matcher(value.asString().getValue()).find()) return true;
+        }
+        return false;
+    }
+
+    /*
+    Finds the values of a field, following the dots of the nested fields
+    and the elements of the arrays. The arrays are returned together with
+    their elements, since a condition on an array matches any of its elements.
+     */
+    static List<BsonValue> resolve(BsonDocument document, String path) {
+        List<BsonValue> current = new ArrayList<>(1);
+        current.add(document);
+        for (String part : path.split("\\.")) {
+            List<BsonValue> next = new ArrayList<>(current.size());
+            for (BsonValue value : current) {
+                if (value.isDocument()) {
+                    BsonValue child = value.asDocument().get(part);
+                    if (child != null) next.add(child);
+                } else if (value.isArray()) {
+                    BsonArray array = value.asArray();
+                    if (isIndex(part)) {
+                        int index = Integer.parseInt(part);
+                        if (index < array.size()) next.add(array.get(index));
+                    } else {
+                        for (BsonValue element : array) {
+                            if (element.isDocument() && element.asDocument().containsKey(part)) {
+                                next.add(element.asDocument().get(part));
+                            }
+                        }
+                    }
+                }
+            }
+            current = next;
+        }
+
+        List<BsonValue> values = new ArrayList<>(current);
+        for (BsonValue value : current) {
+            if (value.isArray()) values.addAll(value.asArray());
+        }
+        return values;
+    }
+
+    /**
+     * @param sort Sort specification, like {a: 1, b: -1}
+     * @return The comparator ordering the documents like MongoDB does
+     */
+    static Comparator<BsonDocument> comparator(BsonDocument sort) {
+        List<String> fields = new ArrayList<>(sort.keySet());
+        int[] directions = new int[fields.size()];
+        for (int i = 0; i < directions.length; i++) {
+            BsonValue direction = sort.get(fields.get(i));
+            directions[i] = direction.isNumber() && direction.asNumber().intValue() < 0 ? -1 : 1;
+        }
+
+        return (first, second) -> {
+            for (int i = 0; i < directions.length; i++) {
+                int comparison = compare(sortValue(first, fields.get(i)), sortValue(second, fields.get(i)));
+                if (comparison != 0) return comparison * directions[i];
+            }
+            return 0;
+        };
+    }
+
+    private static BsonValue sortValue(BsonDocument document, String path) {
+        List<BsonValue> values = resolve(document, path);
+        return values.isEmpty() ? BsonNull.VALUE : values.get(0);
+    }
+
+    /**
+     * Applies an inclusion or an exclusion projection, like {a: 1, b: 1} or {c: 0}.
+     * Only the top level of the nested fields is considered.
+     */
+    static BsonDocument project(BsonDocument document, BsonDocument projection) {
+        if (projection == null || projection.isEmpty()) return document;
+
+        boolean inclusion = false;
+        boolean includeId = true;
+        for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            boolean included = isTruthy(entry.getValue());
+            if (entry.getKey().equals("_id")) {
+                includeId = included;
+            } else if (included) {
+                inclusion = true;
+            }
+        }
+
+        BsonDocument result = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : document.entrySet()) {
+            String name = entry.getKey();
+            BsonValue rule = projectionRule(projection, name);
+            boolean keep;
+            if (name.equals("_id")) {
+                keep = includeId;
+            } else if (inclusion) {
+                keep = rule != null && isTruthy(rule);
+            } else {
+                keep = rule == null || isTruthy(rule);
+            }
+            if (keep) result.append(name, entry.getValue());
+        }
+        return result;
+    }
+
+    private static BsonValue projectionRule(BsonDocument projection, String name) {
+        BsonValue rule = projection.get(name);
+        if (rule != null) return rule;
+
+        String prefix = name + ".";
+        for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) return entry.getValue();
+        }
+        return null;
+    }
+
+    private static boolean isTruthy(BsonValue value) {
+        if (value.isBoolean()) return value.asBoolean().getValue();
+        if (value.isNumber()) return value.asNumber().doubleValue() != 0;
+        throw new IllegalArgumentException("unsupported projection " + value);
+    }
+
+    /**
+     * Compares two values using the order of the BSON types defined by MongoDB,
+     * and then their values.
+     */
+    static int compare(BsonValue first, BsonValue second) {
+        int bracket = Integer.compare(bracket(first), bracket(second));
+        if (bracket != 0) return bracket;
+
+        switch (first.getBsonType()) {
+            case INT32, INT64, DOUBLE, DECIMAL128 -> {
+                if (!first.isDouble() && !second.isDouble() && !first.isDecimal128() && !second.isDecimal128()) {
+                    return Long.compare(first.asNumber().longValue(), second.asNumber().longValue());
+                }
+                return decimal(first).compareTo(decimal(second));
+            }
+            case STRING, SYMBOL -> {
+                return string(first).compareTo(string(second));
+            }
+            case DOCUMENT -> {
+                return compareDocuments(first.asDocument(), second.asDocument());
+            }
+            case ARRAY -> {
+                BsonArray a = first.asArray();
+                BsonArray b = second.asArray();
+                for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+                    int comparison = compare(a.get(i), b.get(i));
+                    if (comparison != 0) return comparison;
+                }
+                return Integer.compare(a.size(), b.size());
+            }
+            case BINARY -> {
+                byte[] a = first.asBinary().getData();
+                byte[] b = second.asBinary().getData();
+                if (a.length != b.length) return Integer.compare(a.length, b.length);
+                return java.util.Arrays.compareUnsigned(a, b);
+            }
+            case OBJECT_ID -> {
+                return first.asObjectId().getValue().compareTo(second.asObjectId().getValue());
+            }
+            case BOOLEAN -> {
+                return Boolean.compare(first.asBoolean().getValue(), second.asBoolean().getValue());
+            }
+            case DATE_TIME -> {
+                return Long.compare(first.asDateTime().getValue(), second.asDateTime().getValue());
+            }
+            case TIMESTAMP -> {
+                return first.asTimestamp().compareTo(second.asTimestamp());
+            }
+            default -> {
+                return 0;
+            }
+        }
+    }
+
+    private static int compareDocuments(BsonDocument first, BsonDocument second) {
+        List<Map.Entry<String, BsonValue>> a = new ArrayList<>(first.entrySet());
+        List<Map.Entry<String, BsonValue>> b = new ArrayList<>(second.entrySet());
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int comparison = compare(a.get(i).getValue(), b.get(i).getValue());
+            if (comparison != 0) return comparison;
+
+            comparison = a.get(i).getKey().compareTo(b.get(i).getKey());
+            if (comparison != 0) return comparison;
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+    /**
+     * Compares two values like the $eq operator does, so the numbers
+     * are equal even when their types are different.
+     */
+    static boolean equal(BsonValue first, BsonValue second) {
+        return bracket(first) == bracket(second) && compare(first, second) == 0;
+    }
+
+    // Position of the type in the comparison order of MongoDB
+    private static int bracket(BsonValue value) {
+        return switch (value.getBsonType()) {
+            case MIN_KEY -> 0;
+            case NULL, UNDEFINED -> 1;
+            case INT32, INT64, DOUBLE, DECIMAL128 -> 2;
+            case STRING, SYMBOL -> 3;
+            case DOCUMENT -> 4;
+            case ARRAY -> 5;
+            case BINARY -> 6;
+            case OBJECT_ID -> 7;
+            case BOOLEAN -> 8;
+            case DATE_TIME -> 9;
+            case TIMESTAMP -> 10;
+            case REGULAR_EXPRESSION -> 11;
+            case MAX_KEY -> 13;
+            default -> 12;
+        };
+    }
+
+    private static BigDecimal decimal(BsonValue value) {
+        if (value.isDecimal128()) {
+            Decimal128 decimal = value.asDecimal128().getValue();
+            return decimal.isNaN() || decimal.isInfinite() ? BigDecimal.valueOf(decimal.isNegative() ? -Double.MAX_VALUE : Double.MAX_VALUE) : decimal.bigDecimalValue();
+        }
+        if (value.isDouble()) {
+            double number = value.asDouble().getValue();
+            if (Double.isNaN(number)) return BigDecimal.valueOf(-Double.MAX_VALUE);
+            if (Double.isInfinite(number)) return BigDecimal.valueOf(number > 0 ? Double.MAX_VALUE : -Double.MAX_VALUE);
+            return BigDecimal.valueOf(number);
+        }
+        return BigDecimal.valueOf(value.asNumber().longValue());
+    }
+
+    private static String string(BsonValue value) {
+        return value.isSymbol() ? value.asSymbol().getSymbol() : value.asString().getValue();
+    }
+
+    private static boolean isOperatorDocument(BsonValue value) {
+        return value.isDocument() && !value.asDocument().isEmpty() && value.asDocument().getFirstKey().startsWith("$");
+    }
+
+    private static boolean isIndex(String part) {
+        if (part.isEmpty()) return false;
+        for (int i = 0; i < part.length(); i++) {
+            if (!Character.isDigit(part.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static BsonArray array(String operator, BsonValue value) {
+        if (!value.isArray()) throw new IllegalArgumentException(operator + " needs an array");
+        return value.asArray();
+    }
+}
@@ -0,0 +1,235 @@
+package dev.starless.mongo;
+
+import org.bson.*;
+import org.bson.types.Decimal128;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/*
+Applies the update operators of MongoDB to the documents kept in memory:
+$set, $unset, $inc, $mul, $min, $max, $rename, $currentDate,
+$push, $addToSet (with $each), $pop, $pull and $pullAll.
+The other operators, and the replacement documents, are rejected with an IllegalArgumentException.
+ */
+final class DocumentUpdater {
+
+    private DocumentUpdater() {
+    }
+
+    /**
+     * @param document Stored document, which is not modified
+     * @param update   Update containing only operators
+     * @return The updated copy of the document
+     */
+    static BsonDocument apply(BsonDocument document, BsonDocument update) {
+        BsonDocument result = document.clone();
+        for (Map.Entry<String, BsonValue> entry : update.entrySet()) {
+            String operator = entry.getKey();
+            if (!operator.startsWith("$")) throw new IllegalArgumentException("the update can only contain operators");
+            if (!entry.getValue().isDocument()) throw new IllegalArgumentException(operator + " needs a document");
+
+            for (Map.Entry<String, BsonValue> field : entry.getValue().asDocument().entrySet()) {
+                apply(result, operator, field.getKey(), field.getValue());
+            }
+        }
+        return result;
+    }
+
+    private static void apply(BsonDocument document, String operator, String path, BsonValue operand) {
+        switch (operator) {
+            case "$set" -> set(document, path, operand);
+            case "$setOnInsert" -> {
+                // Only the existing documents are updated
+            }
+            case "$unset" -> remove(document, path);
+            case "$inc" -> {
+                BsonValue current = get(document, path);
+                set(document, path, current == null ? number(operand) : arithmetic(current, operand, false));
+            }
+            case "$mul" -> {
+                BsonValue current = get(document, path);
+                set(document, path, current == null ? zero(number(operand)) : arithmetic(current, operand, true));
+            }
+            case "$min", "$max" -> {
+                BsonValue current = get(document, path);
+                int comparison = current == null ? 0 : DocumentMatcher.compare(operand, current);
+                if (current == null || (operator.equals("$min") ? comparison < 0 : comparison > 0)) {
+                    set(document, path, operand);
+                }
+            }
+            case "$rename" -> {
+                BsonValue current = get(document, path);
+                if (current != null) {
+                    remove(document, path);
+                    set(document, operand.asString().getValue(), current);
+                }
+            }
+            case "$currentDate" -> {
+                boolean timestamp = operand.isDocument() && "timestamp".equals(operand.asDocument().getString("$type", new BsonString("date")).getValue());
+                long now = System.currentTimeMillis();
+                set(document, path, timestamp ? new BsonTimestamp((int) (now / 1000), 0) : new BsonDateTime(now));
+            }
+            case "$push", "$addToSet" -> {
+                BsonArray array = array(document, path, operator);
+                BsonArray values = operand.isDocument() && operand.asDocument().containsKey("$each")
+                        ? operand.asDocument().getArray("$each")
+                        : new BsonArray(List.of(operand));
+                for (BsonValue value : values) {
+                    if (operator.equals("$push") || array.stream().noneMatch(element -> DocumentMatcher.equal(element, value))) {
+                        array.add(value);
+                    }
+                }
+            }
+            case "$pop" -> {
+                BsonValue current = get(document, path);
+                if (current != null && current.isArray() && !current.asArray().isEmpty()) {
+                    BsonArray array = current.asArray();
+                    array.remove(operand.asNumber().intValue() < 0 ? 0 : array.size() - 1);
+                }
+            }
+            case "$pull" -> {
+                BsonValue current = get(document, path);
+                if (current != null && current.isArray()) {
+                    current.asArray().removeIf(element -> pulls(element, operand));
+                }
+            }
+            case "$pullAll" -> {
+                BsonValue current = get(document, path);
+                if (current != null && current.isArray()) {
+                    BsonArray values = operand.asArray();
+                    current.asArray().removeIf(element -> values.stream().anyMatch(value -> DocumentMatcher.equal(element, value)));
+                }
+            }
+            default -> throw new IllegalArgumentException("unsupported operator " + operator);
+        }
+    }
+
+    // The condition of $pull is either a value or a query on the elements
+    private static boolean pulls(BsonValue element, BsonValue condition) {
+        if (!condition.isDocument()) return DocumentMatcher.equal(element, condition);
+
+        BsonDocument query = condition.asDocument();
+        if (!query.isEmpty() && query.getFirstKey().startsWith("$")) {
+            return DocumentMatcher.matches(new BsonDocument("v", element), new BsonDocument("v", query));
+        }
+        return element.isDocument() && DocumentMatcher.matches(element.asDocument(), query);
+    }
+
+    private static BsonArray array(BsonDocument document, String path, String operator) {
+        BsonValue current = get(document, path);
+        if (current == null) {
+            BsonArray array = new BsonArray();
+            set(document, path, array);
+            return array;
+        }
+        if (!current.isArray()) throw new IllegalArgumentException(operator + " needs an array at " + path);
+        return current.asArray();
+    }
+
+    private static BsonValue get(BsonDocument document, String path) {
+        BsonValue current = document;
+        for (String part : path.split("\\.")) {
+            current = child(current, part);
+            if (current == null) return null;
+        }
+        return current;
+    }
+
+    private static void set(BsonDocument document, String path, BsonValue value) {
+        String[] parts = path.split("\\.");
+        BsonValue current = document;
+        for (int i = 0; i < parts.length - 1; i++) {
+            BsonValue next = child(current, parts[i]);
+            if (next == null) {
+                // The missing embedded documents are created
+                next = new BsonDocument();
+                put(current, parts[i], next);
+            }
+            current = next;
+        }
+        put(current, parts[parts.length - 1], value);
+    }
+
+    private static void remove(BsonDocument document, String path) {
+        int dot = path.lastIndexOf('.');
+        BsonValue parent = dot < 0 ? document : get(document, path.substring(0, dot));
+        String name = path.substring(dot + 1);
+        if (parent != null && parent.isDocument()) {
+            parent.asDocument().remove(name);
+        } else if (parent != null && parent.isArray() && isIndex(name, parent.asArray())) {
+            // Like MongoDB, the element is replaced by null
+            parent.asArray().set(Integer.parseInt(name), BsonNull.VALUE);
+        }
+    }
+
+    private static BsonValue child(BsonValue value, String name) {
+        if (value.isDocument()) return value.asDocument().get(name);
+        if (value.isArray() && isIndex(name, value.asArray())) return value.asArray().get(Integer.parseInt(name));
+        return null;
+    }
+
+    private static void put(BsonValue container, String name, BsonValue value) {
+        if (container.isDocument()) {
+            container.asDocument().put(name, value);
+        } else if (container.isArray() && !name.isEmpty() && name.chars().allMatch(Character::isDigit)) {
+            BsonArray array = container.asArray();
+            int index = Integer.parseInt(name);
+            // The array is padded with null values
+            while (array.size() <= index) array.add(BsonNull.VALUE);
+            array.set(index, value);
+        } else {
+            throw new IllegalArgumentException("cannot create the field " + name + " in a " + container.getBsonType());
+        }
+    }
+
+    private static boolean isIndex(String name, BsonArray array) {
+        if (name.isEmpty() || !name.chars().allMatch(Character::isDigit)) return false;
+        return name.length() < 10 && Integer.parseInt(name) < array.size();
+    }
+
+    private static BsonValue number(BsonValue value) {
+        if (!value.isNumber() && !value.isDecimal128()) throw new IllegalArgumentException("cannot apply arithmetic to " + value.getBsonType());
+        return value;
+    }
+
+    private static BsonValue zero(BsonValue type) {
+        return arithmetic(type, new BsonInt32(0), true);
+    }
+
+    // Adds or multiplies two numbers, promoting the result like MongoDB does
+    private static BsonValue arithmetic(BsonValue first, BsonValue second, boolean multiply) {
+        number(first);
+        number(second);
+        if (first.isDecimal128() || second.isDecimal128()) {
+            BigDecimal a = decimal(first);
+            BigDecimal b = decimal(second);
+            return new BsonDecimal128(new Decimal128(multiply ? a.multiply(b) : a.add(b)));
+        }
+        if (first.isDouble() || second.isDouble()) {
+            double a = first.asNumber().doubleValue();
+            double b = second.asNumber().doubleValue();
+            return new BsonDouble(multiply ? a * b : a + b);
+        }
+
+        long a = first.asNumber().longValue();
+        long b = second.asNumber().longValue();
+        long result;
+        try {
+            result = multiply ? Math.multiplyExact(a, b) : Math.addExact(a, b);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("the result overflows a 64 bit integer");
+        }
+        if (first.isInt32() && second.isInt32() && result == (int) result) {
+            return new BsonInt32((int) result);
+        }
+        return new BsonInt64(result);
+    }
+
+    private static BigDecimal decimal(BsonValue value) {
+        if (value.isDecimal128()) return value.asDecimal128().getValue().bigDecimalValue();
+        if (value.isDouble()) return BigDecimal.valueOf(value.asDouble().getValue());
+        return BigDecimal.valueOf(value.asNumber().longValue());
+    }
+}
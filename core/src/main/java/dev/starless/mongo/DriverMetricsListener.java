@@ -0,0 +1,53 @@
+package dev.starless.mongo;
+
+import com.mongodb.event.*;
+import dev.starless.mongo.metrics.MetricsSink;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Forwards the command and connection pool events of the driver to the metrics sink.
+ */
+final class DriverMetricsListener implements CommandListener, ConnectionPoolListener {
+
+    private final MetricsSink sink;
+
+    DriverMetricsListener(MetricsSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        sink.recordCommand(event.getCommandName(), true, event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        sink.recordCommand(event.getCommandName(), false, event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        sink.recordPoolEvent(MetricsSink.PoolEvent.CONNECTION_CREATED, 0);
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        sink.recordPoolEvent(MetricsSink.PoolEvent.CONNECTION_CLOSED, 0);
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        sink.recordPoolEvent(MetricsSink.PoolEvent.CHECKED_OUT, event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        sink.recordPoolEvent(MetricsSink.PoolEvent.CHECK_OUT_FAILED, event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        sink.recordPoolEvent(MetricsSink.PoolEvent.CHECKED_IN, 0);
+    }
+}
@@ -0,0 +1,201 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.api.CacheStats;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Bounded cache of the objects of a single type, indexed by the values of their keys.
+The least recently used objects are evicted when the cache is full,
+and every object expires after the configured time.
+ */
+final class EntityCache {
+
+    private final Set<String> keyNames;
+    private final long ttlNanos;
+    private final Map<BsonDocument, CachedObject> entries;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    // Incremented by every write, so that the queries which started
+    // before it do not cache an outdated version of the object
+    private final AtomicLong generation;
+
+    EntityCache(Set<String> keyNames, Settings settings) {
+        this.keyNames = keyNames;
+        this.ttlNanos = settings.ttl().toNanos();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.generation = new AtomicLong();
+
+        int maxSize = settings.maxSize();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BsonDocument, CachedObject> eldest) {
+                if (size() <= maxSize) return false;
+
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param filter Filter of a query
+     * @return The object matching the filter, or null if the
+     * filter is not an equality on the keys or the object is not cached
+     */
+    Object get(BsonDocument filter) {
+        BsonDocument key = canonicalKey(filter);
+        if (key == null) return null;
+
+        synchronized (entries) {
+            CachedObject cached = entries.get(key);
+            if (cached != null && ttlNanos > 0 && System.nanoTime() - cached.time() > ttlNanos) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                cached = null;
+            }
+
+            if (cached == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            hits.incrementAndGet();
+            return cached.value();
+        }
+    }
+
+    /**
+     * @param filter Filter of a query
+     * @return true if the results of the query can be cached
+     */
+    boolean isKeyLookup(BsonDocument filter) {
+        return canonicalKey(filter) != null;
+    }
+
+    long generation() {
+        return generation.get();
+    }
+
+    // Caches an object loaded by a query, unless it was written in the meantime
+    void fill(BsonDocument filter, Object value, long generation) {
+        BsonDocument key = canonicalKey(filter);
+        if (key == null) return;
+
+        synchronized (entries) {
+            if (this.generation.get() == generation) {
+                entries.put(key, new CachedObject(value, System.nanoTime()));
+            }
+        }
+    }
+
+    // Caches an object which has just been stored
+    void put(BsonDocument keyFilter, Object value) {
+        BsonDocument key = canonicalKey(keyFilter);
+        synchronized (entries) {
+            generation.incrementAndGet();
+            if (key == null) {
+                entries.clear();
+            } else {
+                entries.put(key, new CachedObject(value, System.nanoTime()));
+            }
+        }
+    }
+
+    void invalidate(BsonDocument keyFilter) {
+        BsonDocument key = canonicalKey(keyFilter);
+        synchronized (entries) {
+            generation.incrementAndGet();
+            if (key == null) {
+                entries.clear();
+            } else {
+                entries.remove(key);
+            }
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    CacheStats stats() {
+        synchronized (entries) {
+            return new CacheStats(hits.get(), misses.get(), evictions.get(), entries.size());
+        }
+    }
+
+    /*
+    Converts an equality filter on every key, like {a: 1, b: 2}, {a: {$eq: 1}, b: 2}
+    or {$and: [{a: 1}, {b: 2}]}, to a document containing the keys in a fixed order.
+    Any other filter returns null.
+     */
+    private BsonDocument canonicalKey(BsonDocument filter) {
+        return canonicalKey(keyNames, filter);
+    }
+
+    static BsonDocument canonicalKey(Set<String> keyNames, BsonDocument filter) {
+        BsonDocument values = new BsonDocument();
+        if (!collectEqualities(filter, values) || values.size() != keyNames.size()) return null;
+
+        BsonDocument key = new BsonDocument();
+        for (String name : keyNames) {
+            BsonValue value = values.get(name);
+            if (value == null) return null;
+
+            key.append(name, value);
+        }
+        return key;
+    }
+
+    private static boolean collectEqualities(BsonDocument filter, BsonDocument values) {
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            String name = entry.getKey();
+            BsonValue value = entry.getValue();
+            if (name.equals("$and") && value.isArray()) {
+                BsonArray array = value.asArray();
+                for (BsonValue element : array) {
+                    if (!element.isDocument() || !collectEqualities(element.asDocument(), values)) return false;
+                }
+                continue;
+            }
+            if (name.startsWith("$")) return false;
+
+            if (value.isDocument()) {
+                BsonDocument document = value.asDocument();
+                if (!document.isEmpty() && document.getFirstKey().startsWith("$")) {
+                    // Only {$eq: value} is an equality
+                    if (document.size() != 1 || !document.containsKey("$eq")) return false;
+                    value = document.get("$eq");
+                }
+            }
+
+            BsonValue previous = values.put(name, value);
+            if (previous != null && !previous.equals(value)) return false;
+        }
+        return true;
+    }
+
+    private record CachedObject(Object value, long time) {
+    }
+
+    /**
+     * @param maxSize Maximum number of cached objects
+     * @param ttl     Time after which the objects are loaded again, or zero to never expire them
+     */
+    record Settings(int maxSize, Duration ttl) {
+    }
+}
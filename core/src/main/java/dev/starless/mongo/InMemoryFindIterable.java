@@ -0,0 +1,218 @@
+package dev.starless.mongo;
+
+import com.mongodb.CursorType;
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.Function;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Collation;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/*
+Receives the options set by the processors on the queries of the in-memory storage.
+Only the filter, the sorting, the projection, skip and limit change the results:
+the other options are accepted and ignored, and the results cannot be read from here.
+ */
+final class InMemoryFindIterable implements FindIterable<Document> {
+
+    private Bson filter;
+    private Bson sort;
+    private Bson projection;
+    private int skip;
+    private int limit;
+
+    InMemoryFindIterable(Bson filter, Bson projection) {
+        this.filter = filter;
+        this.projection = projection;
+    }
+
+    Bson getFilter() {
+        return filter;
+    }
+
+    Bson getSort() {
+        return sort;
+    }
+
+    Bson getProjection() {
+        return projection;
+    }
+
+    int getSkip() {
+        return skip;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public FindIterable<Document> filter(Bson filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> skip(int skip) {
+        this.skip = skip;
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> projection(Bson projection) {
+        this.projection = projection;
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> sort(Bson sort) {
+        this.sort = sort;
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> maxTime(long maxTime, TimeUnit timeUnit) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> maxAwaitTime(long maxAwaitTime, TimeUnit timeUnit) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> noCursorTimeout(boolean noCursorTimeout) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> partial(boolean partial) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> cursorType(CursorType cursorType) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> batchSize(int batchSize) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> collation(Collation collation) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> comment(String comment) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> comment(BsonValue comment) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> hint(Bson hint) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> hintString(String hint) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> let(Bson variables) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> max(Bson max) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> min(Bson min) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> returnKey(boolean returnKey) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> showRecordId(boolean showRecordId) {
+        return this;
+    }
+
+    @Override
+    public FindIterable<Document> allowDiskUse(Boolean allowDiskUse) {
+        return this;
+    }
+
+    @Override
+    public Document explain() {
+        throw unsupported();
+    }
+
+    @Override
+    public Document explain(ExplainVerbosity verbosity) {
+        throw unsupported();
+    }
+
+    @Override
+    public <E> E explain(Class<E> explainResultClass) {
+        throw unsupported();
+    }
+
+    @Override
+    public <E> E explain(Class<E> explainResultClass, ExplainVerbosity verbosity) {
+        throw unsupported();
+    }
+
+    @Override
+    public MongoCursor<Document> iterator() {
+        throw unsupported();
+    }
+
+    @Override
+    public MongoCursor<Document> cursor() {
+        throw unsupported();
+    }
+
+    @Override
+    public Document first() {
+        throw unsupported();
+    }
+
+    @Override
+    public <U> MongoIterable<U> map(Function<Document, U> mapper) {
+        throw unsupported();
+    }
+
+    @Override
+    public <A extends Collection<? super Document>> A into(A target) {
+        throw unsupported();
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("The processors of the in-memory storage can only change the options of the query");
+    }
+}
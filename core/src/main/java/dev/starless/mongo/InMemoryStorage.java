@@ -0,0 +1,716 @@
+package dev.starless.mongo;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import dev.starless.mongo.api.AsyncMongoStorage;
+import dev.starless.mongo.api.BulkResult;
+import dev.starless.mongo.api.CacheStats;
+import dev.starless.mongo.api.IterableProcessor;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.Page;
+import dev.starless.mongo.api.annotations.MongoObject;
+import dev.starless.mongo.codec.VersionAccessor;
+import dev.starless.mongo.logging.ILogger;
+import dev.starless.mongo.metrics.MetricsSink;
+import dev.starless.mongo.schema.MigrationSchema;
+import org.bson.*;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MongoStorage} keeping the documents in memory, created by {@link StorageBuilder#build()}
+ * when the connection string starts with <code>mem://</code>. It is meant for tests and local development:
+ * the objects are encoded and decoded with the same codecs used for MongoDB and the queries follow
+ * the semantics of MongoDB, but no server is needed.
+ * <p>
+ * The documents of every collection are sorted by the keys of the objects, and they live
+ * as long as the JVM: the instances created with the same url (like <code>mem://tests</code>)
+ * share the same data, even after being closed, until the database is deleted by {@link #drop(String)}.
+ * The filters can use the comparison operators ($eq, $ne, $gt, $gte, $lt, $lte, $in, $nin),
+ * $exists, $regex, $size, $all, $elemMatch and the logical operators ($and, $or, $nor, $not).
+ * The processors can change the sorting, the projection, skip and limit of the queries.
+ * The migration schemas, including the lazy ones, are applied during {@link #init()}.
+ * The entity cache and the write-behind buffer are not used, and there is no
+ * {@link MongoClient} nor {@link MongoCollection} to return.
+ */
+public final class InMemoryStorage implements MongoStorage {
+
+    // Data shared by every instance with the same name: name -> namespace -> key -> document
+    private static final Map<String, Map<String, ConcurrentNavigableMap<BsonDocument, BsonDocument>>> DATABASES = new ConcurrentHashMap<>();
+    private static final Comparator<BsonDocument> KEY_ORDER = DocumentMatcher::compare;
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private final StorageContext context;
+    private final ILogger logger;
+    private final String name;
+    private final AsyncStorageImpl asyncStorage;
+    private final MetricsSink metrics;
+    private final Map<Class<?>, Codec<?>> codecs;
+
+    private boolean initialized;
+
+    InMemoryStorage(StorageContext context, String name, Executor asyncExecutor, int maxInFlightRequests) {
+        this.context = context;
+        this.logger = context.getLogger();
+        this.name = name;
+        this.asyncStorage = new AsyncStorageImpl(this, logger, asyncExecutor, maxInFlightRequests);
+        this.metrics = context.getMetrics();
+        this.codecs = new ConcurrentHashMap<>();
+
+        this.initialized = false;
+    }
+
+    @Override
+    public void init() {
+        Map<String, ConcurrentNavigableMap<BsonDocument, BsonDocument>> collections = collections();
+        logger.info("Using the in-memory database %s", name);
+
+        // The documents are migrated immediately, even when the schema is lazy
+        context.getSchemas().forEach(schema -> {
+            String namespace = schema.getDatabase() + "." + context.collectionName(schema.getClazzName(), schema.getCollection());
+            ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collections.get(namespace);
+            if (documents != null) {
+                migrate(schema, documents);
+            }
+        });
+        logger.info("Validated all documents according to schemas.");
+
+        initialized = true;
+    }
+
+    private void migrate(MigrationSchema schema, ConcurrentNavigableMap<BsonDocument, BsonDocument> documents) {
+        DocumentCodec codec = new DocumentCodec(context.getCodecRegistry());
+        BsonDocument staleFilter = schema.isVersioned() ? schema.staleFilter().toBsonDocument(BsonDocument.class, context.getCodecRegistry()) : null;
+        documents.replaceAll((key, stored) -> {
+            if (staleFilter != null && !DocumentMatcher.matches(stored, staleFilter)) return stored;
+
+            Document document = codec.decode(new BsonDocumentReader(stored), DECODER_CONTEXT);
+            schema.migrationUpdate(document);
+            return document.toBsonDocument(BsonDocument.class, context.getCodecRegistry());
+        });
+    }
+
+    @Override
+    public void close() {
+        // Stop the threads used by the async requests, the data is kept
+        asyncStorage.shutdown();
+        initialized = false;
+    }
+
+    /**
+     * Deletes every collection of an in-memory database, releasing its documents.
+     * The instances using the database, even the open ones, see it as empty,
+     * while the other databases are not touched.
+     *
+     * @param name Name of the database, like <code>tests</code> for <code>mem://tests</code>
+     */
+    public static void drop(@NotNull String name) {
+        DATABASES.remove(name);
+    }
+
+    // Looked up on every request, so that the open instances see the database dropped
+    private Map<String, ConcurrentNavigableMap<BsonDocument, BsonDocument>> collections() {
+        return DATABASES.computeIfAbsent(name, key -> new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public void overrideCollectionName(Class<?> type, String name) {
+        context.overrideCollectionName(type, name);
+    }
+
+    @Override
+    public <T> List<T> find(@NotNull Class<? extends T> type,
+                            @NotNull IterableProcessor processor,
+                            @NotNull Bson filter) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Collections.emptyList();
+        }
+
+        return timed(MetricsSink.Operation.FIND, type, () -> decodeAll(type, type, query(type, processor, filter, null)));
+    }
+
+    @Override
+    public <V> List<V> find(@NotNull Class<?> type,
+                            @NotNull Class<V> view,
+                            @NotNull IterableProcessor processor,
+                            @NotNull Bson filter) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Collections.emptyList();
+        }
+
+        return timed(MetricsSink.Operation.FIND, type, () -> decodeAll(type, view, query(type, processor, filter, context.projection(view))));
+    }
+
+    @Override
+    public <T> Stream<T> stream(@NotNull Class<? extends T> type,
+                                @NotNull IterableProcessor processor,
+                                @NotNull Bson filter,
+                                int batchSize) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Stream.empty();
+        }
+
+        // The documents are already in memory, so there is no cursor to keep open
+        List<T> data = timed(MetricsSink.Operation.STREAM, type, () -> decodeAll(type, type, query(type, processor, filter, null)));
+        return data.stream();
+    }
+
+    @Override
+    public <T> Optional<T> findFirst(@NotNull Class<? extends T> type,
+                                     @NotNull IterableProcessor processor,
+                                     @NotNull Bson filter) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Optional.empty();
+        }
+
+        List<T> data = timed(MetricsSink.Operation.FIND_FIRST, type, () -> {
+            IterableProcessor first = iterable -> processor.process(iterable).limit(1);
+            return decodeAll(type, type, query(type, first, filter, null));
+        });
+        return data.isEmpty() ? Optional.empty() : Optional.of(data.get(0));
+    }
+
+    @Override
+    public <K, T> Map<K, T> findAllByKeys(@NotNull Class<T> type, @NotNull Collection<K> keys) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Collections.emptyMap();
+        }
+
+        ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collectionOf(type);
+        if (documents == null) return Collections.emptyMap();
+
+        return timed(MetricsSink.Operation.FIND_BY_KEYS, type, () -> {
+            Map<BsonDocument, List<K>> requested = KeyLookup.group(context, type, keys);
+
+            // The documents are stored by their key, so every key is a lookup
+            List<BsonDocument> foundKeys = new ArrayList<>();
+            List<BsonDocument> stored = new ArrayList<>();
+            for (BsonDocument key : requested.keySet()) {
+                BsonDocument document = documents.get(key);
+                if (document != null) {
+                    foundKeys.add(key);
+                    stored.add(document);
+                }
+            }
+
+            Map<BsonDocument, T> found = new HashMap<>();
+            decodeEach(type, type, stored, (obj, index) -> found.put(foundKeys.get(index), obj));
+            return KeyLookup.result(requested, found);
+        });
+    }
+
+    @Override
+    public <T> Page<T> page(@NotNull Class<? extends T> type,
+                            @NotNull Bson filter,
+                            @NotNull String sortField,
+                            boolean ascending,
+                            String afterToken,
+                            int size) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Page.empty();
+        }
+        if (size <= 0) return Page.empty();
+
+        // The keys make the order unique, even when many objects have the same value
+        List<String> fields = new ArrayList<>();
+        fields.add(sortField);
+        context.keys(type).keySet().forEach(key -> {
+            if (!fields.contains(key)) fields.add(key);
+        });
+
+        Bson query = filter;
+        if (afterToken != null) {
+            try {
+                BsonArray values = PageToken.decode(afterToken, sortField, ascending, fields.size());
+                query = Filters.and(filter, PageToken.after(fields, values, ascending));
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid page token for %s class: %s", type.getSimpleName(), e.getMessage());
+                return Page.empty();
+            }
+        }
+
+        Bson finalQuery = query;
+        Bson sort = ascending ? Sorts.ascending(fields) : Sorts.descending(fields);
+        List<BsonDocument> documents = new ArrayList<>(size + 1);
+        List<T> items = timed(MetricsSink.Operation.PAGE, type, () -> {
+            // The extra document tells if there is a next page
+            documents.addAll(query(type, iterable -> iterable.sort(sort).limit(size + 1), finalQuery, null));
+            return decodeAll(type, type, documents.subList(0, Math.min(size, documents.size())));
+        });
+        // The token points to the last document of the page, even if it could not be decoded
+        if (documents.size() <= size) return new Page<>(items, null);
+
+        return new Page<>(items, PageToken.encode(sortField, ascending, fields, documents.get(size - 1)));
+    }
+
+    @Override
+    public boolean store(@NotNull Object obj, boolean update) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return false;
+        }
+
+        ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collectionOf(obj.getClass());
+        if (documents == null) return false;
+
+        return timed(MetricsSink.Operation.STORE, obj.getClass(), () -> {
+            BulkResult.Outcome outcome = write(documents, obj, update);
+            return outcome != null && outcome != BulkResult.Outcome.CONFLICT;
+        });
+    }
+
+    /*
+    Writes the object to the collection and returns the outcome,
+    or null if the object has not been stored.
+     */
+    private BulkResult.Outcome write(ConcurrentNavigableMap<BsonDocument, BsonDocument> documents, Object obj, boolean update) {
+        VersionAccessor version = update ? versionOf(obj.getClass()) : null;
+        if (version != null) return writeVersioned(documents, obj, version);
+
+        BsonDocument document = encode(obj);
+        BsonDocument key = keyOf(obj.getClass(), document);
+        if (!update) {
+            if (!document.containsKey("_id")) {
+                document.put("_id", new BsonObjectId(new ObjectId()));
+            }
+            return documents.putIfAbsent(key, document) == null ? BulkResult.Outcome.INSERTED : null;
+        }
+
+        BulkResult.Outcome[] outcome = new BulkResult.Outcome[1];
+        documents.compute(key, (k, previous) -> {
+            outcome[0] = previous == null ? BulkResult.Outcome.INSERTED : BulkResult.Outcome.REPLACED;
+            // Like a replacement, the document keeps its _id
+            if (!document.containsKey("_id")) {
+                document.put("_id", previous != null && previous.containsKey("_id") ? previous.get("_id") : new BsonObjectId(new ObjectId()));
+            }
+            return document;
+        });
+        return outcome[0];
+    }
+
+    /*
+    Same as StorageImpl#storeVersioned: the document is replaced only if it has
+    the version of the object, which is incremented after the write.
+     */
+    private BulkResult.Outcome writeVersioned(ConcurrentNavigableMap<BsonDocument, BsonDocument> documents, Object obj, VersionAccessor version) {
+        long expected = version.get(obj);
+        BsonDocument document;
+        version.set(obj, expected + 1);
+        try {
+            document = encode(obj);
+        } finally {
+            version.set(obj, expected);
+        }
+
+        BulkResult.Outcome[] outcome = new BulkResult.Outcome[1];
+        documents.compute(keyOf(obj.getClass(), document), (k, previous) -> {
+            // A version of 0 means that the object has never been stored
+            if (previous == null ? expected != 0 : versionIn(previous, version.name()) != expected) {
+                outcome[0] = BulkResult.Outcome.CONFLICT;
+                return previous;
+            }
+
+            outcome[0] = previous == null ? BulkResult.Outcome.INSERTED : BulkResult.Outcome.REPLACED;
+            if (!document.containsKey("_id")) {
+                document.put("_id", previous != null && previous.containsKey("_id") ? previous.get("_id") : new BsonObjectId(new ObjectId()));
+            }
+            return document;
+        });
+
+        if (outcome[0] != BulkResult.Outcome.CONFLICT) {
+            version.set(obj, expected + 1);
+        }
+        return outcome[0];
+    }
+
+    private static long versionIn(BsonDocument document, String name) {
+        BsonValue value = document.get(name);
+        return value != null && value.isNumber() ? value.asNumber().longValue() : 0;
+    }
+
+    private VersionAccessor versionOf(Class<?> type) {
+        try {
+            return context.getCodecProvider().versionAccessor(type);
+        } catch (IllegalArgumentException e) {
+            logger.error("%s", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public int remove(@NotNull Object obj) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return 0;
+        }
+
+        ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collectionOf(obj.getClass());
+        if (documents == null) return 0;
+
+        return timed(MetricsSink.Operation.REMOVE, obj.getClass(), () -> documents.remove(keyOf(obj)) != null ? 1 : 0);
+    }
+
+    @Override
+    public BulkResult storeAll(@NotNull Collection<?> objects, boolean update, boolean ordered) {
+        BulkResultBuilder result = new BulkResultBuilder(objects.size());
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return result.build();
+        }
+
+        int index = 0;
+        for (Object obj : objects) {
+            ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collectionOf(obj.getClass());
+            if (documents == null) {
+                result.set(index, BulkResult.Outcome.FAILED);
+                // Ordered writes stop at the first error
+                if (ordered) break;
+            } else {
+                BulkResult.Outcome outcome = timed(MetricsSink.Operation.STORE_ALL, obj.getClass(), () -> write(documents, obj, update));
+                result.set(index, outcome == null ? BulkResult.Outcome.SKIPPED : outcome);
+                if (ordered && outcome == BulkResult.Outcome.CONFLICT) break;
+            }
+            index++;
+        }
+        return result.build();
+    }
+
+    @Override
+    public BulkResult removeAll(@NotNull Collection<?> objects, boolean ordered) {
+        BulkResultBuilder result = new BulkResultBuilder(objects.size());
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return result.build();
+        }
+
+        int index = 0;
+        for (Object obj : objects) {
+            ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collectionOf(obj.getClass());
+            if (documents == null) {
+                result.set(index, BulkResult.Outcome.FAILED);
+                if (ordered) break;
+            } else {
+                boolean removed = timed(MetricsSink.Operation.REMOVE_ALL, obj.getClass(), () -> documents.remove(keyOf(obj)) != null);
+                if (removed) result.addRemoved(1);
+                result.set(index, BulkResult.Outcome.REMOVED);
+            }
+            index++;
+        }
+        return result.build();
+    }
+
+    @Override
+    public boolean update(@NotNull Class<?> type, @NotNull Object keyOrEntity, @NotNull Bson updates) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return false;
+        }
+
+        return timed(MetricsSink.Operation.UPDATE, type, () -> updateOne(type, keyOrEntity, updates) != null);
+    }
+
+    @Override
+    public <T> Optional<T> updateAndGet(@NotNull Class<T> type, @NotNull Object keyOrEntity, @NotNull Bson updates) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Optional.empty();
+        }
+
+        List<T> data = timed(MetricsSink.Operation.UPDATE, type, () -> {
+            BsonDocument document = updateOne(type, keyOrEntity, updates);
+            return document == null ? List.<T>of() : decodeAll(type, type, List.of(document));
+        });
+        return data.isEmpty() ? Optional.empty() : Optional.of(data.get(0));
+    }
+
+    // Returns the updated document, or null if it has not been found
+    private BsonDocument updateOne(Class<?> type, Object keyOrEntity, Bson updates) {
+        ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collectionOf(type);
+        BsonDocument keyDocument = context.keyDocument(type, keyOrEntity);
+        if (documents == null || keyDocument == null) return null;
+
+        BsonDocument key = EntityCache.canonicalKey(context.keys(type).keySet(), keyDocument);
+        try {
+            BsonDocument update = toDocument(versioned(type, updates));
+            return documents.computeIfPresent(key, (k, document) -> updated(type, k, document, update));
+        } catch (IllegalArgumentException e) {
+            logger.error("Unsupported update on %s class: %s", type.getSimpleName(), e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public <T> Optional<T> modify(@NotNull Class<T> type, @NotNull Object keyOrEntity, @NotNull Function<T, T> change) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Optional.empty();
+        }
+
+        BsonDocument key = context.keyDocument(type, keyOrEntity);
+        if (key == null) return Optional.empty();
+
+        return OptimisticRetry.modify(logger, type, () -> findFirst(type, key), obj -> store(obj, true), change);
+    }
+
+    @Override
+    public long updateMany(@NotNull Class<?> type, @NotNull Bson filter, @NotNull Bson updates) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return 0;
+        }
+
+        ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collectionOf(type);
+        if (documents == null) return 0;
+
+        return timed(MetricsSink.Operation.UPDATE_MANY, type, () -> {
+            long modified = 0;
+            try {
+                BsonDocument filterDocument = toDocument(filter);
+                BsonDocument update = toDocument(versioned(type, updates));
+                for (Map.Entry<BsonDocument, BsonDocument> entry : documents.entrySet()) {
+                    if (!DocumentMatcher.matches(entry.getValue(), filterDocument)) continue;
+
+                    BsonDocument previous = entry.getValue();
+                    BsonDocument document = documents.computeIfPresent(entry.getKey(), (k, current) ->
+                            DocumentMatcher.matches(current, filterDocument) ? updated(type, k, current, update) : current);
+                    if (document != null && !document.equals(previous)) modified++;
+                }
+            } catch (IllegalArgumentException e) {
+                logger.error("Unsupported update on %s class: %s", type.getSimpleName(), e.getMessage());
+            }
+            return modified;
+        });
+    }
+
+    // Same as StorageImpl#versioned: the updates change the version of the versioned objects too
+    private Bson versioned(Class<?> type, Bson updates) {
+        VersionAccessor version = versionOf(type);
+        return version == null ? updates : Updates.combine(updates, Updates.inc(version.name(), 1));
+    }
+
+    private BsonDocument updated(Class<?> type, BsonDocument key, BsonDocument document, BsonDocument update) {
+        BsonDocument result = DocumentUpdater.apply(document, update);
+        // The documents are sorted by their keys, which would be outdated
+        if (DocumentMatcher.compare(key, keyOf(type, result)) != 0) {
+            throw new IllegalArgumentException("the keys cannot be changed by an update");
+        }
+        return result;
+    }
+
+    @Override
+    public void flush() {
+        // Every write is applied immediately
+    }
+
+    @Override
+    public Optional<CacheStats> cacheStats(Class<?> type) {
+        // The documents are already in memory, so nothing is cached
+        return Optional.empty();
+    }
+
+    @Override
+    public AsyncMongoStorage async() {
+        return asyncStorage;
+    }
+
+    /**
+     * There is no collection of MongoDB behind this storage.
+     *
+     * @return null
+     */
+    @Override
+    public MongoCollection<Document> getObjectCollection(Class<?> type) {
+        return null;
+    }
+
+    /**
+     * There is no connection to MongoDB behind this storage.
+     *
+     * @return null
+     */
+    @Override
+    public MongoClient getClient() {
+        return null;
+    }
+
+    /*
+    Runs the query on the documents of a type and returns them
+    after applying the options set by the processor.
+     */
+    private List<BsonDocument> query(Class<?> type, IterableProcessor processor, Bson filter, Bson projection) {
+        ConcurrentNavigableMap<BsonDocument, BsonDocument> documents = collectionOf(type);
+        if (documents == null) return Collections.emptyList();
+
+        InMemoryFindIterable iterable = new InMemoryFindIterable(filter, projection);
+        processor.process(iterable);
+
+        List<BsonDocument> results = new ArrayList<>();
+        try {
+            BsonDocument filterDocument = toDocument(iterable.getFilter());
+            // An equality on every key is a lookup, like on the unique index of MongoDB
+            BsonDocument key = EntityCache.canonicalKey(context.keys(type).keySet(), filterDocument);
+            Collection<BsonDocument> candidates;
+            if (key != null) {
+                BsonDocument document = documents.get(key);
+                candidates = document == null ? List.of() : List.of(document);
+            } else {
+                candidates = documents.values();
+            }
+
+            for (BsonDocument document : candidates) {
+                if (DocumentMatcher.matches(document, filterDocument)) {
+                    results.add(document);
+                }
+            }
+
+            BsonDocument sort = toDocument(iterable.getSort());
+            if (sort != null && !sort.isEmpty()) {
+                results.sort(DocumentMatcher.comparator(sort));
+            }
+
+            int skip = Math.min(Math.max(iterable.getSkip(), 0), results.size());
+            int limit = Math.abs(iterable.getLimit());
+            int end = limit == 0 ? results.size() : (int) Math.min(results.size(), (long) skip + limit);
+            results = results.subList(skip, end);
+
+            BsonDocument projectionDocument = toDocument(iterable.getProjection());
+            if (projectionDocument != null && !projectionDocument.isEmpty()) {
+                results.replaceAll(document -> DocumentMatcher.project(document, projectionDocument));
+            }
+        } catch (IllegalArgumentException e) {
+            logger.error("Unsupported query on %s class: %s", type.getSimpleName(), e.getMessage());
+            return Collections.emptyList();
+        }
+        return results;
+    }
+
+    private <T> List<T> decodeAll(Class<?> type, Class<? extends T> target, List<BsonDocument> documents) {
+        List<T> data = new ArrayList<>(documents.size());
+        decodeEach(type, target, documents, (obj, index) -> data.add(obj));
+        return data;
+    }
+
+    /*
+    Decodes the documents one at a time, passing every object with the index of its document:
+    a document which cannot be decoded is skipped, instead of discarding the documents after it.
+     */
+    private <T> void decodeEach(Class<?> type, Class<? extends T> target, List<BsonDocument> documents, ObjIntConsumer<T> consumer) {
+        Codec<? extends T> codec;
+        try {
+            codec = codecFor(target);
+        } catch (CodecConfigurationException e) {
+            logger.error("An error occurred while running find on %s class. (Type mismatch)", type.getSimpleName());
+            return;
+        }
+
+        int failed = 0;
+        for (int i = 0; i < documents.size(); i++) {
+            T obj;
+            try {
+                obj = codec.decode(new BsonDocumentReader(documents.get(i)), DECODER_CONTEXT);
+            } catch (BSONException | CodecConfigurationException e) {
+                failed++;
+                continue;
+            }
+            consumer.accept(obj, i);
+        }
+
+        if (failed > 0) {
+            logger.error("%d documents could not be decoded while running find on %s class. (Type mismatch)", failed, type.getSimpleName());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Codec<T> codecFor(Class<T> type) {
+        return (Codec<T>) codecs.computeIfAbsent(type, key -> {
+            Codec<?> codec = context.getCodecProvider().codecFor(key);
+            return metrics.isEnabled() ? OperationTimer.measure(codec) : codec;
+        });
+    }
+
+    private BsonDocument encode(Object obj) {
+        BsonDocument document = new BsonDocument();
+        Codec<Object> codec = codecFor(typeOf(obj.getClass()));
+        codec.encode(new BsonDocumentWriter(document), obj, ENCODER_CONTEXT);
+
+        MigrationSchema schema = context.schema(obj.getClass());
+        if (schema != null && schema.isVersioned()) {
+            document.put(MigrationSchema.VERSION_FIELD, new BsonInt32(schema.getVersion()));
+        }
+        return document;
+    }
+
+    // The key of a stored document contains the values of the keys in a fixed order
+    private BsonDocument keyOf(Class<?> type, BsonDocument document) {
+        BsonDocument key = new BsonDocument();
+        for (String name : context.keys(type).keySet()) {
+            BsonValue value = document.get(name);
+            key.append(name, value == null ? BsonNull.VALUE : value);
+        }
+        return key;
+    }
+
+    private BsonDocument keyOf(Object obj) {
+        BsonDocument filter = context.keyDocument(obj);
+        BsonDocument key = EntityCache.canonicalKey(context.keys(obj.getClass()).keySet(), filter);
+        return key != null ? key : keyOf(obj.getClass(), filter);
+    }
+
+    private ConcurrentNavigableMap<BsonDocument, BsonDocument> collectionOf(Class<?> type) {
+        // Small check for invalid keys
+        if (context.keys(type).isEmpty()) {
+            logger.warn("There are no keys for this object");
+            return null;
+        }
+
+        MongoObject annotation = context.annotation(type);
+        if (annotation == null) return null;
+
+        String namespace = annotation.database() + "." + context.collectionName(type.getName(), annotation.collection());
+        return collections().computeIfAbsent(namespace, key -> new ConcurrentSkipListMap<>(KEY_ORDER));
+    }
+
+    private BsonDocument toDocument(Bson bson) {
+        return bson == null ? null : bson.toBsonDocument(BsonDocument.class, context.getCodecRegistry());
+    }
+
+    private <R> R timed(MetricsSink.Operation operation, Class<?> type, Supplier<R> request) {
+        OperationTimer.start(metrics);
+        try {
+            return request.get();
+        } finally {
+            OperationTimer.stop(metrics, type, operation);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<Object> typeOf(Class<?> type) {
+        return (Class<Object>) type;
+    }
+}
@@ -0,0 +1,80 @@
+package dev.starless.mongo;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.*;
+
+/*
+Helpers of MongoStorage#findAllByKeys: the requested keys are converted to
+documents which can be compared with the keys of the found objects,
+and the missing ones are queried with a single filter for every batch.
+ */
+final class KeyLookup {
+
+    private KeyLookup() {
+    }
+
+    /**
+     * Converts the keys passed by the user to their canonical documents.
+     * The invalid keys are logged by {@link StorageContext#keyDocument(Class, Object)} and skipped.
+     *
+     * @return The requested keys grouped by their document, in the same order of the collection
+     */
+    static <K> Map<BsonDocument, List<K>> group(StorageContext context, Class<?> type, Collection<K> keys) {
+        Set<String> keyNames = context.keys(type).keySet();
+        Map<BsonDocument, List<K>> requested = new LinkedHashMap<>();
+        for (K key : keys) {
+            BsonDocument document = canonical(context, type, keyNames, key);
+            if (document != null) {
+                requested.computeIfAbsent(document, k -> new ArrayList<>(1)).add(key);
+            }
+        }
+        return requested;
+    }
+
+    /**
+     * @return The key document of an object in its canonical form, or null if it is not valid
+     */
+    static BsonDocument canonical(StorageContext context, Class<?> type, Set<String> keyNames, Object keyOrEntity) {
+        BsonDocument document = context.keyDocument(type, keyOrEntity);
+        return document == null ? null : EntityCache.canonicalKey(keyNames, document);
+    }
+
+    /**
+     * Creates a filter matching every key of the batch: a $in on the values
+     * of the key, or a $or of the key documents for the compound keys.
+     */
+    static BsonDocument filter(Set<String> keyNames, List<BsonDocument> batch) {
+        if (keyNames.size() == 1) {
+            String name = keyNames.iterator().next();
+            BsonArray values = new BsonArray(batch.size());
+            for (BsonDocument key : batch) {
+                values.add(key.get(name));
+            }
+            return new BsonDocument(name, new BsonDocument("$in", values));
+        }
+
+        return new BsonDocument("$or", new BsonArray(new ArrayList<BsonValue>(batch)));
+    }
+
+    /**
+     * Maps the found objects to the requested keys, in the same order of the collection.
+     *
+     * @param found The found objects, mapped by their canonical key
+     */
+    static <K, T> Map<K, T> result(Map<BsonDocument, List<K>> requested, Map<BsonDocument, T> found) {
+        Map<K, T> result = new LinkedHashMap<>();
+        requested.forEach((document, forms) -> {
+            T obj = found.get(document);
+            if (obj == null) return;
+
+            // The same object may be requested using different forms of its key
+            for (K form : forms) {
+                result.put(form, obj);
+            }
+        });
+        return result;
+    }
+}
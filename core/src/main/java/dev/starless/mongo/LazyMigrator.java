@@ -0,0 +1,294 @@
+package dev.starless.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import dev.starless.mongo.logging.ILogger;
+import dev.starless.mongo.schema.Entry;
+import dev.starless.mongo.schema.MigrationSchema;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonReader;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.*;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+Migrates the documents of the lazy schemas when they are read:
+the entries are applied to the raw document before decoding it,
+and the migrated fields are written back in batches by a background thread.
+The same thread slowly migrates the documents which are never read.
+ */
+final class LazyMigrator {
+
+    private static final long FLUSH_INTERVAL = 1;
+    private static final long SWEEP_INTERVAL = 5;
+
+    private final ILogger logger;
+    private final CodecRegistry registry;
+    private final int batchSize;
+
+    // Pending updates, grouped by collection and indexed by _id
+    // so that a document read many times is written only once
+    private final Map<MongoCollection<Document>, Map<Object, WriteModel<Document>>> pending;
+    private final List<SchemaMigrator.Target> sweeping;
+    private ScheduledExecutorService scheduler;
+
+    LazyMigrator(ILogger logger, CodecRegistry registry, int batchSize) {
+        this.logger = logger;
+        this.registry = registry;
+        this.batchSize = batchSize;
+
+        this.pending = new ConcurrentHashMap<>();
+        this.sweeping = new ArrayList<>();
+    }
+
+    synchronized void start(List<SchemaMigrator.Target> targets) {
+        if (targets.isEmpty() || scheduler != null) return;
+
+        sweeping.clear();
+        sweeping.addAll(targets);
+
+        // The sweeper looks for the stale documents of the versioned schemas
+        for (SchemaMigrator.Target target : targets) {
+            if (!target.schema().isVersioned()) continue;
+
+            try {
+                SchemaMigrator.createVersionIndex(target);
+            } catch (MongoException e) {
+                logger.warn("Could not create the schema version index of %s: %s", target.name(), e.getMessage());
+            }
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MongoStorage-lazy-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the sweeper and writes the pending updates.
+     */
+    void stop() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = scheduler;
+            scheduler = null;
+        }
+        if (executor == null) return;
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Wraps the codec of a type, so that its documents are migrated while being decoded.
+     */
+    <T> Codec<T> wrap(Codec<T> codec, MigrationSchema schema, MongoCollection<Document> collection) {
+        return new MigratingCodec<>(codec, schema, collection);
+    }
+
+    private void enqueue(MongoCollection<Document> collection, Object id, Bson filter, Bson update) {
+        Map<Object, WriteModel<Document>> updates = pending.computeIfAbsent(collection, key -> new ConcurrentHashMap<>());
+        updates.put(id, new UpdateOneModel<>(filter, update));
+
+        // Do not wait for the next flush if the batch is full
+        if (updates.size() >= batchSize) {
+            ScheduledExecutorService executor = scheduler;
+            if (executor != null) {
+                try {
+                    executor.execute(this::flush);
+                } catch (RejectedExecutionException ignored) {
+                    // The migrator is stopping and will flush anyway
+                }
+            }
+        }
+    }
+
+    synchronized void flush() {
+        pending.forEach((collection, updates) -> {
+            if (updates.isEmpty()) return;
+
+            List<WriteModel<Document>> models = new ArrayList<>(updates.size());
+            for (Object id : new ArrayList<>(updates.keySet())) {
+                WriteModel<Document> model = updates.remove(id);
+                if (model != null) models.add(model);
+            }
+
+            for (int start = 0; start < models.size(); start += batchSize) {
+                List<WriteModel<Document>> chunk = models.subList(start, Math.min(start + batchSize, models.size()));
+                try {
+                    collection.bulkWrite(chunk, new BulkWriteOptions().ordered(false));
+                } catch (MongoBulkWriteException e) {
+                    logger.error("%d migrated documents of %s could not be written: %s",
+                            e.getWriteErrors().size(), collection.getNamespace().getFullName(), e.getWriteErrors().get(0).getMessage());
+                } catch (MongoException e) {
+                    // The documents will be migrated again the next time they are read
+                    logger.error("Could not write the migrated documents of %s: %s", collection.getNamespace().getFullName(), e.getMessage());
+                } catch (RuntimeException e) {
+                    // Like a value which cannot be encoded: an exception escaping
+                    // the scheduled task would stop the flushes forever
+                    logger.error("Could not write the migrated documents of %s: %s", collection.getNamespace().getFullName(), e);
+                }
+            }
+        });
+    }
+
+    // Migrates a batch of documents which have not been read yet
+    private void sweep() {
+        List<SchemaMigrator.Target> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(sweeping);
+        }
+
+        for (SchemaMigrator.Target target : targets) {
+            MongoCollection<Document> collection = target.collection();
+            Bson filter = staleFilter(target.schema());
+            if (filter == null) continue;
+
+            try {
+                List<Document> documents = collection.find(filter).limit(batchSize).into(new ArrayList<>());
+                if (documents.isEmpty()) {
+                    logger.info("Every document of %s has been migrated", target.name());
+                    synchronized (this) {
+                        sweeping.remove(target);
+                    }
+                    continue;
+                }
+
+                documents.forEach(document -> migrate(target.schema(), collection, document));
+                flush();
+            } catch (MongoException e) {
+                logger.error("Could not migrate the documents of %s: %s", target.name(), e.getMessage());
+            } catch (RuntimeException e) {
+                // Thrown by a ValueSupplier or by a codec: the other collections
+                // and the next sweeps must keep running
+                logger.error("Could not migrate the documents of %s: %s", target.name(), e);
+            }
+        }
+    }
+
+    // Matches the documents which have not been migrated yet, or returns null if there are none
+    private static Bson staleFilter(MigrationSchema schema) {
+        if (schema.isVersioned()) return schema.staleFilter();
+
+        List<Bson> missing = schema.getEntries().stream().map(Entry::missingFieldFilter).toList();
+        return missing.isEmpty() ? null : Filters.or(missing);
+    }
+
+    private static boolean isUpToDate(MigrationSchema schema, RawBsonDocument raw) {
+        if (schema.isVersioned()) {
+            BsonValue version = raw.get(MigrationSchema.VERSION_FIELD);
+            return version != null && version.isNumber() && version.asNumber().intValue() >= schema.getVersion();
+        }
+
+        for (Entry entry : schema.getEntries()) {
+            if (!raw.containsKey(entry.fieldName())) return false;
+        }
+        return true;
+    }
+
+    /*
+    Applies the entries whose field is missing to the document
+    and queues the update which does the same in the database.
+     */
+    private void migrate(MigrationSchema schema, MongoCollection<Document> collection, Document document) {
+        if (schema.isVersioned()) {
+            // Every entry is applied at once, unless another instance did it in the meantime
+            Object id = document.get("_id");
+            Bson update = schema.migrationUpdate(document);
+            enqueue(collection, id, Filters.and(Filters.eq("_id", id), schema.staleFilter()), update);
+            return;
+        }
+
+        List<Bson> updates = new ArrayList<>();
+        List<Bson> filters = new ArrayList<>();
+        filters.add(Filters.eq("_id", document.get("_id")));
+
+        for (Entry entry : schema.getEntries()) {
+            if (document.containsKey(entry.fieldName())) continue;
+
+            Object value = entry.defaultSupplier().supply(document);
+            document.put(entry.fieldName(), value);
+            updates.add(Updates.set(entry.fieldName(), value));
+            // Do not overwrite the values written in the meantime
+            filters.add(entry.missingFieldFilter());
+
+            if (entry.hasDeprecatedName()) {
+                String deprecatedKey = entry.defaultSupplier().deprecatedKey();
+                document.remove(deprecatedKey);
+                updates.add(Updates.unset(deprecatedKey));
+            }
+        }
+
+        if (!updates.isEmpty()) {
+            enqueue(collection, document.get("_id"), Filters.and(filters), Updates.combine(updates));
+        }
+    }
+
+    private final class MigratingCodec<T> implements Codec<T> {
+
+        private final Codec<T> codec;
+        private final MigrationSchema schema;
+        private final MongoCollection<Document> collection;
+        private final Codec<RawBsonDocument> rawCodec;
+        private final Codec<Document> documentCodec;
+
+        private MigratingCodec(Codec<T> codec, MigrationSchema schema, MongoCollection<Document> collection) {
+            this.codec = codec;
+            this.schema = schema;
+            this.collection = collection;
+            this.rawCodec = new RawBsonDocumentCodec();
+            this.documentCodec = registry.get(Document.class);
+        }
+
+        @Override
+        public T decode(BsonReader reader, DecoderContext context) {
+            // Checking the raw bytes is cheaper than decoding every document twice
+            RawBsonDocument raw = rawCodec.decode(reader, context);
+            if (isUpToDate(schema, raw)) return codec.decode(raw.asBsonReader(), context);
+
+            Document document = documentCodec.decode(raw.asBsonReader(), context);
+            migrate(schema, collection, document);
+
+            BsonDocument migrated = document.toBsonDocument(BsonDocument.class, registry);
+            return codec.decode(new BsonDocumentReader(migrated), context);
+        }
+
+        @Override
+        public void encode(BsonWriter writer, T value, EncoderContext context) {
+            codec.encode(writer, value, context);
+        }
+
+        @Override
+        public Class<T> getEncoderClass() {
+            return codec.getEncoderClass();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.metrics.MetricsSink;
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/*
+Splits the duration of the operations in encode, network and decode phases.
+The sync driver runs the codecs in the thread executing the operation,
+so the time spent in the codecs is accumulated in a per thread timer
+and the rest of the operation is attributed to the network.
+Nothing is measured, and nothing is allocated, when the sink is disabled.
+ */
+final class OperationTimer {
+
+    private static final ThreadLocal<OperationTimer> TIMERS = ThreadLocal.withInitial(OperationTimer::new);
+
+    private int depth;
+    private long start;
+    private long encoding;
+    private long decoding;
+
+    private OperationTimer() {
+    }
+
+    static void start(MetricsSink sink) {
+        if (!sink.isEnabled()) return;
+
+        OperationTimer timer = TIMERS.get();
+        // The nested operations (like a flush made by a store) are part of the outer one
+        if (timer.depth++ == 0) {
+            timer.encoding = 0;
+            timer.decoding = 0;
+            timer.start = System.nanoTime();
+        }
+    }
+
+    static void stop(MetricsSink sink, Class<?> type, MetricsSink.Operation operation) {
+        if (!sink.isEnabled()) return;
+
+        OperationTimer timer = TIMERS.get();
+        if (--timer.depth > 0) return;
+
+        long total = System.nanoTime() - timer.start;
+        sink.recordOperation(type, operation, MetricsSink.Phase.ENCODE, timer.encoding);
+        sink.recordOperation(type, operation, MetricsSink.Phase.DECODE, timer.decoding);
+        sink.recordOperation(type, operation, MetricsSink.Phase.NETWORK, Math.max(0, total - timer.encoding - timer.decoding));
+        sink.recordOperation(type, operation, MetricsSink.Phase.TOTAL, total);
+    }
+
+    /**
+     * Wraps a codec, so that the time spent in it is attributed to the current operation.
+     */
+    static <T> Codec<T> measure(Codec<T> codec) {
+        return new MeasuredCodec<>(codec);
+    }
+
+    private static final class MeasuredCodec<T> implements Codec<T> {
+
+        private final Codec<T> codec;
+
+        private MeasuredCodec(Codec<T> codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void encode(BsonWriter writer, T value, EncoderContext context) {
+            long start = System.nanoTime();
+            try {
+                codec.encode(writer, value, context);
+            } finally {
+                TIMERS.get().encoding += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public T decode(BsonReader reader, DecoderContext context) {
+            long start = System.nanoTime();
+            try {
+                return codec.decode(reader, context);
+            } finally {
+                TIMERS.get().decoding += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public Class<T> getEncoderClass() {
+            return codec.getEncoderClass();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.logging.ILogger;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/*
+Read-modify-write loop of MongoStorage#modify: when the store fails because
+of a different version, the object is loaded again and the change is applied
+to the latest version, after a random wait which grows with every conflict.
+ */
+final class OptimisticRetry {
+
+    static final int MAX_ATTEMPTS = 10;
+    private static final long BASE_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private OptimisticRetry() {
+    }
+
+    /**
+     * @param load   Loads the latest stored version of the object, without using the entity cache
+     * @param store  Stores the changed object, returning false if it has a different version
+     * @param change Function passed to {@link dev.starless.mongo.api.MongoStorage#modify(Class, Object, Function)}
+     */
+    static <T> Optional<T> modify(ILogger logger, Class<T> type, Supplier<Optional<T>> load, Predicate<T> store, Function<T, T> change) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Optional<T> loaded = load.get();
+            if (loaded.isEmpty()) return Optional.empty();
+
+            T changed = change.apply(loaded.get());
+            if (changed == null) return Optional.empty();
+
+            if (store.test(changed)) return Optional.of(changed);
+
+            if (!backoff(attempt)) return Optional.empty();
+        }
+
+        logger.warn("Could not modify a %s object: it has been changed by others %d times in a row", type.getSimpleName(), MAX_ATTEMPTS);
+        return Optional.empty();
+    }
+
+    // Full jitter: the concurrent writers wait different times, so they do not conflict again
+    private static boolean backoff(int attempt) {
+        long max = Math.min(MAX_BACKOFF_NANOS, BASE_BACKOFF_NANOS << attempt);
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(max + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package dev.starless.mongo;
+
+import com.mongodb.client.model.Filters;
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.conversions.Bson;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/*
+Continuation tokens of the keyset pagination. A token contains
+the values of the sorting fields of the last object of a page,
+so the next page is just a range query on the index of those fields.
+ */
+final class PageToken {
+
+    private PageToken() {
+    }
+
+    /**
+     * @param sortField Field requested by the user
+     * @param ascending Sorting order
+     * @param fields    Sorting field followed by the keys
+     * @param last      Last document of the page
+     * @return The token, encoded in URL safe base64
+     */
+    static String encode(String sortField, boolean ascending, List<String> fields, BsonDocument last) {
+        BsonArray values = new BsonArray(fields.size());
+        for (String field : fields) {
+            values.add(valueAt(last, field));
+        }
+
+        BsonDocument token = new BsonDocument("f", new BsonString(sortField))
+                .append("a", BsonBoolean.valueOf(ascending))
+                .append("v", values);
+        RawBsonDocument raw = new RawBsonDocument(token, new BsonDocumentCodec());
+        ByteBuffer buffer = raw.getByteBuffer().asNIO();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @return The values contained in the token
+     * @throws IllegalArgumentException if the token is malformed or was created for another query
+     */
+    static BsonArray decode(String token, String sortField, boolean ascending, int size) {
+        BsonDocument document;
+        try {
+            document = new RawBsonDocument(Base64.getUrlDecoder().decode(token));
+            if (!document.getString("f").getValue().equals(sortField) || document.getBoolean("a").getValue() != ascending) {
+                throw new IllegalArgumentException("the token belongs to a different sorting");
+            }
+
+            BsonArray values = document.getArray("v");
+            if (values.size() != size) throw new IllegalArgumentException("the token belongs to a different type");
+            return values;
+        } catch (BSONException | ClassCastException e) {
+            throw new IllegalArgumentException("the token is malformed", e);
+        }
+    }
+
+    /*
+    Matches the documents coming after the values of the token:
+    {$or: [{a: {$gt: va}}, {a: va, b: {$gt: vb}}, ...]}
+     */
+    static Bson after(List<String> fields, BsonArray values, boolean ascending) {
+        List<Bson> branches = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            Bson next = next(fields.get(i), values.get(i), ascending);
+            if (next == null) continue;
+
+            List<Bson> conditions = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; j++) {
+                conditions.add(Filters.eq(fields.get(j), values.get(j)));
+            }
+            conditions.add(next);
+            branches.add(conditions.size() == 1 ? conditions.get(0) : Filters.and(conditions));
+        }
+
+        // Nothing comes after the last null of a descending sorting
+        if (branches.isEmpty()) return Filters.in(fields.get(0), List.of());
+        return branches.size() == 1 ? branches.get(0) : Filters.or(branches);
+    }
+
+    /*
+    Matches the values of a field coming after the given one. The comparisons of MongoDB
+    never match null or missing values, which are sorted before every other value:
+    they are matched explicitly, and {$gt: null} is replaced by {$ne: null}.
+    Returns null if no value can come after the given one.
+     */
+    private static Bson next(String field, BsonValue value, boolean ascending) {
+        if (value.isNull()) return ascending ? Filters.ne(field, null) : null;
+
+        return ascending ? Filters.gt(field, value) : Filters.or(Filters.lt(field, value), Filters.eq(field, null));
+    }
+
+    // Reads the value of a field, following the dots of the nested ones
+    private static BsonValue valueAt(BsonDocument document, String path) {
+        BsonValue current = document;
+        for (String part : path.split("\\.")) {
+            if (current == null || !current.isDocument()) return BsonNull.VALUE;
+            current = current.asDocument().get(part);
+        }
+        return current == null ? BsonNull.VALUE : current;
+    }
+}
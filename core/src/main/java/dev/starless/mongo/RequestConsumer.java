@@ -0,0 +1,10 @@
+package dev.starless.mongo;
+
+import com.mongodb.client.MongoCollection;
+
+import java.util.Map;
+
+public interface RequestConsumer<T> {
+
+    void accept(MongoCollection<T> collection, Map<String, Class<?>> keys);
+}
@@ -0,0 +1,319 @@
+package dev.starless.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.*;
+import dev.starless.mongo.logging.ILogger;
+import dev.starless.mongo.schema.MigrationSchema;
+import dev.starless.mongo.schema.MigrationStep;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Applies the entries of the migration schemas using as few round trips as possible:
+the built-in suppliers are translated to a single pipeline update executed by MongoDB,
+while the values of the custom suppliers are computed here and sent in bulk writes.
+
+Different collections are migrated in parallel, and the collections with many documents to migrate are split
+in ranges of _id which are migrated in parallel too. The progress of every range
+is saved in a metadata collection, so that a restarted migration resumes from
+the last processed document instead of starting again.
+ */
+final class SchemaMigrator {
+
+    static final String METADATA_COLLECTION = "mongostorage_migrations";
+
+    private static final long RANGE_SIZE = 100_000;
+    private static final int MAX_RANGES = 64;
+    // The projected _ids are small, so many of them fit in a single round trip
+    private static final int BOUNDS_BATCH_SIZE = 10_000;
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private final ILogger logger;
+    private final int batchSize;
+    private final int parallelism;
+
+    SchemaMigrator(ILogger logger, int batchSize, int parallelism) {
+        this.logger = logger;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Migrates the collections and waits for the end of the migration.
+     */
+    void migrate(List<Target> targets) {
+        if (targets.isEmpty()) return;
+
+        // The tasks wait for the ranges they have split, and the
+        // work stealing of the fork-join pool keeps the threads busy meanwhile
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> ForkJoinTask.invokeAll(targets.stream()
+                    .map(target -> ForkJoinTask.adapt(() -> migrate(target)))
+                    .toList())).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void migrate(Target target) {
+        MigrationSchema schema = target.schema();
+        if (schema.isVersioned()) {
+            // The documents written with an older version receive every entry
+            // in a single update, and the up-to-date ones are never scanned
+            try {
+                createVersionIndex(target);
+            } catch (RuntimeException e) {
+                logger.error("Could not migrate %s to version %d: %s", target.name(), schema.getVersion(), e.getMessage());
+                return;
+            }
+        }
+
+        // The steps of the same collection are applied in order
+        for (MigrationStep step : schema.steps()) {
+            try {
+                migrate(target, target.name() + step.name(), step);
+
+                MigrationStep.Cleanup cleanup = step.cleanup();
+                if (cleanup != null) {
+                    target.collection().updateMany(cleanup.filter(), cleanup.update());
+                }
+            } catch (RuntimeException e) {
+                logger.error("Could not migrate %s%s: %s", target.name(), step.name(), e.getMessage());
+            }
+        }
+    }
+
+    /*
+    The stale documents are found using this index, so an up-to-date collection
+    costs a single indexed count. Creating an existing index does nothing.
+     */
+    static void createVersionIndex(Target target) {
+        target.collection().createIndex(Indexes.ascending(MigrationSchema.VERSION_FIELD));
+    }
+
+    private void migrate(Target target, String id, MigrationStep step) {
+        long total = target.collection().countDocuments(step.filter());
+        if (total == 0) return;
+
+        Progress progress = new Progress(id, total);
+        if (total < RANGE_SIZE) {
+            // A single filtered pass is enough, so there is nothing to split nor to resume
+            migrateRange(target, null, step, Range.ALL, progress);
+            target.metadata().deleteOne(Filters.eq("_id", id));
+            progress.finish();
+            return;
+        }
+
+        List<Range> ranges = loadRanges(target, id);
+        if (ranges == null) {
+            ranges = splitRanges(target.collection(), step.filter(), total);
+            saveRanges(target, id, ranges);
+        } else {
+            logger.info("Resuming the migration of %s from the last checkpoint", id);
+        }
+
+        ForkJoinTask.invokeAll(ranges.stream()
+                .filter(range -> !range.done())
+                .map(range -> ForkJoinTask.adapt(() -> migrateRange(target, id, step, range, progress)))
+                .toList());
+
+        // The range queries match only the _ids having the same type of the
+        // bounds: this last pass migrates the documents with other _id types
+        migrateRange(target, null, step, Range.ALL, progress);
+
+        target.metadata().deleteOne(Filters.eq("_id", id));
+        progress.finish();
+    }
+
+    private void migrateRange(Target target, String id, MigrationStep step, Range range, Progress progress) {
+        MongoCollection<Document> collection = target.collection();
+        Bson filter = Filters.and(step.filter(), range.filter());
+
+        if (step.pipeline() != null) {
+            // Every document of the range is migrated by MongoDB in a single round trip
+            progress.add(collection.updateMany(filter, step.pipeline()).getModifiedCount());
+        } else {
+            List<WriteModel<Document>> models = new ArrayList<>(batchSize);
+            Object lastId = null;
+            try (MongoCursor<Document> cursor = collection.find(filter).sort(Sorts.ascending("_id")).batchSize(batchSize).cursor()) {
+                while (cursor.hasNext()) {
+                    Document document = cursor.next();
+                    lastId = document.get("_id");
+                    // The update is harmless if the cursor returns the same document twice
+                    models.add(step.documentUpdate(document));
+
+                    if (models.size() >= batchSize) {
+                        progress.add(write(collection, models));
+                        models.clear();
+                        checkpoint(target, id, range, lastId);
+                    }
+                }
+            }
+
+            if (!models.isEmpty()) {
+                progress.add(write(collection, models));
+            }
+        }
+
+        if (id != null) {
+            target.metadata().updateOne(Filters.eq("_id", id), Updates.set("ranges." + range.index() + ".done", true));
+        }
+    }
+
+    private long write(MongoCollection<Document> collection, List<WriteModel<Document>> models) {
+        try {
+            return collection.bulkWrite(models, new BulkWriteOptions().ordered(false)).getModifiedCount();
+        } catch (MongoBulkWriteException e) {
+            logger.error("%d documents of %s could not be migrated: %s",
+                    e.getWriteErrors().size(), collection.getNamespace().getCollectionName(), e.getWriteErrors().get(0).getMessage());
+            return e.getWriteResult().getModifiedCount();
+        }
+    }
+
+    private void checkpoint(Target target, String id, Range range, Object lastId) {
+        if (id == null) return;
+
+        target.metadata().updateOne(Filters.eq("_id", id), Updates.set("ranges." + range.index() + ".last", lastId));
+    }
+
+    /*
+    Finds the bounds of ranges containing RANGE_SIZE documents to migrate each,
+    reading their _ids in a single pass instead of skipping to every bound.
+     */
+    private List<Range> splitRanges(MongoCollection<Document> collection, Bson filter, long total) {
+        int size = (int) Math.min(MAX_RANGES, Math.max(1, total / RANGE_SIZE));
+        long step = total / size;
+
+        List<Object> bounds = new ArrayList<>(size - 1);
+        if (size > 1) {
+            try (MongoCursor<Document> cursor = collection.find(filter)
+                    .sort(Sorts.ascending("_id"))
+                    .projection(Projections.include("_id"))
+                    .batchSize(BOUNDS_BATCH_SIZE)
+                    .cursor()) {
+                long position = 0;
+                // The documents after the last bound are not read
+                while (bounds.size() < size - 1 && cursor.hasNext()) {
+                    Object id = cursor.next().get("_id");
+                    if (position++ == step * (bounds.size() + 1)) {
+                        bounds.add(id);
+                    }
+                }
+            }
+        }
+
+        List<Range> ranges = new ArrayList<>(bounds.size() + 1);
+        for (int i = 0; i <= bounds.size(); i++) {
+            Object min = i == 0 ? null : bounds.get(i - 1);
+            Object max = i == bounds.size() ? null : bounds.get(i);
+            ranges.add(new Range(i, min, max, null, false));
+        }
+        return ranges;
+    }
+
+    private void saveRanges(Target target, String id, List<Range> ranges) {
+        List<Document> documents = ranges.stream()
+                .map(range -> new Document("min", range.min())
+                        .append("max", range.max())
+                        .append("last", null)
+                        .append("done", false))
+                .toList();
+
+        target.metadata().replaceOne(Filters.eq("_id", id),
+                new Document("_id", id).append("ranges", documents),
+                new ReplaceOptions().upsert(true));
+    }
+
+    private List<Range> loadRanges(Target target, String id) {
+        Document checkpoint = target.metadata().find(Filters.eq("_id", id)).first();
+        if (checkpoint == null) return null;
+
+        List<Document> documents = checkpoint.getList("ranges", Document.class);
+        if (documents == null || documents.isEmpty()) return null;
+
+        List<Range> ranges = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            ranges.add(new Range(i,
+                    document.get("min"),
+                    document.get("max"),
+                    document.get("last"),
+                    document.getBoolean("done", false)));
+        }
+        return ranges;
+    }
+
+    /**
+     * @param collection Collection to migrate
+     * @param schema     Entries to apply
+     * @param metadata   Collection containing the checkpoints
+     */
+    record Target(MongoCollection<Document> collection, MigrationSchema schema, MongoCollection<Document> metadata) {
+
+        String name() {
+            return collection.getNamespace().getFullName();
+        }
+    }
+
+    /*
+    Documents having min <= _id < max. The bounds are null for the first and last range,
+    and last is the _id of the last migrated document of the range.
+     */
+    private record Range(int index, Object min, Object max, Object last, boolean done) {
+
+        static final Range ALL = new Range(-1, null, null, null, false);
+
+        Bson filter() {
+            List<Bson> filters = new ArrayList<>(3);
+            if (min != null) filters.add(Filters.gte("_id", min));
+            if (max != null) filters.add(Filters.lt("_id", max));
+            if (last != null) filters.add(Filters.gt("_id", last));
+            return filters.isEmpty() ? Filters.empty() : Filters.and(filters);
+        }
+    }
+
+    private final class Progress {
+
+        private final String name;
+        private final long total;
+        private final long start;
+        private final AtomicLong done;
+        private final AtomicLong lastReport;
+
+        private Progress(String name, long total) {
+            this.name = name;
+            this.total = total;
+            this.start = System.nanoTime();
+            this.done = new AtomicLong();
+            this.lastReport = new AtomicLong(start);
+
+            logger.info("Migrating %d documents of %s", total, name);
+        }
+
+        void add(long count) {
+            long current = done.addAndGet(count);
+            long now = System.nanoTime();
+            long last = lastReport.get();
+            if (now - last < REPORT_INTERVAL || !lastReport.compareAndSet(last, now)) return;
+
+            double rate = current / ((now - start) / 1e9);
+            long eta = rate > 0 ? (long) (Math.max(0, total - current) / rate) : -1;
+            logger.info("Migrating %s: %d/%d documents (%.0f docs/s, ETA %ds)", name, current, total, rate, eta);
+        }
+
+        void finish() {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            logger.info("Migrated %d documents of %s in %.1fs", done.get(), name, seconds);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.api.IterableProcessor;
+import dev.starless.mongo.metrics.MetricsSink;
+import org.bson.BsonDocument;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+Lets the concurrent identical reads share a single query: the first request
+runs it, while the other ones wait for its result instead of sending their own.
+Two requests are identical when they have the same operation, type, filter and processor instance,
+and no write of that type has completed between them.
+ */
+final class SingleFlight {
+
+    private final MetricsSink metrics;
+    private final Map<Request, CompletableFuture<Object>> inFlight;
+    // Incremented after every write, so that the requests made after it
+    // never receive the result of a query which started before it
+    private final Map<Class<?>, AtomicLong> generations;
+
+    SingleFlight(MetricsSink metrics) {
+        this.metrics = metrics;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.generations = new ConcurrentHashMap<>();
+    }
+
+    Request request(MetricsSink.Operation operation, Class<?> type, BsonDocument filter, IterableProcessor processor) {
+        return new Request(operation, type, filter, processor, generation(type).get());
+    }
+
+    /**
+     * Runs the query, or waits for the identical one which is already running.
+     * The exceptions of the query are thrown to every request sharing it.
+     *
+     * @return The result of the query, which is shared between the requests
+     */
+    @SuppressWarnings("unchecked")
+    <R> R execute(Request request, Supplier<R> query) {
+        CompletableFuture<Object> own = new CompletableFuture<>();
+        CompletableFuture<Object> shared = inFlight.putIfAbsent(request, own);
+        if (shared != null) {
+            if (metrics.isEnabled()) {
+                metrics.recordDeduplicated(request.type(), request.operation());
+            }
+            return (R) await(shared);
+        }
+
+        R result;
+        try {
+            result = query.get();
+        } catch (Throwable e) {
+            inFlight.remove(request, own);
+            own.completeExceptionally(e);
+            throw e;
+        }
+
+        // Removed before the completion: the requests arriving from now on
+        // run a new query instead of receiving a result which may be already outdated
+        inFlight.remove(request, own);
+        own.complete(result);
+        return result;
+    }
+
+    void written(Class<?> type) {
+        generation(type).incrementAndGet();
+    }
+
+    private AtomicLong generation(Class<?> type) {
+        return generations.computeIfAbsent(type, key -> new AtomicLong());
+    }
+
+    private static Object await(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
+    // The processors are compared by identity, since they are usually lambdas
+    record Request(MetricsSink.Operation operation, Class<?> type, BsonDocument filter, IterableProcessor processor, long generation) {
+    }
+}
@@ -0,0 +1,332 @@
+package dev.starless.mongo;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import dev.starless.mongo.adapters.DurationAdapter;
+import dev.starless.mongo.adapters.InstantAdapter;
+import dev.starless.mongo.adapters.OffsetDateTimeAdapter;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.logging.ILogger;
+import dev.starless.mongo.logging.JavaLogger;
+import dev.starless.mongo.logging.SLF4JLogger;
+import dev.starless.mongo.metrics.MetricsSink;
+import dev.starless.mongo.schema.MigrationSchema;
+
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public final class StorageBuilder {
+
+    private static final String IN_MEMORY_SCHEME = "mem://";
+
+    private final String url;
+    private final GsonBuilder gson;
+    private final Set<Type> adaptedTypes;
+    private final List<MigrationSchema> schemas;
+    private final Set<Class<?>> types;
+    private ILogger logger;
+    private int bulkChunkSize;
+    private Executor asyncExecutor;
+    private int maxInFlightRequests;
+    private Duration writeBehindInterval;
+    private int writeBehindMaxPending;
+    private final Map<Class<?>, EntityCache.Settings> cacheSettings;
+    private int migrationParallelism;
+    private final Set<Class<?>> trackedTypes;
+    private MetricsSink metrics;
+    private boolean coalesceReads;
+
+    private StorageBuilder(String url) {
+        this.url = url;
+        this.gson = new GsonBuilder().serializeNulls();
+        this.adaptedTypes = new HashSet<>();
+
+        // Register some useful TypeAdapters out of the box
+        typeAdapter(Duration.class, new DurationAdapter());
+        typeAdapter(Instant.class, new InstantAdapter());
+        typeAdapter(OffsetDateTime.class, new OffsetDateTimeAdapter());
+        this.schemas = new ArrayList<>();
+        this.types = new LinkedHashSet<>();
+        this.logger = new JavaLogger(Logger.getLogger("MongoStorage"));
+        this.bulkChunkSize = 1000;
+        this.asyncExecutor = null;
+        this.maxInFlightRequests = 500;
+        this.writeBehindInterval = null;
+        this.writeBehindMaxPending = 0;
+        this.cacheSettings = new HashMap<>();
+        this.migrationParallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+        this.trackedTypes = new HashSet<>();
+        this.metrics = MetricsSink.NOOP;
+        this.coalesceReads = false;
+    }
+
+    /**
+     * Initializes a builder.
+     *
+     * @param url MongoDB connection string, or <code>mem://name</code> to keep the documents in memory
+     * @return new {@link StorageBuilder} instance
+     */
+    public static StorageBuilder create(String url) {
+        return new StorageBuilder(url);
+    }
+
+    /**
+     * Register a {@link com.google.gson.TypeAdapter} implementation to
+     * (de)serialize custom classes.
+     * Values of this type will be converted using Gson instead
+     * of being written directly to BSON.
+     *
+     * @param type        Type of the class
+     * @param typeAdapter This object must implement at least one of the {@link TypeAdapter}, {@link com.google.gson.InstanceCreator},
+     *                    {@link com.google.gson.JsonSerializer}, and a {@link com.google.gson.JsonDeserializer} interfaces.
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder typeAdapter(Type type, Object typeAdapter) {
+        gson.registerTypeAdapter(type, typeAdapter);
+        adaptedTypes.add(type);
+        return this;
+    }
+
+    /**
+     * Register new instructions to migrate objects from old
+     * to new schemas, for example when a variable gets renamed.
+     *
+     * @param schema {@link MigrationSchema} object
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder migrationSchema(MigrationSchema schema) {
+        schemas.add(schema);
+        return this;
+    }
+
+    /**
+     * Register a {@link dev.starless.mongo.api.annotations.MongoObject} annotated class,
+     * so that the unique index on its keys is created during {@link MongoStorage#init()}
+     * instead of the first time the class is used.
+     *
+     * @param type Class of the objects
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder register(Class<?> type) {
+        types.add(type);
+        return this;
+    }
+
+    /**
+     * Force the library to use a certain logger
+     * instead of the default {@link Logger}.
+     *
+     * @param obj Logger instance to use
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder logger(Object obj) {
+        if (obj instanceof java.util.logging.Logger loggerInstance) {
+            this.logger = new JavaLogger(loggerInstance);
+        } else if (obj instanceof org.slf4j.Logger loggerInstance) {
+            this.logger = new SLF4JLogger(loggerInstance);
+        } else {
+            throw new IllegalArgumentException("This type of logger is not supported!");
+        }
+        return this;
+    }
+
+    /**
+     * Sometimes MongoDB logging can be annoying, so
+     * here's an option to decide what level of logging you desire.
+     *
+     * @param level {@link Level} for the MongoDB logger
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder mongoLoggerLevel(Level level) {
+         Logger.getLogger("org.mongodb.driver").setLevel(level);
+         return this;
+    }
+
+    /**
+     * Sets the maximum number of threads migrating the documents during {@link MongoStorage#init()}.
+     * Different collections, and different ranges of large collections, are migrated in parallel.
+     *
+     * @param threads Number of threads (up to 4 by default)
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder migrationParallelism(int threads) {
+        if (threads <= 0) throw new IllegalArgumentException("The number of threads must be positive!");
+
+        this.migrationParallelism = threads;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of operations sent to MongoDB
+     * in a single bulk write by {@link MongoStorage#storeAll(java.util.Collection, boolean)}
+     * and {@link MongoStorage#removeAll(java.util.Collection)}.
+     *
+     * @param size Number of operations (1000 by default)
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder bulkChunkSize(int size) {
+        if (size <= 0) throw new IllegalArgumentException("The chunk size must be positive!");
+
+        this.bulkChunkSize = size;
+        return this;
+    }
+
+    /**
+     * Sets the executor running the requests made through {@link MongoStorage#async()}.
+     * By default, every request runs on its own virtual thread (or on a pool of
+     * {@link StorageBuilder#maxInFlightRequests(int)} threads when virtual threads
+     * are not supported by the runtime).
+     * The executor passed to this method is never shut down by the library.
+     *
+     * @param executor Executor to use
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder asyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of requests made through {@link MongoStorage#async()}
+     * which can be executed at the same time. The other ones wait for their turn
+     * without blocking the caller.
+     *
+     * @param max Number of requests (500 by default)
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder maxInFlightRequests(int max) {
+        if (max <= 0) throw new IllegalArgumentException("The number of requests must be positive!");
+
+        this.maxInFlightRequests = max;
+        return this;
+    }
+
+    /**
+     * Enables the write-behind mode: the objects saved with {@link MongoStorage#store(Object, boolean)}
+     * using update = true are kept in memory, and only the latest version of each object
+     * is written to MongoDB. The pending objects are written periodically, when the buffer is full
+     * (by the thread which is trying to add a new object) and when the storage is closed.
+     * Until then, the queries may return the previous version of the objects:
+     * use {@link MongoStorage#flush()} to write them immediately.
+     *
+     * @param interval   Time between two writes
+     * @param maxPending Maximum number of objects waiting to be written
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder writeBehind(Duration interval, int maxPending) {
+        if (interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("The interval must be positive!");
+        if (maxPending <= 0) throw new IllegalArgumentException("The number of pending objects must be positive!");
+
+        this.writeBehindInterval = interval;
+        this.writeBehindMaxPending = maxPending;
+        return this;
+    }
+
+    /**
+     * Enables the entity cache for a type, overriding the settings of its annotation.
+     * Calls to {@link MongoStorage#findFirst(Class, org.bson.conversions.Bson)} whose filter
+     * is an equality on every key are served from the cache, which is kept up to date
+     * by {@link MongoStorage#store(Object, boolean)} and {@link MongoStorage#remove(Object)}.
+     * When the cache is full, the least recently used objects are removed.
+     * The cached objects are shared between the callers, so they should not be
+     * modified without storing them afterwards.
+     *
+     * @param type    Class of the objects
+     * @param maxSize Maximum number of cached objects
+     * @param ttl     Time after which the objects are loaded again, or {@link Duration#ZERO} to never expire them
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder cache(Class<?> type, int maxSize, Duration ttl) {
+        if (maxSize <= 0) throw new IllegalArgumentException("The size of the cache must be positive!");
+        if (ttl.isNegative()) throw new IllegalArgumentException("The expiration time cannot be negative!");
+
+        cacheSettings.put(type, new EntityCache.Settings(maxSize, ttl));
+        return this;
+    }
+
+    /**
+     * Enables the change tracking for a type, like {@link dev.starless.mongo.api.annotations.MongoObject#trackChanges()}.
+     * The objects loaded from MongoDB remember their stored form, and
+     * {@link MongoStorage#store(Object, boolean)} using update = true sends only
+     * the fields which have changed since then with a single update,
+     * or nothing at all if the object has not changed.
+     * The other objects, and the ones written by {@link MongoStorage#storeAll(java.util.Collection, boolean)}
+     * or by the write-behind buffer, are replaced as a whole.
+     *
+     * @param type Class of the objects
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder trackChanges(Class<?> type) {
+        trackedTypes.add(type);
+        return this;
+    }
+
+    /**
+     * Sets the sink receiving the latency of the operations, split in the encode,
+     * network and decode phases, and the command and connection pool events of the driver.
+     * By default, nothing is measured.
+     *
+     * @param sink {@link MetricsSink} implementation, like {@link dev.starless.mongo.metrics.HistogramMetricsSink}
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder metrics(MetricsSink sink) {
+        this.metrics = sink == null ? MetricsSink.NOOP : sink;
+        return this;
+    }
+
+    /**
+     * Enables the coalescing of the concurrent identical reads: when many threads call
+     * {@link MongoStorage#findFirst(Class, dev.starless.mongo.api.IterableProcessor, org.bson.conversions.Bson)}
+     * or {@link MongoStorage#find(Class, dev.starless.mongo.api.IterableProcessor, org.bson.conversions.Bson)}
+     * with the same type, filter and processor instance at the same time, only one query is sent
+     * and its result is shared. The other threads receive the same object instances, like
+     * the entity cache does, so they should not change them. The reads started after a write
+     * of the same type never share the result of a query started before it.
+     *
+     * @param enabled true to coalesce the reads (false by default)
+     * @return this {@link StorageBuilder} instance
+     */
+    public StorageBuilder coalesceReads(boolean enabled) {
+        this.coalesceReads = enabled;
+        return this;
+    }
+
+    /**
+     * Creates the configuration shared by every storage implementation.
+     * This is used by the other modules (for example the reactive one)
+     * to create their own implementation from this builder.
+     *
+     * @return A new {@link StorageContext} instance
+     */
+    public StorageContext buildContext() {
+        return new StorageContext(url, logger, gson.create(), adaptedTypes, schemas, types, metrics);
+    }
+
+    /**
+     * Creates the storage. When the connection string starts with <code>mem://</code>,
+     * like <code>mem://tests</code>, the documents are kept in memory by an {@link InMemoryStorage}
+     * instead of being sent to MongoDB: the cache, the write-behind and the coalescing settings are ignored.
+     *
+     * @return A new {@link dev.starless.mongo.api.MongoStorage} implementation
+     */
+    public MongoStorage build() {
+        if (url.startsWith(IN_MEMORY_SCHEME)) {
+            return new InMemoryStorage(buildContext(), url.substring(IN_MEMORY_SCHEME.length()), asyncExecutor, maxInFlightRequests);
+        }
+
+        return new StorageImpl(buildContext(), bulkChunkSize, asyncExecutor, maxInFlightRequests,
+                writeBehindInterval, writeBehindMaxPending, cacheSettings, migrationParallelism, trackedTypes, coalesceReads);
+    }
+}
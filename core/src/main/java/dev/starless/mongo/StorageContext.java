@@ -0,0 +1,314 @@
+package dev.starless.mongo;
+
+import com.google.gson.Gson;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.Projections;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+import dev.starless.mongo.codec.EntityModel;
+import dev.starless.mongo.codec.KeyAccessor;
+import dev.starless.mongo.codec.ObjectCodecProvider;
+import dev.starless.mongo.logging.ILogger;
+import dev.starless.mongo.metrics.MetricsSink;
+import dev.starless.mongo.schema.MigrationSchema;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contains the configuration and the metadata of the {@link MongoObject} classes
+ * shared by the storage implementations, regardless of the driver they use.
+ * Instances are created by {@link StorageBuilder#buildContext()}.
+ */
+public final class StorageContext {
+
+    private final String connectionString;
+    private final ILogger logger;
+    private final MetricsSink metrics;
+    private final Map<Class<?>, EntityModel<?>> models;
+    private final ObjectCodecProvider codecProvider;
+    private final CodecRegistry codecRegistry;
+    private final List<MigrationSchema> schemas;
+    private final Set<Class<?>> registeredTypes;
+    private final Map<String, String> overriddenCollectionNames;
+    private final Map<Class<?>, Bson> projections;
+
+    StorageContext(String connectionString,
+                   ILogger logger,
+                   Gson gson,
+                   Set<Type> adaptedTypes,
+                   List<MigrationSchema> schemas,
+                   Set<Class<?>> registeredTypes,
+                   MetricsSink metrics) {
+        this.connectionString = connectionString;
+        this.logger = logger;
+        this.metrics = metrics;
+        this.models = loadModels();
+        this.codecProvider = new ObjectCodecProvider(gson, adaptedTypes, models);
+
+        // Our provider comes first, so that @MongoObject classes
+        // are never handled by the default codecs (records for example)
+        this.codecRegistry = CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(codecProvider),
+                MongoClientSettings.getDefaultCodecRegistry());
+
+        this.schemas = schemas;
+        this.registeredTypes = registeredTypes;
+        this.overriddenCollectionNames = new ConcurrentHashMap<>();
+        this.projections = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return The settings used to create the clients of both the sync and the reactive drivers
+     */
+    public MongoClientSettings clientSettings() {
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(connectionString))
+                .codecRegistry(codecRegistry)
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout(3000, TimeUnit.MILLISECONDS)
+                        .readTimeout(3000, TimeUnit.MILLISECONDS));
+
+        if (metrics.isEnabled()) {
+            DriverMetricsListener listener = new DriverMetricsListener(metrics);
+            builder.addCommandListener(listener)
+                    .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(listener));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Looks for the {@link MongoObject} annotation of a class,
+     * logging a warning if it is missing or incomplete.
+     *
+     * @param type Type of the object
+     * @return The annotation, or null if the class cannot be stored
+     */
+    public MongoObject annotation(Class<?> type) {
+        MongoObject annotation = type.getAnnotation(MongoObject.class);
+        if (annotation == null) {
+            logger.warn("The class %s has no @MongoObject annotation!", type.getSimpleName());
+            return null;
+        } else if (annotation.database().isBlank() || annotation.collection().isBlank()) {
+            logger.warn("The class %s has blank @MongoObject annotated field(s)!", type.getSimpleName());
+            return null;
+        }
+
+        return annotation;
+    }
+
+    /**
+     * @param typeName          Name of the class
+     * @param defaultCollection Collection written in the annotation
+     * @return The name of the collection, taking into account the overridden names
+     */
+    public String collectionName(String typeName, String defaultCollection) {
+        String value = overriddenCollectionNames.getOrDefault(typeName, defaultCollection);
+        if (value.isBlank()) throw new RuntimeException("The class " + typeName + " has an empty collection name!");
+        return value;
+    }
+
+    /**
+     * @param type Type of the object
+     * @param name New collection name
+     * @return true if the name has been changed
+     */
+    public boolean overrideCollectionName(Class<?> type, String name) {
+        if (type.getAnnotation(MongoObject.class) == null) {
+            logger.warn("Cannot override the collection name: the class %s has no @MongoObject annotation!", type.getSimpleName());
+            return false;
+        }
+
+        overriddenCollectionNames.put(type.getName(), name);
+        return true;
+    }
+
+    /**
+     * Creates a filter which can be passed to MongoDB to look for
+     * a document with the same keys of the object passed as a parameter.
+     * Only the fields annotated with {@link MongoKey} are read.
+     *
+     * @param obj Object to look for
+     * @return The filter as a {@link Bson} object
+     */
+    public Bson keyFilter(Object obj) {
+        return codecProvider.keyAccessor(obj.getClass()).filter(obj);
+    }
+
+    /**
+     * Same as {@link StorageContext#keyFilter(Object)}, but the filter
+     * is converted to a document which can be compared with the other ones.
+     *
+     * @param obj Object to look for
+     * @return The filter as a {@link BsonDocument}
+     */
+    public BsonDocument keyDocument(Object obj) {
+        return keyFilter(obj).toBsonDocument(BsonDocument.class, codecRegistry);
+    }
+
+    /**
+     * Creates the key document of an object of a certain type, starting from the object
+     * itself or from the value of its key: a single value if the type has only one key,
+     * otherwise a map containing the value of every key.
+     *
+     * @param type        Type of the object
+     * @param keyOrEntity Object, value of its key or map of the values of its keys
+     * @return The key as a {@link BsonDocument}, or null if the key is not valid for the type
+     */
+    public BsonDocument keyDocument(Class<?> type, Object keyOrEntity) {
+        if (type.isInstance(keyOrEntity)) return keyDocument(keyOrEntity);
+
+        Map<String, Class<?>> keys = keys(type);
+        if (keys.isEmpty()) {
+            logger.warn("There are no keys for this object");
+            return null;
+        }
+
+        // The values are converted by the codecs of the key fields,
+        // so the document is equal to the one created from the stored object
+        KeyAccessor accessor = codecProvider.keyAccessor(type);
+        BsonDocument document = new BsonDocument();
+        try {
+            if (keys.size() == 1 && !(keyOrEntity instanceof Map<?, ?>)) {
+                String name = keys.keySet().iterator().next();
+                document.append(name, accessor.keyValue(name, keyOrEntity));
+                return document;
+            }
+
+            if (!(keyOrEntity instanceof Map<?, ?> values) || !values.keySet().equals(keys.keySet())) {
+                logger.error("The key of %s must contain the values of %s", type.getSimpleName(), keys.keySet());
+                return null;
+            }
+
+            // Same order of the keys written by the codecs
+            for (String name : keys.keySet()) {
+                document.append(name, accessor.keyValue(name, values.get(name)));
+            }
+            return document;
+        } catch (IllegalArgumentException | CodecConfigurationException e) {
+            logger.error("Invalid key for %s: %s", type.getSimpleName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Finds all the names and types of the fields used
+     * in the object's key.
+     *
+     * @param type The type of generic object
+     * @return An Map containing said data
+     */
+    public Map<String, Class<?>> keys(Class<?> type) {
+        return codecProvider.keyAccessor(type).keys();
+    }
+
+    /**
+     * Converts the object to a BsonDocument using our codecs.
+     *
+     * @param obj Object to convert
+     * @return The document stored in the database
+     */
+    public BsonDocument encode(Object obj) {
+        BsonDocument document = new BsonDocument();
+        codecProvider.codecFor((Type) obj.getClass()).encode(new BsonDocumentWriter(document), obj, EncoderContext.builder().build());
+        return document;
+    }
+
+    /**
+     * Creates the projection which loads only the fields of a view class,
+     * a lightweight class or record declaring a subset of the fields of an entity.
+     *
+     * @param view Class of the view
+     * @return The projection as a {@link Bson} object
+     */
+    public Bson projection(Class<?> view) {
+        return projections.computeIfAbsent(view, key -> {
+            List<String> fields = new ArrayList<>(codecProvider.fieldNames(key));
+            // The _id is returned by default, even if the view does not need it
+            return fields.contains("_id")
+                    ? Projections.include(fields)
+                    : Projections.fields(Projections.include(fields), Projections.excludeId());
+        });
+    }
+
+    /**
+     * @return The classes registered in the builder and the ones with a generated model,
+     * whose indexes are created during the initialization
+     */
+    public Set<Class<?>> knownTypes() {
+        Set<Class<?>> types = new LinkedHashSet<>(registeredTypes);
+        types.addAll(models.keySet());
+        return types;
+    }
+
+    /**
+     * @param type The type of generic object
+     * @return The migration schema of the type, or null if it has none
+     */
+    public MigrationSchema schema(Class<?> type) {
+        for (MigrationSchema schema : schemas) {
+            if (schema.getClazzName().equals(type.getName())) return schema;
+        }
+        return null;
+    }
+
+    /**
+     * Wraps the codec of a type, so that the documents it encodes contain
+     * the version of the migration schema of the type, if it is versioned.
+     *
+     * @param type  The type of generic object
+     * @param codec Codec of the type
+     * @return The wrapped codec, or the same codec if the schema is not versioned
+     */
+    public <T> Codec<T> versioned(Class<T> type, Codec<T> codec) {
+        MigrationSchema schema = schema(type);
+        return schema != null && schema.isVersioned() ? new VersionedCodec<>(codec, schema.getVersion()) : codec;
+    }
+
+    public ILogger getLogger() {
+        return logger;
+    }
+
+    public MetricsSink getMetrics() {
+        return metrics;
+    }
+
+    public ObjectCodecProvider getCodecProvider() {
+        return codecProvider;
+    }
+
+    public CodecRegistry getCodecRegistry() {
+        return codecRegistry;
+    }
+
+    public List<MigrationSchema> getSchemas() {
+        return schemas;
+    }
+
+    // Finds the models generated at compile time by the annotation processor
+    private Map<Class<?>, EntityModel<?>> loadModels() {
+        Map<Class<?>, EntityModel<?>> map = new HashMap<>();
+        try {
+            ServiceLoader.load(EntityModel.class, StorageContext.class.getClassLoader())
+                    .forEach(model -> map.put(model.type(), model));
+        } catch (ServiceConfigurationError e) {
+            logger.warn("Could not load the generated models: %s", e.getMessage());
+        }
+
+        if (!map.isEmpty()) {
+            logger.info("Loaded %d generated models", map.size());
+        }
+        return map;
+    }
+}
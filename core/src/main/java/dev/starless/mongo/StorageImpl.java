@@ -0,0 +1,1268 @@
+package dev.starless.mongo;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.*;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.UpdateResult;
+import dev.starless.mongo.api.AsyncMongoStorage;
+import dev.starless.mongo.api.BulkResult;
+import dev.starless.mongo.api.CacheStats;
+import dev.starless.mongo.api.IterableProcessor;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.Page;
+import dev.starless.mongo.api.annotations.MongoObject;
+import dev.starless.mongo.codec.VersionAccessor;
+import dev.starless.mongo.logging.ILogger;
+import dev.starless.mongo.metrics.MetricsSink;
+import dev.starless.mongo.schema.MigrationSchema;
+import org.bson.BSONException;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public final class StorageImpl implements MongoStorage {
+
+    // Maximum number of batches of findAllByKeys queried at the same time
+    private static final int MAX_CONCURRENT_BATCHES = 8;
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    // Operations after which the coalesced reads of the type cannot be shared anymore
+    private static final Set<MetricsSink.Operation> WRITE_OPERATIONS = EnumSet.of(MetricsSink.Operation.STORE,
+            MetricsSink.Operation.REMOVE,
+            MetricsSink.Operation.STORE_ALL,
+            MetricsSink.Operation.REMOVE_ALL,
+            MetricsSink.Operation.UPDATE,
+            MetricsSink.Operation.UPDATE_MANY);
+
+    private final StorageContext context;
+    private final ILogger logger;
+
+    private MongoClient client;
+    private boolean initialized;
+
+    private final Map<String, MongoDatabase> cachedDatabases;
+    private final Map<Class<?>, MongoCollection<?>> cachedCollections;
+    private final Map<Class<?>, Boolean> uniqueKeys;
+    private final int bulkChunkSize;
+    private final AsyncStorageImpl asyncStorage;
+    private final WriteBehindBuffer writeBehind;
+    private final SchemaMigrator migrator;
+    private final LazyMigrator lazyMigrator;
+    private final Map<Class<?>, EntityCache.Settings> cacheSettings;
+    private final Map<Class<?>, Optional<EntityCache>> caches;
+    private final Map<Class<?>, CodecRegistry> viewRegistries;
+    private final Set<String> pageIndexes;
+    private final MetricsSink metrics;
+    private final Set<Class<?>> trackedTypes;
+    private final ChangeTracker changeTracker;
+    private final SingleFlight singleFlight;
+
+    StorageImpl(StorageContext context,
+                int bulkChunkSize,
+                Executor asyncExecutor,
+                int maxInFlightRequests,
+                Duration writeBehindInterval,
+                int writeBehindMaxPending,
+                Map<Class<?>, EntityCache.Settings> cacheSettings,
+                int migrationParallelism,
+                Set<Class<?>> trackedTypes,
+                boolean coalesceReads) {
+        this.context = context;
+        this.logger = context.getLogger();
+
+        this.initialized = false;
+
+        this.cachedDatabases = new ConcurrentHashMap<>();
+        this.cachedCollections = new ConcurrentHashMap<>();
+        this.uniqueKeys = new ConcurrentHashMap<>();
+        this.bulkChunkSize = bulkChunkSize;
+        this.asyncStorage = new AsyncStorageImpl(this, logger, asyncExecutor, maxInFlightRequests);
+        // The pending objects are written with a single unordered bulk write per collection
+        this.writeBehind = writeBehindInterval == null ? null : new WriteBehindBuffer(logger,
+                writeBehindInterval,
+                writeBehindMaxPending,
+                objects -> writeAll(objects, true, false));
+        this.migrator = new SchemaMigrator(logger, bulkChunkSize, migrationParallelism);
+        this.lazyMigrator = new LazyMigrator(logger, context.getCodecRegistry(), bulkChunkSize);
+        this.cacheSettings = cacheSettings;
+        this.caches = new ConcurrentHashMap<>();
+        this.viewRegistries = new ConcurrentHashMap<>();
+        this.pageIndexes = ConcurrentHashMap.newKeySet();
+        this.metrics = context.getMetrics();
+        this.trackedTypes = trackedTypes;
+        this.changeTracker = new ChangeTracker();
+        this.singleFlight = coalesceReads ? new SingleFlight(metrics) : null;
+    }
+
+    @Override
+    public void init() {
+        init(MongoClients.create(context.clientSettings()));
+    }
+
+    // Initializes the storage with a client created elsewhere, like the fake clients of the tests
+    void init(MongoClient mongoClient) {
+        if (client != null) close();
+
+        client = mongoClient;
+        logger.info("Connected to MongoDB");
+
+        // Check for schema changes
+        List<SchemaMigrator.Target> targets = new ArrayList<>();
+        List<SchemaMigrator.Target> lazyTargets = new ArrayList<>();
+        context.getSchemas().forEach(schema -> {
+            MongoDatabase database = getDatabase(schema.getDatabase());
+            MongoCollection<Document> collection = database.getCollection(context.collectionName(schema.getClazzName(), schema.getCollection()));
+
+            SchemaMigrator.Target target = new SchemaMigrator.Target(collection, schema, database.getCollection(SchemaMigrator.METADATA_COLLECTION));
+            if (schema.isLazy()) {
+                // These documents are migrated when read or by the sweeper
+                lazyTargets.add(target);
+            } else {
+                targets.add(target);
+            }
+        });
+        migrator.migrate(targets);
+        lazyMigrator.start(lazyTargets);
+        logger.info("Validated all documents according to schemas.");
+
+        // Create the indexes of the known types in advance,
+        // the other ones are created when first used
+        context.knownTypes().forEach(this::getTypedCollection);
+
+        initialized = true;
+        if (writeBehind != null) {
+            writeBehind.start();
+        }
+    }
+
+    @Override
+    public void close() {
+        // Stop the threads used by the async requests
+        asyncStorage.shutdown();
+
+        if (client == null) return;
+
+        // Write the pending objects before closing the connection
+        if (writeBehind != null) {
+            writeBehind.stop();
+        }
+        lazyMigrator.stop();
+
+        // Close MongoClient
+        client.close();
+        client = null;
+
+        // Clear cached resources
+        cachedDatabases.clear();
+        cachedCollections.clear();
+        uniqueKeys.clear();
+        caches.clear();
+        pageIndexes.clear();
+
+        initialized = false;
+    }
+
+    @Override
+    public void overrideCollectionName(Class<?> type, String name) {
+        if (context.overrideCollectionName(type, name)) {
+            cachedCollections.remove(type);
+        }
+    }
+
+    @Override
+    public <T> List<T> find(@NotNull Class<? extends T> type,
+                            @NotNull IterableProcessor processor,
+                            @NotNull Bson filter) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Collections.emptyList();
+        }
+
+        if (singleFlight == null) return query(type, processor, filter);
+
+        SingleFlight.Request request = singleFlight.request(MetricsSink.Operation.FIND,
+                type,
+                filter.toBsonDocument(BsonDocument.class, context.getCodecRegistry()),
+                processor);
+        // Every request receives its own mutable copy of the shared list
+        return new ArrayList<>(singleFlight.execute(request, () -> query(type, processor, filter)));
+    }
+
+    private <T> List<T> query(Class<? extends T> type, IterableProcessor processor, Bson filter) {
+        // List containing the found objects
+        List<T> data = new ArrayList<>();
+
+        processRequest(MetricsSink.Operation.FIND, type, (collection, keyInfo) -> {
+            // Look for the documents matching the filter, apply the processor
+            // and decode them in the list
+            FindIterable<RawBsonDocument> iterable = collection.withDocumentClass(RawBsonDocument.class).find(filter);
+            decodeEach("find", type, collection, applyProcessor(processor, iterable), data::add);
+        });
+        return data;
+    }
+
+    @Override
+    public <V> List<V> find(@NotNull Class<?> type,
+                            @NotNull Class<V> view,
+                            @NotNull IterableProcessor processor,
+                            @NotNull Bson filter) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Collections.emptyList();
+        }
+
+        List<V> data = new ArrayList<>();
+        processRequest(MetricsSink.Operation.FIND, typeOf(type), (collection, keyInfo) -> {
+            // Only the fields of the view are sent by MongoDB
+            MongoCollection<V> viewCollection = collection.withDocumentClass(view).withCodecRegistry(viewRegistry(view));
+            FindIterable<RawBsonDocument> iterable = viewCollection.withDocumentClass(RawBsonDocument.class)
+                    .find(filter)
+                    .projection(context.projection(view));
+            decodeEach("find", view, viewCollection, applyProcessor(processor, iterable), data::add);
+        });
+        return data;
+    }
+
+    // The views are not annotated, so their codecs must be registered explicitly
+    private CodecRegistry viewRegistry(Class<?> view) {
+        return viewRegistries.computeIfAbsent(view, key -> {
+            Codec<?> codec = context.getCodecProvider().codecFor(key);
+            if (metrics.isEnabled()) {
+                codec = OperationTimer.measure(codec);
+            }
+            return CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(codec), context.getCodecRegistry());
+        });
+    }
+
+    @Override
+    public boolean store(@NotNull Object obj, boolean update) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return false;
+        }
+
+        // The versioned objects must know immediately if they have been written
+        VersionAccessor version = versionOf(obj.getClass());
+        if (writeBehind != null && version == null && !context.keys(obj.getClass()).isEmpty()) {
+            WriteBehindBuffer.PendingKey key = pendingKey(obj);
+            if (update) {
+                // Only the latest version is written on the next flush,
+                // replacing the whole document
+                writeBehind.put(key, obj);
+                changeTracker.forget(obj);
+                cache(obj);
+                return true;
+            }
+
+            // The pending object will be written anyway
+            if (writeBehind.contains(key)) return false;
+        }
+
+        AtomicBoolean bool = new AtomicBoolean(true);
+        processRequest(MetricsSink.Operation.STORE, typeOf(obj), (collection, keyInfo) -> {
+            Bson filter = context.keyFilter(obj); // Create a filter which looks for the same object
+
+            // If we need to update
+            if (update) {
+                if (version != null) {
+                    bool.set(storeVersioned(collection, filter, obj, version) != BulkResult.Outcome.CONFLICT);
+                    return;
+                }
+
+                // Replace the document, or insert it
+                // if nothing matches the filter
+                replace(collection, filter, obj, true);
+                return;
+            }
+
+            bool.set(insert(collection, filter, obj));
+        });
+
+        if (bool.get()) {
+            cache(obj);
+        } else if (version != null && update) {
+            // The cached version is outdated
+            invalidateCached(List.of(obj));
+        }
+        return bool.get();
+    }
+
+    // Inserts the object only if no other object has the same keys
+    private boolean insert(MongoCollection<Object> collection, Bson filter, Object obj) {
+        // The unique index on the keys lets MongoDB
+        // refuse the duplicates in a single round trip
+        if (uniqueKeys.getOrDefault(obj.getClass(), false)) {
+            try {
+                collection.insertOne(obj);
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) throw e;
+
+                // Another equal object is already present
+                return false;
+            }
+            return true;
+        }
+
+        boolean found = collection.withDocumentClass(BsonDocument.class)
+                .find(filter)
+                .projection(Projections.include("_id"))
+                .first() != null;
+        // If another equal object is found, abort the mission
+        if (found) return false;
+
+        // Insert the object normally
+        collection.insertOne(obj);
+        return true;
+    }
+
+    /*
+    Overwrites the document only if it has the same version of the object,
+    incrementing the version of both. The objects which have never been stored
+    (with version zero) are inserted if their document does not exist.
+     */
+    private BulkResult.Outcome storeVersioned(MongoCollection<Object> collection, Bson keyFilter, Object obj, VersionAccessor version) {
+        long expected = version.get(obj);
+        // The documents written before the version field was added have no version
+        Bson filter = Filters.and(keyFilter, expected == 0
+                ? Filters.in(version.name(), 0, null)
+                : Filters.eq(version.name(), expected));
+
+        version.set(obj, expected + 1);
+        boolean written = false;
+        try {
+            if (replace(collection, filter, obj, false)) {
+                written = true;
+                return BulkResult.Outcome.REPLACED;
+            }
+            if (expected == 0 && insert(collection, keyFilter, obj)) {
+                written = true;
+                return BulkResult.Outcome.INSERTED;
+            }
+            return BulkResult.Outcome.CONFLICT;
+        } finally {
+            if (!written) {
+                version.set(obj, expected);
+            }
+        }
+    }
+
+    /*
+    Overwrites the document matching the filter. When the changes of the object are tracked,
+    only the fields changed since it was loaded are sent, and nothing is sent if it has not changed.
+    The objects which have not been loaded, or whose document has been deleted in the meantime,
+    are replaced as a whole.
+     */
+    private boolean replace(MongoCollection<Object> collection, Bson filter, Object obj, boolean upsert) {
+        ReplaceOptions options = new ReplaceOptions().upsert(upsert);
+        if (!isTracked(obj.getClass())) {
+            UpdateResult result = collection.replaceOne(filter, obj, options);
+            return result.getMatchedCount() > 0 || result.getUpsertedId() != null;
+        }
+
+        BsonDocument document = encode(obj);
+        BsonDocument changes = changeTracker.diff(obj, document);
+        if (changes != null) {
+            // Without changes, the document may still have been removed in the meantime:
+            // a projection on the _id tells if it exists without sending the whole document
+            boolean matched = changes.isEmpty()
+                    ? collection.withDocumentClass(BsonDocument.class).find(filter).projection(Projections.include("_id")).limit(1).first() != null
+                    : collection.updateOne(filter, changes).getMatchedCount() > 0;
+            if (matched) {
+                changeTracker.track(obj, document);
+                return true;
+            }
+            // The replacement would not match either
+            if (!upsert) return false;
+        }
+
+        // The document has already been encoded, so it is written as it is
+        UpdateResult result = collection.withDocumentClass(BsonDocument.class).replaceOne(filter, document, options);
+        boolean written = result.getMatchedCount() > 0 || result.getUpsertedId() != null;
+        if (written) {
+            changeTracker.track(obj, document);
+        }
+        return written;
+    }
+
+    private VersionAccessor versionOf(Class<?> type) {
+        try {
+            return context.getCodecProvider().versionAccessor(type);
+        } catch (IllegalArgumentException e) {
+            logger.error("%s", e.getMessage());
+            return null;
+        }
+    }
+
+    // Returns true if the changes of the objects of this type are tracked,
+    // as requested in the builder or in the annotation
+    private boolean isTracked(Class<?> type) {
+        if (trackedTypes.contains(type)) return true;
+
+        MongoObject annotation = type.getAnnotation(MongoObject.class);
+        return annotation != null && annotation.trackChanges();
+    }
+
+    @Override
+    public <T> Stream<T> stream(@NotNull Class<? extends T> type,
+                                @NotNull IterableProcessor processor,
+                                @NotNull Bson filter,
+                                int batchSize) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Stream.empty();
+        }
+
+        // This list is used to bring out the cursor outside the lambda
+        List<MongoCursor<? extends T>> cursors = new ArrayList<>(1);
+        processRequest(MetricsSink.Operation.STREAM, type, (collection, keyInfo) -> {
+            FindIterable<? extends T> iterable = applyProcessor(processor, collection.find(filter));
+            if (batchSize > 0) {
+                iterable.batchSize(batchSize);
+            }
+
+            // The documents are fetched lazily, one batch at a time
+            cursors.add(iterable.cursor());
+        });
+        if (cursors.isEmpty()) return Stream.empty();
+
+        MongoCursor<? extends T> cursor = cursors.get(0);
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(cursor::close);
+    }
+
+    @Override
+    public <T> Optional<T> findFirst(@NotNull Class<? extends T> type,
+                                     @NotNull IterableProcessor processor,
+                                     @NotNull Bson filter) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Optional.empty();
+        }
+
+        // The processors can change the results, so they skip the cache
+        EntityCache cache = processor == IterableProcessor.passthrough ? cacheFor(type) : null;
+        BsonDocument filterDocument = null;
+        long generation = 0;
+        if (cache != null) {
+            filterDocument = filter.toBsonDocument(BsonDocument.class, context.getCodecRegistry());
+            generation = cache.generation();
+
+            Object cached = cache.get(filterDocument);
+            if (cached != null) return Optional.of(type.cast(cached));
+        }
+
+        T obj;
+        if (singleFlight != null) {
+            if (filterDocument == null) {
+                filterDocument = filter.toBsonDocument(BsonDocument.class, context.getCodecRegistry());
+            }
+            SingleFlight.Request request = singleFlight.request(MetricsSink.Operation.FIND_FIRST, type, filterDocument, processor);
+            obj = singleFlight.execute(request, () -> queryFirst(type, processor, filter));
+        } else {
+            obj = queryFirst(type, processor, filter);
+        }
+        if (obj == null) return Optional.empty();
+
+        if (cache != null) {
+            cache.fill(filterDocument, obj, generation);
+        }
+        return Optional.of(obj);
+    }
+
+    // Runs findFirst on MongoDB, without looking in the cache and without sharing the result
+    private <T> T queryFirst(Class<? extends T> type, IterableProcessor processor, Bson filter) {
+        // This list is used to bring out the object outside the lambda
+        List<T> result = new ArrayList<>(1);
+        processRequest(MetricsSink.Operation.FIND_FIRST, type, ((collection, keyInfo) -> {
+            try {
+                // Look for a Document matching the filter
+                // and apply the processor's to the output
+                T obj = applyProcessor(processor, collection.find(filter)).first(); // Grab the first result
+                if (obj != null) { // If something is found
+                    result.add(obj);
+                }
+            } catch (BSONException | CodecConfigurationException e) {
+                logger.error("An error occurred while running findFirst on %s class. (Type mismatch)", type.getSimpleName());
+            }
+        }));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public <K, T> Map<K, T> findAllByKeys(@NotNull Class<T> type, @NotNull Collection<K> keys) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Collections.emptyMap();
+        }
+
+        Map<BsonDocument, List<K>> requested = KeyLookup.group(context, type, keys);
+        Map<BsonDocument, T> found = new ConcurrentHashMap<>();
+
+        // Only the objects which are not cached are queried
+        EntityCache cache = cacheFor(type);
+        long generation = cache == null ? 0 : cache.generation();
+        List<BsonDocument> missing = new ArrayList<>(requested.size());
+        for (BsonDocument key : requested.keySet()) {
+            Object cached = cache == null ? null : cache.get(key);
+            if (cached != null) {
+                found.put(key, type.cast(cached));
+            } else {
+                missing.add(key);
+            }
+        }
+
+        Set<String> keyNames = context.keys(type).keySet();
+        List<Runnable> batches = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += bulkChunkSize) {
+            BsonDocument filter = KeyLookup.filter(keyNames, missing.subList(from, Math.min(missing.size(), from + bulkChunkSize)));
+            batches.add(() -> processRequest(MetricsSink.Operation.FIND_BY_KEYS, type, (collection, keyInfo) -> {
+                FindIterable<RawBsonDocument> iterable = collection.withDocumentClass(RawBsonDocument.class).find(filter);
+                decodeEach("findAllByKeys", type, collection, iterable, (T obj) -> {
+                    BsonDocument key = EntityCache.canonicalKey(keyNames, context.keyDocument(obj));
+                    if (key == null) return;
+
+                    found.put(key, obj);
+                    if (cache != null) {
+                        cache.fill(key, obj, generation);
+                    }
+                });
+            }));
+        }
+        runConcurrently(batches);
+
+        return KeyLookup.result(requested, found);
+    }
+
+    /*
+    Runs the tasks on the async executor, with the calling thread taking part:
+    every thread takes the next task until there are none left, so the tasks
+    never wait for a busy executor. The first exception is thrown to the caller.
+     */
+    private void runConcurrently(List<Runnable> tasks) {
+        if (tasks.size() <= 1) {
+            tasks.forEach(Runnable::run);
+            return;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks.size());
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int index;
+            while ((index = next.getAndIncrement()) < tasks.size()) {
+                try {
+                    tasks.get(index).run();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+
+        Executor executor = asyncStorage.executor();
+        for (int i = 1; i < Math.min(tasks.size(), MAX_CONCURRENT_BATCHES); i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        worker.run();
+
+        // The remaining tasks are already running, so the wait is short
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure.get() != null) throw failure.get();
+    }
+
+    @Override
+    public <T> Page<T> page(@NotNull Class<? extends T> type,
+                            @NotNull Bson filter,
+                            @NotNull String sortField,
+                            boolean ascending,
+                            String afterToken,
+                            int size) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Page.empty();
+        }
+        if (size <= 0) return Page.empty();
+
+        // The keys make the order unique, even when many objects have the same value
+        List<String> fields = new ArrayList<>();
+        fields.add(sortField);
+        context.keys(type).keySet().forEach(key -> {
+            if (!fields.contains(key)) fields.add(key);
+        });
+
+        Bson query = filter;
+        if (afterToken != null) {
+            try {
+                BsonArray values = PageToken.decode(afterToken, sortField, ascending, fields.size());
+                query = Filters.and(filter, PageToken.after(fields, values, ascending));
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid page token for %s class: %s", type.getSimpleName(), e.getMessage());
+                return Page.empty();
+            }
+        }
+
+        Bson finalQuery = query;
+        Bson sort = ascending ? Sorts.ascending(fields) : Sorts.descending(fields);
+        List<T> items = new ArrayList<>(size);
+        List<String> nextToken = new ArrayList<>(1);
+        processRequest(MetricsSink.Operation.PAGE, type, (collection, keyInfo) -> {
+            createPageIndex(type, collection, fields);
+
+            // The raw documents are kept to read the values of the token,
+            // which may not be fields of the decoded objects (like _id)
+            FindIterable<RawBsonDocument> iterable = collection.withDocumentClass(RawBsonDocument.class)
+                    .find(finalQuery)
+                    .sort(sort)
+                    .limit(size + 1); // The extra document tells if there is a next page
+            List<RawBsonDocument> read = new ArrayList<>(size);
+            decodeEach("page", type, collection, iterable, document -> {
+                if (read.size() == size) {
+                    // The token points to the last document of the page, even if it could not be decoded
+                    nextToken.add(PageToken.encode(sortField, ascending, fields, read.get(size - 1)));
+                    return false;
+                }
+                read.add(document);
+                return true;
+            }, items::add);
+        });
+
+        return new Page<>(items, nextToken.isEmpty() ? null : nextToken.get(0));
+    }
+
+    /*
+    Decodes the documents one at a time with the codec of the collection: a document
+    which cannot be decoded is skipped, instead of discarding the documents after it.
+    The documents are decoded only while the filter accepts them.
+     */
+    private <T> void decodeEach(String operation, Class<?> type, MongoCollection<T> collection,
+                                FindIterable<RawBsonDocument> iterable, Consumer<? super T> consumer) {
+        decodeEach(operation, type, collection, iterable, document -> true, consumer);
+    }
+
+    private <T> void decodeEach(String operation, Class<?> type, MongoCollection<T> collection,
+                                FindIterable<RawBsonDocument> iterable, Predicate<RawBsonDocument> filter,
+                                Consumer<? super T> consumer) {
+        int failed = 0;
+        try {
+            Codec<T> codec = collection.getCodecRegistry().get(collection.getDocumentClass());
+            try (MongoCursor<RawBsonDocument> cursor = iterable.cursor()) {
+                while (cursor.hasNext()) {
+                    RawBsonDocument document = cursor.next();
+                    if (!filter.test(document)) break;
+
+                    T obj;
+                    try {
+                        obj = codec.decode(document.asBsonReader(), DECODER_CONTEXT);
+                    } catch (BSONException | CodecConfigurationException e) {
+                        failed++;
+                        continue;
+                    }
+                    consumer.accept(obj);
+                }
+            }
+        } catch (CodecConfigurationException e) {
+            logger.error("An error occurred while running %s on %s class. (Type mismatch)", operation, type.getSimpleName());
+            return;
+        }
+
+        if (failed > 0) {
+            logger.error("%d documents could not be decoded while running %s on %s class. (Type mismatch)", failed, operation, type.getSimpleName());
+        }
+    }
+
+    private void createPageIndex(Class<?> type, MongoCollection<?> collection, List<String> fields) {
+        // MongoDB walks the same index in both directions
+        if (!pageIndexes.add(type.getName() + fields)) return;
+
+        try {
+            collection.createIndex(Indexes.ascending(fields));
+        } catch (MongoException e) {
+            logger.warn("Could not create the index used to page %s: %s", type.getSimpleName(), e.getMessage());
+        }
+    }
+
+    @Override
+    public int remove(@NotNull Object obj) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return 0;
+        }
+
+        discardPending(List.of(obj));
+        invalidateCached(List.of(obj));
+        changeTracker.forget(obj);
+
+        AtomicLong integer = new AtomicLong(0);
+        processRequest(MetricsSink.Operation.REMOVE, typeOf(obj), ((collection, keyInfo) -> {
+            // Delete the objects and get the number of objects deleted by MongoDB
+            integer.set(collection.deleteMany(context.keyFilter(obj)).getDeletedCount());
+        }));
+        // A query running during the delete may have cached the deleted object
+        invalidateCached(List.of(obj));
+
+        return integer.intValue();
+    }
+
+    @Override
+    public BulkResult storeAll(@NotNull Collection<?> objects, boolean update, boolean ordered) {
+        discardPending(objects);
+        // The cached objects are not served anymore while they are being written,
+        // and the ones cached by the queries running during the write are removed after it
+        invalidateCached(objects);
+        // The bulk writes replace the whole documents
+        objects.forEach(changeTracker::forget);
+
+        BulkResult result = storeEach(objects, update, ordered);
+        invalidateCached(objects);
+        return result;
+    }
+
+    private BulkResult storeEach(Collection<?> objects, boolean update, boolean ordered) {
+        List<Object> items = new ArrayList<>(objects);
+        List<Integer> versioned = new ArrayList<>();
+        boolean[] isVersioned = new boolean[items.size()];
+        List<Object> others = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            if (update && versionOf(items.get(i).getClass()) != null) {
+                versioned.add(i);
+                isVersioned[i] = true;
+            } else {
+                others.add(items.get(i));
+            }
+        }
+        if (versioned.isEmpty()) return writeAll(objects, update, ordered);
+
+        // The versions must be checked one object at a time,
+        // so the versioned objects are written after the other ones
+        BulkResultBuilder result = new BulkResultBuilder(items.size());
+        BulkResult othersResult = writeAll(others, true, ordered);
+        int next = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (!isVersioned[i]) {
+                result.set(i, othersResult.getOutcome(next++));
+            }
+        }
+        if (ordered && !othersResult.isSuccessful()) return result.build();
+
+        for (int index : versioned) {
+            Object obj = items.get(index);
+            List<BulkResult.Outcome> outcome = new ArrayList<>(1);
+            processRequest(MetricsSink.Operation.STORE_ALL, typeOf(obj), (collection, keyInfo) -> {
+                try {
+                    outcome.add(storeVersioned(collection, context.keyFilter(obj), obj, versionOf(obj.getClass())));
+                } catch (MongoException e) {
+                    logger.error("Could not store a %s object: %s", obj.getClass().getSimpleName(), e.getMessage());
+                    outcome.add(BulkResult.Outcome.FAILED);
+                }
+            });
+            if (outcome.isEmpty()) continue;
+
+            result.set(index, outcome.get(0));
+            if (outcome.get(0) == BulkResult.Outcome.CONFLICT || outcome.get(0) == BulkResult.Outcome.FAILED) {
+                invalidateCached(List.of(obj));
+                // Ordered writes stop at the first error
+                if (ordered) break;
+            }
+        }
+        return result.build();
+    }
+
+    private BulkResult writeAll(Collection<?> objects, boolean update, boolean ordered) {
+        return bulkWrite(MetricsSink.Operation.STORE_ALL, objects, ordered, (obj, keyInfo) -> {
+            Bson filter = context.keyFilter(obj);
+            if (update) {
+                // Overwrite the document or insert it if it is missing
+                return new ReplaceOneModel<>(filter, obj, new ReplaceOptions().upsert(true));
+            } else {
+                // The document is inserted only if no other document matches the filter
+                return new UpdateOneModel<>(filter, new BsonDocument("$setOnInsert", encode(obj)), new UpdateOptions().upsert(true));
+            }
+        }, (result, index, upserted) -> {
+            if (upserted) {
+                result.set(index, BulkResult.Outcome.INSERTED);
+            } else {
+                result.set(index, update ? BulkResult.Outcome.REPLACED : BulkResult.Outcome.SKIPPED);
+            }
+        });
+    }
+
+    @Override
+    public BulkResult removeAll(@NotNull Collection<?> objects, boolean ordered) {
+        discardPending(objects);
+        invalidateCached(objects);
+        objects.forEach(changeTracker::forget);
+        BulkResult result = bulkWrite(MetricsSink.Operation.REMOVE_ALL, objects, ordered,
+                (obj, keyInfo) -> new DeleteManyModel<>(context.keyFilter(obj)),
+                (builder, index, upserted) -> builder.set(index, BulkResult.Outcome.REMOVED));
+        invalidateCached(objects);
+        return result;
+    }
+
+    @Override
+    public boolean update(@NotNull Class<?> type, @NotNull Object keyOrEntity, @NotNull Bson updates) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return false;
+        }
+
+        BsonDocument key = context.keyDocument(type, keyOrEntity);
+        if (key == null) return false;
+
+        prepareUpdate(type, key);
+        AtomicBoolean found = new AtomicBoolean(false);
+        processRequest(MetricsSink.Operation.UPDATE, typeOf(type), (collection, keyInfo) -> {
+            found.set(collection.updateOne(key, versioned(type, updates)).getMatchedCount() > 0);
+        });
+        invalidateCached(type, key);
+        return found.get();
+    }
+
+    @Override
+    public <T> Optional<T> updateAndGet(@NotNull Class<T> type, @NotNull Object keyOrEntity, @NotNull Bson updates) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Optional.empty();
+        }
+
+        BsonDocument key = context.keyDocument(type, keyOrEntity);
+        if (key == null) return Optional.empty();
+
+        prepareUpdate(type, key);
+        List<T> result = new ArrayList<>(1);
+        processRequest(MetricsSink.Operation.UPDATE, type, (collection, keyInfo) -> {
+            try {
+                T obj = collection.findOneAndUpdate(key, versioned(type, updates), new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+                if (obj != null) {
+                    result.add(obj);
+                }
+            } catch (BSONException | CodecConfigurationException e) {
+                logger.error("An error occurred while running updateAndGet on %s class. (Type mismatch)", type.getSimpleName());
+            }
+        });
+
+        if (result.isEmpty()) {
+            invalidateCached(type, key);
+            return Optional.empty();
+        }
+
+        // The returned object is the latest version, and replaces
+        // the ones cached by the queries running during the update
+        cache(result.get(0));
+        return Optional.of(result.get(0));
+    }
+
+    @Override
+    public <T> Optional<T> modify(@NotNull Class<T> type, @NotNull Object keyOrEntity, @NotNull Function<T, T> change) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return Optional.empty();
+        }
+
+        BsonDocument key = context.keyDocument(type, keyOrEntity);
+        if (key == null) return Optional.empty();
+
+        // The loaded object is changed, so it is never shared with the other reads
+        return OptimisticRetry.modify(logger,
+                type,
+                () -> Optional.ofNullable(queryFirst(type, IterableProcessor.passthrough, key)),
+                obj -> store(obj, true),
+                change);
+    }
+
+    @Override
+    public long updateMany(@NotNull Class<?> type, @NotNull Bson filter, @NotNull Bson updates) {
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return 0;
+        }
+
+        // Any pending or cached object may match the filter
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+        EntityCache cache = cacheFor(type);
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+
+        AtomicLong modified = new AtomicLong(0);
+        processRequest(MetricsSink.Operation.UPDATE_MANY, typeOf(type), (collection, keyInfo) -> {
+            modified.set(collection.updateMany(filter, versioned(type, updates)).getModifiedCount());
+        });
+        // The queries running during the update may have cached the old objects
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        return modified.get();
+    }
+
+    /*
+    The updates change the version of the versioned objects too, otherwise
+    the objects loaded before the update could still be stored over it
+     */
+    private Bson versioned(Class<?> type, Bson updates) {
+        VersionAccessor version = versionOf(type);
+        return version == null ? updates : Updates.combine(updates, Updates.inc(version.name(), 1));
+    }
+
+    /*
+    The pending version of the object must be written before the update,
+    otherwise it would overwrite it, and the cached version becomes outdated.
+    The cache is invalidated again after the update, since a query running
+    in the meantime may have cached the old version.
+     */
+    private void prepareUpdate(Class<?> type, BsonDocument key) {
+        if (writeBehind != null && writeBehind.contains(new WriteBehindBuffer.PendingKey(type, key))) {
+            writeBehind.flush();
+        }
+
+        invalidateCached(type, key);
+    }
+
+    @Override
+    public void flush() {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+
+    /*
+    The objects written directly must not be overwritten
+    by the older versions waiting in the write-behind buffer
+     */
+    private void discardPending(Collection<?> objects) {
+        if (writeBehind == null || !initialized) return;
+
+        List<WriteBehindBuffer.PendingKey> keys = new ArrayList<>(objects.size());
+        for (Object obj : objects) {
+            if (!context.keys(obj.getClass()).isEmpty()) {
+                keys.add(pendingKey(obj));
+            }
+        }
+        writeBehind.discard(keys);
+    }
+
+    // Returns the cache of the type, if it has been enabled in the builder or in the annotation
+    private EntityCache cacheFor(Class<?> type) {
+        return caches.computeIfAbsent(type, key -> {
+            EntityCache.Settings settings = cacheSettings.get(type);
+            if (settings == null) {
+                MongoObject annotation = type.getAnnotation(MongoObject.class);
+                if (annotation != null && annotation.cacheSize() > 0) {
+                    settings = new EntityCache.Settings(annotation.cacheSize(), Duration.ofSeconds(annotation.cacheTtl()));
+                }
+            }
+
+            Map<String, Class<?>> keys = context.keys(type);
+            if (settings == null || keys.isEmpty()) return Optional.empty();
+
+            return Optional.of(new EntityCache(keys.keySet(), settings));
+        }).orElse(null);
+    }
+
+    private void cache(Object obj) {
+        EntityCache cache = cacheFor(obj.getClass());
+        if (cache != null) {
+            cache.put(context.keyDocument(obj), obj);
+        }
+    }
+
+    private void invalidateCached(Class<?> type, BsonDocument key) {
+        EntityCache cache = cacheFor(type);
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    private void invalidateCached(Collection<?> objects) {
+        if (!initialized) return;
+
+        for (Object obj : objects) {
+            EntityCache cache = cacheFor(obj.getClass());
+            if (cache != null) {
+                cache.invalidate(context.keyDocument(obj));
+            }
+        }
+    }
+
+    @Override
+    public Optional<CacheStats> cacheStats(Class<?> type) {
+        return Optional.ofNullable(cacheFor(type)).map(EntityCache::stats);
+    }
+
+    private WriteBehindBuffer.PendingKey pendingKey(Object obj) {
+        return new WriteBehindBuffer.PendingKey(obj.getClass(), context.keyDocument(obj));
+    }
+
+    /*
+    Groups the objects by their type and sends the operations
+    created by the factory to MongoDB in chunks of bulkChunkSize elements.
+     */
+    private BulkResult bulkWrite(MetricsSink.Operation operation, Collection<?> objects, boolean ordered, WriteModelFactory factory, OutcomeHandler handler) {
+        BulkResultBuilder result = new BulkResultBuilder(objects.size());
+        if (!initialized) {
+            logger.error("Please run MongoStorage#init before querying the database!");
+            return result.build();
+        }
+
+        // Remember the original position of every object
+        List<Object> items = new ArrayList<>(objects);
+        Map<Class<?>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            groups.computeIfAbsent(items.get(i).getClass(), type -> new ArrayList<>()).add(i);
+        }
+
+        BulkWriteOptions options = new BulkWriteOptions().ordered(ordered);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        for (Map.Entry<Class<?>, List<Integer>> group : groups.entrySet()) {
+            if (stopped.get()) break;
+
+            processRequest(operation, typeOf(group.getKey()), (collection, keyInfo) -> {
+                List<Integer> indexes = group.getValue();
+                for (int start = 0; start < indexes.size() && !stopped.get(); start += bulkChunkSize) {
+                    List<Integer> chunk = indexes.subList(start, Math.min(start + bulkChunkSize, indexes.size()));
+                    List<WriteModel<Object>> models = new ArrayList<>(chunk.size());
+                    chunk.forEach(index -> models.add(factory.create(items.get(index), keyInfo)));
+
+                    BulkWriteResult writeResult;
+                    Set<Integer> failed = new HashSet<>();
+                    int executed = chunk.size();
+                    try {
+                        writeResult = collection.bulkWrite(models, options);
+                    } catch (MongoBulkWriteException e) {
+                        writeResult = e.getWriteResult();
+                        e.getWriteErrors().forEach(error -> failed.add(error.getIndex()));
+                        logger.error("%d operations of a bulk write on %s failed: %s",
+                                failed.size(), group.getKey().getSimpleName(), e.getWriteErrors().get(0).getMessage());
+
+                        // Ordered writes stop at the first error
+                        if (ordered) {
+                            executed = Collections.min(failed) + 1;
+                            stopped.set(true);
+                        }
+                    }
+
+                    Set<Integer> upserted = new HashSet<>();
+                    writeResult.getUpserts().forEach(upsert -> upserted.add(upsert.getIndex()));
+                    result.addRemoved(writeResult.getDeletedCount());
+
+                    for (int i = 0; i < executed; i++) {
+                        if (failed.contains(i)) {
+                            result.set(chunk.get(i), BulkResult.Outcome.FAILED);
+                        } else {
+                            handler.accept(result, chunk.get(i), upserted.contains(i));
+                        }
+                    }
+                }
+            });
+        }
+        return result.build();
+    }
+
+    private interface WriteModelFactory {
+
+        WriteModel<Object> create(Object obj, Map<String, Class<?>> keys);
+    }
+
+    private interface OutcomeHandler {
+
+        void accept(BulkResultBuilder result, int index, boolean upserted);
+    }
+
+    @Override
+    public MongoCollection<Document> getObjectCollection(Class<?> type) {
+        MongoObject annotation = context.annotation(type);
+        if (annotation == null) return null;
+
+        return getDatabase(annotation.database()).getCollection(context.collectionName(type.getName(), annotation.collection()));
+    }
+
+    private MongoDatabase getDatabase(String name) {
+        MongoDatabase database;
+        if (cachedDatabases.containsKey(name)) {
+            database = cachedDatabases.get(name);
+        } else {
+            database = client.getDatabase(name);
+            cachedDatabases.put(name, database);
+        }
+
+        return database;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> MongoCollection<T> getTypedCollection(Class<T> type) {
+        MongoCollection<?> cache = cachedCollections.get(type);
+        if (cache != null) return (MongoCollection<T>) cache;
+
+        MongoCollection<Document> collection = getObjectCollection(type);
+        if (collection == null) return null;
+
+        // The documents are decoded directly using our codecs
+        MongoCollection<T> typed = collection.withDocumentClass(type);
+        MigrationSchema schema = context.schema(type);
+        boolean versioned = schema != null && schema.isVersioned();
+        boolean lazy = schema != null && schema.isLazy();
+        boolean tracked = isTracked(type);
+        if (versioned || lazy || tracked || metrics.isEnabled()) {
+            Codec<T> codec = typed.getCodecRegistry().get(type);
+            if (versioned) {
+                // Stamp the current version on the stored documents
+                codec = new VersionedCodec<>(codec, schema.getVersion());
+            }
+            if (tracked) {
+                // Remember the loaded documents, to send only the changes when they are stored
+                codec = changeTracker.wrap(codec);
+            }
+            if (lazy) {
+                // Migrate the documents of the lazy schemas while decoding them
+                codec = lazyMigrator.wrap(codec, schema, collection);
+            }
+            if (metrics.isEnabled()) {
+                codec = OperationTimer.measure(codec);
+            }
+            typed = typed.withCodecRegistry(CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(codec), typed.getCodecRegistry()));
+        }
+        uniqueKeys.put(type, createKeyIndex(type, typed));
+        cachedCollections.put(type, typed);
+
+        return typed;
+    }
+
+    // Encodes the object like the codec of its collection, including the version of the schema
+    private BsonDocument encode(Object obj) {
+        BsonDocument document = context.encode(obj);
+        MigrationSchema schema = context.schema(obj.getClass());
+        if (schema != null && schema.isVersioned()) {
+            document.put(MigrationSchema.VERSION_FIELD, new BsonInt32(schema.getVersion()));
+        }
+        return document;
+    }
+
+    /*
+    Creates a unique index on the keys of the objects, so that
+    MongoDB itself can detect duplicates. If the collection already
+    contains duplicates, the index cannot be created: in that case
+    the objects are stored checking for duplicates beforehand.
+     */
+    private boolean createKeyIndex(Class<?> type, MongoCollection<?> collection) {
+        Map<String, Class<?>> keys = context.keys(type);
+        if (keys.isEmpty()) return false;
+        // MongoDB always creates a unique index on the _id field
+        if (keys.size() == 1 && keys.containsKey("_id")) return true;
+
+        try {
+            collection.createIndex(Indexes.ascending(new ArrayList<>(keys.keySet())), new IndexOptions().unique(true));
+            return true;
+        } catch (MongoException e) {
+            logger.warn("Could not create a unique index on the keys of %s: %s", type.getSimpleName(), e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+    This method enables us to perform operations directly on
+    the collections containing object with type T
+     */
+    private <T> void processRequest(MetricsSink.Operation operation, Class<T> type, RequestConsumer<T> consumer) {
+        if (client == null) return;
+
+        // Retrieve the primary key used for this type of object
+        Map<String, Class<?>> keys = context.keys(type);
+
+        // Small check for invalid keys
+        if (keys.isEmpty()) {
+            logger.warn("There are no keys for this object");
+            return;
+        }
+
+        MongoCollection<T> collection = getTypedCollection(type);
+        if (collection == null) return;
+
+        // Now let's execute the code passed via parameter
+        OperationTimer.start(metrics);
+        try {
+            consumer.accept(collection, keys);
+        } finally {
+            OperationTimer.stop(metrics, type, operation);
+            if (singleFlight != null && WRITE_OPERATIONS.contains(operation)) {
+                singleFlight.written(type);
+            }
+        }
+    }
+
+    /*
+    The processors work on FindIterable<Document> objects, but they only
+    change the options of the query, so they can be safely applied
+    to iterables which decode the documents to other types.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private <T> FindIterable<T> applyProcessor(IterableProcessor processor, FindIterable<T> iterable) {
+        return (FindIterable<T>) processor.process((FindIterable) iterable);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Class<T> typeOf(T obj) {
+        return (Class<T>) obj.getClass();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<Object> typeOf(Class<?> type) {
+        return (Class<Object>) type;
+    }
+
+    @Override
+    public AsyncMongoStorage async() {
+        return asyncStorage;
+    }
+
+    @Override
+    public MongoClient getClient() {
+        return client;
+    }
+}
@@ -0,0 +1,49 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.schema.MigrationSchema;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/*
+Writes the version of the schema in every document encoded by the wrapped codec,
+so that the documents stored by the library are never migrated again.
+ */
+final class VersionedCodec<T> implements Codec<T> {
+
+    private final Codec<T> codec;
+    private final BsonInt32 version;
+
+    VersionedCodec(Codec<T> codec, int version) {
+        this.codec = codec;
+        this.version = new BsonInt32(version);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext context) {
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), value, context);
+        stamp(document);
+        writer.pipe(new BsonDocumentReader(document));
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext context) {
+        return codec.decode(reader, context);
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return codec.getEncoderClass();
+    }
+
+    private void stamp(BsonDocument document) {
+        document.put(MigrationSchema.VERSION_FIELD, version);
+    }
+}
@@ -0,0 +1,132 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.logging.ILogger;
+import org.bson.BsonDocument;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/*
+Keeps the latest version of the objects stored with update = true,
+and writes them to MongoDB periodically or when too many objects are pending.
+Writing many times the same object between two flushes costs a single replace.
+ */
+final class WriteBehindBuffer {
+
+    private final ILogger logger;
+    private final Duration interval;
+    private final int maxPending;
+    private final Consumer<List<Object>> writer;
+
+    private final Map<PendingKey, Object> pending;
+    // Only one flush can run at a time, and the direct writes
+    // wait for it to finish, so they are never overwritten by older versions
+    private final ReentrantLock flushLock;
+    private ScheduledExecutorService scheduler;
+
+    WriteBehindBuffer(ILogger logger, Duration interval, int maxPending, Consumer<List<Object>> writer) {
+        this.logger = logger;
+        this.interval = interval;
+        this.maxPending = maxPending;
+        this.writer = writer;
+
+        this.pending = new ConcurrentHashMap<>();
+        this.flushLock = new ReentrantLock();
+    }
+
+    synchronized void start() {
+        if (scheduler != null) return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MongoStorage-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flushes and writes the pending objects.
+     */
+    void stop() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Replaces the pending version of the object.
+     * When the buffer is full, the caller writes the pending objects
+     * by itself, so the producers cannot outrun MongoDB.
+     */
+    void put(PendingKey key, Object obj) {
+        if (pending.size() >= maxPending && !pending.containsKey(key)) {
+            flush();
+        }
+
+        pending.put(key, obj);
+    }
+
+    boolean contains(PendingKey key) {
+        return pending.containsKey(key);
+    }
+
+    /**
+     * Forgets the pending versions of the objects which are about to be
+     * written directly, waiting for the flush in progress.
+     */
+    void discard(Collection<PendingKey> keys) {
+        flushLock.lock();
+        try {
+            keys.forEach(pending::remove);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    void flush() {
+        flushLock.lock();
+        try {
+            if (pending.isEmpty()) return;
+
+            // Remove only the versions we are going to write:
+            // the newer ones will be written by the next flush
+            List<Map.Entry<PendingKey, Object>> taken = new ArrayList<>();
+            List<Object> objects = new ArrayList<>();
+            for (Map.Entry<PendingKey, Object> entry : pending.entrySet()) {
+                if (pending.remove(entry.getKey(), entry.getValue())) {
+                    taken.add(Map.entry(entry.getKey(), entry.getValue()));
+                    objects.add(entry.getValue());
+                }
+            }
+
+            try {
+                writer.accept(objects);
+            } catch (RuntimeException e) {
+                // The connection may be temporarily unavailable: try again later
+                logger.error("Could not write %d pending objects: %s", objects.size(), e.getMessage());
+                taken.forEach(entry -> pending.putIfAbsent(entry.getKey(), entry.getValue()));
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    record PendingKey(Class<?> type, BsonDocument key) {
+    }
+}
@@ -0,0 +1,100 @@
+package dev.starless.mongo.api;
+
+import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking view of a {@link MongoStorage} instance, obtained with {@link MongoStorage#async()}.
+ * Every operation is executed by the blocking implementation on a separate thread
+ * (a virtual thread when the runtime supports them), and the number of
+ * requests running at the same time is limited by
+ * {@link dev.starless.mongo.StorageBuilder#maxInFlightRequests(int)}.
+ */
+public interface AsyncMongoStorage {
+
+    /**
+     * Convenience method which calls {@link AsyncMongoStorage#find(Class, IterableProcessor, Bson)}
+     * without filtering or doing operations on the output.
+     *
+     * @param type Type to look for
+     * @return a future completed with a mutable list which contains only objects of the requested type
+     */
+    default <T> CompletableFuture<List<T>> find(@NotNull Class<? extends T> type) {
+        return find(type, Filters.empty());
+    }
+
+    /**
+     * Convenience method which calls {@link AsyncMongoStorage#find(Class, IterableProcessor, Bson)}
+     * accepting every type of object T matching a certain criteria.
+     *
+     * @param type   Type to look for
+     * @param filter Filter to apply
+     * @return a future completed with a mutable list which contains only objects of the requested type
+     */
+    default <T> CompletableFuture<List<T>> find(@NotNull Class<? extends T> type, @NotNull Bson filter) {
+        return find(type, IterableProcessor.passthrough, filter);
+    }
+
+    /**
+     * Asynchronous version of {@link MongoStorage#find(Class, IterableProcessor, Bson)}.
+     *
+     * @param type      Type of the object to retrieve
+     * @param processor Operations to perform directly on the {@link com.mongodb.client.FindIterable} before the serialization
+     * @param filter    Filter to apply
+     * @return a future completed with a mutable list which contains only objects of the requested type
+     */
+    <T> CompletableFuture<List<T>> find(@NotNull Class<? extends T> type,
+                                        @NotNull IterableProcessor processor,
+                                        @NotNull Bson filter);
+
+    /**
+     * Convenience method which calls {@link AsyncMongoStorage#findFirst(Class, IterableProcessor, Bson)}
+     * passing only a Filter as a parameter.
+     *
+     * @param type   Type to look for
+     * @param filter Filter to apply
+     * @return a future completed with the first object found matching the criteria
+     */
+    default <T> CompletableFuture<Optional<T>> findFirst(@NotNull Class<? extends T> type, @NotNull Bson filter) {
+        return findFirst(type, IterableProcessor.passthrough, filter);
+    }
+
+    /**
+     * Asynchronous version of {@link MongoStorage#findFirst(Class, IterableProcessor, Bson)}.
+     *
+     * @param type      Type of the object to retrieve
+     * @param processor Operations to perform directly on the {@link com.mongodb.client.FindIterable} before the serialization
+     * @param filter    Filter to apply
+     * @return a future completed with an Optional containing an object of type T, otherwise empty if nothing is found
+     */
+    <T> CompletableFuture<Optional<T>> findFirst(@NotNull Class<? extends T> type,
+                                                 @NotNull IterableProcessor processor,
+                                                 @NotNull Bson filter);
+
+    /**
+     * Asynchronous version of {@link MongoStorage#store(Object, boolean)}.
+     *
+     * @param obj    Object to save
+     * @param update When set to false, the object will not be saved if another object with the same key is found.
+     * @return a future completed with true if the MongoDB collection was changed
+     */
+    CompletableFuture<Boolean> store(@NotNull Object obj, boolean update);
+
+    /**
+     * Asynchronous version of {@link MongoStorage#remove(Object)}.
+     *
+     * @param obj Object to be removed
+     * @return a future completed with the number of objects removed by this call
+     */
+    CompletableFuture<Integer> remove(@NotNull Object obj);
+
+    /**
+     * @return The blocking {@link MongoStorage} instance which executes the requests
+     */
+    MongoStorage sync();
+}
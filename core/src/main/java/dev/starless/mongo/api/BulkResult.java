@@ -0,0 +1,103 @@
+package dev.starless.mongo.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Contains the outcome of every object passed to a bulk operation,
+ * in the same order of the original collection.
+ */
+public final class BulkResult {
+
+    public enum Outcome {
+        /**
+         * The object was not present and has been inserted
+         */
+        INSERTED,
+        /**
+         * The object was already present and has been overwritten
+         */
+        REPLACED,
+        /**
+         * The object was already present, so it was not inserted
+         */
+        SKIPPED,
+        /**
+         * The delete operation has been executed successfully.
+         * MongoDB does not report which deletes matched a document:
+         * use {@link BulkResult#getRemovedCount()} for the exact number.
+         */
+        REMOVED,
+        /**
+         * MongoDB reported an error for this object
+         */
+        FAILED,
+        /**
+         * The object has a {@link dev.starless.mongo.api.annotations.MongoVersion} field,
+         * and the stored object has a different version
+         */
+        CONFLICT,
+        /**
+         * The operation was never sent, for example after an error in an ordered bulk write
+         */
+        NOT_EXECUTED
+    }
+
+    private final Outcome[] outcomes;
+    private final int removedCount;
+
+    /**
+     * @param outcomes     Outcome of every object, in the order of the original collection
+     * @param removedCount Number of documents removed by the operation
+     */
+    public BulkResult(List<Outcome> outcomes, int removedCount) {
+        this.outcomes = outcomes.toArray(Outcome[]::new);
+        this.removedCount = removedCount;
+    }
+
+    /**
+     * @param index Position of the object in the original collection
+     * @return The outcome of the operation on that object
+     */
+    public Outcome getOutcome(int index) {
+        return outcomes[index];
+    }
+
+    /**
+     * @return An unmodifiable list containing the outcome of every object
+     */
+    public List<Outcome> getOutcomes() {
+        return Collections.unmodifiableList(Arrays.asList(outcomes));
+    }
+
+    /**
+     * @param outcome Type of the outcome
+     * @return How many objects ended with that outcome
+     */
+    public int count(Outcome outcome) {
+        int count = 0;
+        for (Outcome value : outcomes) {
+            if (value == outcome) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of documents removed by the operation
+     */
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * @return true if no object failed, conflicted or was left unprocessed
+     */
+    public boolean isSuccessful() {
+        return count(Outcome.FAILED) == 0 && count(Outcome.CONFLICT) == 0 && count(Outcome.NOT_EXECUTED) == 0;
+    }
+
+    public int size() {
+        return outcomes.length;
+    }
+}
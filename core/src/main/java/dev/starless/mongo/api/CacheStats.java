@@ -0,0 +1,21 @@
+package dev.starless.mongo.api;
+
+/**
+ * Snapshot of the counters of the entity cache of a type,
+ * useful to choose the size of the cache.
+ *
+ * @param hits      Number of lookups served by the cache
+ * @param misses    Number of lookups which needed a query
+ * @param evictions Number of objects removed because the cache was full or they were expired
+ * @param size      Number of objects currently cached
+ */
+public record CacheStats(long hits, long misses, long evictions, int size) {
+
+    /**
+     * @return The ratio between hits and lookups, or 0 if nothing has been looked up yet
+     */
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,458 @@
+package dev.starless.mongo.api;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import dev.starless.mongo.StorageImpl;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * This class handles interactions between MongoDB
+ * and java objects annotated with {@link dev.starless.mongo.api.annotations.MongoObject}.
+ */
+public interface MongoStorage {
+
+    /**
+     * Connects to MongoDB and performs the requested
+     * operations on the objects'.
+     */
+    void init();
+
+    /**
+     * Closes the connection to MongoDB.
+     */
+    void close();
+
+    /**
+     * Overrides the collection name for a specific {@link dev.starless.mongo.api.annotations.MongoObject}
+     * annotated class.
+     *
+     * @param type {@link Class Class<?>} object
+     * @param name new collection name
+     */
+    void overrideCollectionName(Class<?> type, String name);
+
+    /**
+     * Convenience method which calls {@link StorageImpl#find(Class, IterableProcessor, Bson)}
+     * without filtering or doing operations on the output.
+     *
+     * @param type Type to look for
+     * @return a mutable list which contains only objects of the requested type
+     */
+    default <T> List<T> find(@NotNull Class<? extends T> type) {
+        return find(type, Filters.empty());
+    }
+
+    /**
+     * Convenience method which calls {@link StorageImpl#find(Class, IterableProcessor, Bson)}
+     * accepting every type of object T matching a certain criteria.
+     *
+     * @param type   Type to look for
+     * @param filter Filter to apply
+     * @return a mutable list which contains only objects of the requested type
+     */
+    default <T> List<T> find(@NotNull Class<? extends T> type, @NotNull Bson filter) {
+        return find(type, IterableProcessor.passthrough, filter);
+    }
+
+    /**
+     * Convenience method which calls {@link StorageImpl#find(Class, IterableProcessor, Bson)}
+     * accepting every type of object T and then performs some operations on the {@link com.mongodb.client.FindIterable<org.bson.Document>}.
+     *
+     * @param type Type to look for
+     * @param processor {@link IterableProcessor} to apply to MongoDB results
+     * @return a mutable list which contains only objects of the requested type
+     */
+    default <T> List<T> find(@NotNull Class<? extends T> type, @NotNull IterableProcessor processor) {
+        return find(type, processor, Filters.empty());
+    }
+
+    /**
+     * Retrieves a list of objects from MongoDB.
+     *
+     * @param type       Type of the object to retrieve
+     * @param filter     Filter to apply
+     * @param processor  Operations to perform directly on the {@link com.mongodb.client.FindIterable<org.bson.Document>} before the serialization
+     * @return a mutable list which contains only objects of the requested type
+     */
+    <T> List<T> find(@NotNull Class<? extends T> type,
+                     @NotNull IterableProcessor processor,
+                     @NotNull Bson filter);
+
+    /**
+     * Convenience method which calls {@link StorageImpl#find(Class, Class, IterableProcessor, Bson)}
+     * without doing operations on the output.
+     *
+     * @param type   Type of the stored objects
+     * @param view   Class containing the fields to load
+     * @param filter Filter to apply
+     * @return a mutable list of views
+     */
+    default <V> List<V> find(@NotNull Class<?> type, @NotNull Class<V> view, @NotNull Bson filter) {
+        return find(type, view, IterableProcessor.passthrough, filter);
+    }
+
+    /**
+     * Same as {@link MongoStorage#find(Class, Class, Bson)}, but only
+     * the fields passed as a parameter are loaded, instead of every field of the view.
+     *
+     * @param type   Type of the stored objects
+     * @param view   Class the documents are decoded to
+     * @param fields Names of the fields to load
+     * @param filter Filter to apply
+     * @return a mutable list of views
+     */
+    default <V> List<V> find(@NotNull Class<?> type, @NotNull Class<V> view, @NotNull Collection<String> fields, @NotNull Bson filter) {
+        return find(type, view, iterable -> iterable.projection(Projections.include(new ArrayList<>(fields))), filter);
+    }
+
+    /**
+     * Convenience method which calls {@link StorageImpl#find(Class, Class, IterableProcessor, Bson)}
+     * returning only the first view.
+     *
+     * @param type   Type of the stored objects
+     * @param view   Class containing the fields to load
+     * @param filter Filter to apply
+     * @return Optional containing the first view, otherwise empty if nothing is found
+     */
+    default <V> Optional<V> findFirst(@NotNull Class<?> type, @NotNull Class<V> view, @NotNull Bson filter) {
+        List<V> list = find(type, view, iterable -> iterable.limit(1), filter);
+        return list.isEmpty() ? Optional.empty() : Optional.of(list.get(0));
+    }
+
+    /**
+     * Retrieves only some fields of the objects stored in MongoDB.
+     * The loaded fields are the ones declared in the view, a lightweight class
+     * or record whose fields have the same names of the stored ones:
+     * the other fields are not sent by MongoDB and the documents are decoded
+     * directly to the view, which is faster than loading the whole objects.
+     * The processor can replace the projection to load other fields.
+     *
+     * @param type      Type of the stored objects, which determines the collection
+     * @param view      Class containing the fields to load
+     * @param processor Operations to perform directly on the {@link com.mongodb.client.FindIterable<org.bson.Document>} before the serialization
+     * @param filter    Filter to apply
+     * @return a mutable list of views
+     */
+    <V> List<V> find(@NotNull Class<?> type,
+                     @NotNull Class<V> view,
+                     @NotNull IterableProcessor processor,
+                     @NotNull Bson filter);
+
+    /**
+     * Convenience method which calls {@link StorageImpl#stream(Class, IterableProcessor, Bson, int)}
+     * accepting every type of object T matching a certain criteria.
+     *
+     * @param type   Type to look for
+     * @param filter Filter to apply
+     * @return a lazy stream which must be closed after its use
+     */
+    default <T> Stream<T> stream(@NotNull Class<? extends T> type, @NotNull Bson filter) {
+        return stream(type, IterableProcessor.passthrough, filter);
+    }
+
+    /**
+     * Convenience method which calls {@link StorageImpl#stream(Class, IterableProcessor, Bson, int)}
+     * using the default batch size of MongoDB.
+     *
+     * @param type      Type to look for
+     * @param processor {@link IterableProcessor} to apply to MongoDB results
+     * @param filter    Filter to apply
+     * @return a lazy stream which must be closed after its use
+     */
+    default <T> Stream<T> stream(@NotNull Class<? extends T> type,
+                                 @NotNull IterableProcessor processor,
+                                 @NotNull Bson filter) {
+        return stream(type, processor, filter, 0);
+    }
+
+    /**
+     * Retrieves the objects from MongoDB lazily: the documents are fetched
+     * in batches and deserialized only when they are consumed,
+     * so the memory usage does not depend on the number of results.
+     * The returned stream holds a cursor open on the server, so
+     * it should be used in a try-with-resources statement.
+     *
+     * @param type       Type of the object to retrieve
+     * @param processor  Operations to perform directly on the {@link com.mongodb.client.FindIterable<org.bson.Document>} before the serialization
+     * @param filter     Filter to apply
+     * @param batchSize  Number of documents fetched for each batch, or 0 to use the default size
+     * @return a lazy stream which must be closed after its use
+     */
+    <T> Stream<T> stream(@NotNull Class<? extends T> type,
+                         @NotNull IterableProcessor processor,
+                         @NotNull Bson filter,
+                         int batchSize);
+
+    /**
+     * Convenience method which calls {@link StorageImpl#findFirst(Class, IterableProcessor, Bson)}.
+     *
+     * @param type Type to look for
+     * @return the first object in the collection
+     */
+    default <T> Optional<T> findFirst(@NotNull Class<? extends T> type) {
+        return findFirst(type, Filters.empty());
+    }
+
+    /**
+     * Convenience method which calls {@link StorageImpl#findFirst(Class, IterableProcessor, Bson)}
+     * passing only a Filter as a parameter.
+     *
+     * @param type   Type to look for
+     * @param filter Filter to apply
+     * @return the first object found matching the criteria
+     */
+    default <T> Optional<T> findFirst(@NotNull Class<? extends T> type, @NotNull Bson filter) {
+        return findFirst(type, IterableProcessor.passthrough, filter);
+    }
+
+    /**
+     * Convenience method which calls {@link StorageImpl#findFirst(Class, IterableProcessor, Bson)}
+     * passing only a {@link IterableProcessor} to apply to MongoDB results.
+     *
+     * @param type Type to look for
+     * @param processor {@link IterableProcessor} instance
+     * @return the first object found matching the criteria
+     */
+    default <T> Optional<T> findFirst(@NotNull Class<? extends T> type, @NotNull IterableProcessor processor) {
+        return findFirst(type, processor, Filters.empty());
+    }
+
+    /**
+     * Retrieves a <b>single</b> object from MongoDB.
+     *
+     * @param type       Type of the object to retrieve
+     * @param filter     Filter to apply
+     * @param processor  Operations to perform directly on the {@link com.mongodb.client.FindIterable<org.bson.Document>} before the serialization
+     * @return Optional containing an object of type T, otherwise empty if nothing is found
+     */
+    <T> Optional<T> findFirst(@NotNull Class<? extends T> type,
+                              @NotNull IterableProcessor processor,
+                              @NotNull Bson filter);
+
+    /**
+     * Retrieves many objects by their keys, with a single query for every
+     * {@link dev.starless.mongo.StorageBuilder#bulkChunkSize(int)} keys instead of a query for every object.
+     * When there are many chunks, they are queried concurrently.
+     * The objects in the entity cache are not queried.
+     *
+     * @param type Type of the objects
+     * @param keys The objects, the values of their key, or maps containing the values of their keys
+     * @return A map containing the found objects, mapped by the key passed as a parameter
+     * in the same order of the collection: the keys of the missing objects are not present
+     */
+    <K, T> Map<K, T> findAllByKeys(@NotNull Class<T> type, @NotNull Collection<K> keys);
+
+    /**
+     * Convenience method which calls {@link StorageImpl#page(Class, Bson, String, boolean, String, int)}
+     * sorting the objects in ascending order.
+     *
+     * @param type       Type to look for
+     * @param filter     Filter to apply
+     * @param sortField  Field used to sort the objects
+     * @param afterToken Token of the previous page, or null to get the first page
+     * @param size       Maximum number of objects in the page
+     * @return The requested page
+     */
+    default <T> Page<T> page(@NotNull Class<? extends T> type,
+                             @NotNull Bson filter,
+                             @NotNull String sortField,
+                             String afterToken,
+                             int size) {
+        return page(type, filter, sortField, true, afterToken, size);
+    }
+
+    /**
+     * Retrieves a page of objects using keyset pagination: instead of skipping
+     * the previous pages, the query starts right after the last object
+     * of the previous page, so every page costs the same regardless of its position.
+     * The objects are sorted by the requested field and then by their keys,
+     * and an index on these fields is created the first time they are used.
+     * The objects whose sorting field is null or missing are sorted by their keys
+     * before every other object, so they come first in ascending order and last in descending order.
+     *
+     * @param type       Type to look for
+     * @param filter     Filter to apply
+     * @param sortField  Field used to sort the objects
+     * @param ascending  true to sort the objects in ascending order
+     * @param afterToken {@link Page#nextToken()} of the previous page, or null to get the first page
+     * @param size       Maximum number of objects in the page
+     * @return The requested page, or an empty page if the token is not valid
+     */
+    <T> Page<T> page(@NotNull Class<? extends T> type,
+                     @NotNull Bson filter,
+                     @NotNull String sortField,
+                     boolean ascending,
+                     String afterToken,
+                     int size);
+
+    /**
+     * Save an object to the database:
+     * can be used to insert or update a document.
+     *
+     * @param obj    Object to save
+     * @param update When set to false, the object will not be saved if another object with the same key is found.
+     *               Otherwise, the previous saved object is overwritten.
+     *
+     * @return true if the MongoDB collection was changed
+     */
+    boolean store(@NotNull Object obj, boolean update);
+
+    /**
+     * Remove an object from the database.
+     *
+     * @param obj Object to be removed
+     * @return the number of objects removed by this call.
+     */
+    int remove(@NotNull Object obj);
+
+    /**
+     * Convenience method which calls {@link StorageImpl#storeAll(Collection, boolean, boolean)}
+     * using unordered writes.
+     *
+     * @param objects Objects to save
+     * @param update  Same meaning of the parameter in {@link MongoStorage#store(Object, boolean)}
+     * @return the outcome of every object
+     */
+    default BulkResult storeAll(@NotNull Collection<?> objects, boolean update) {
+        return storeAll(objects, update, false);
+    }
+
+    /**
+     * Save many objects to the database, grouping them by collection
+     * and sending them to MongoDB in chunks using bulk writes.
+     *
+     * @param objects Objects to save
+     * @param update  Same meaning of the parameter in {@link MongoStorage#store(Object, boolean)}
+     * @param ordered When set to true, the writes are executed in order and stop at the first error.
+     *                Otherwise, MongoDB can execute them in parallel and skip only the failed ones.
+     * @return the outcome of every object
+     */
+    BulkResult storeAll(@NotNull Collection<?> objects, boolean update, boolean ordered);
+
+    /**
+     * Convenience method which calls {@link StorageImpl#removeAll(Collection, boolean)}
+     * using unordered writes.
+     *
+     * @param objects Objects to be removed
+     * @return the outcome of every object
+     */
+    default BulkResult removeAll(@NotNull Collection<?> objects) {
+        return removeAll(objects, false);
+    }
+
+    /**
+     * Remove many objects from the database using bulk writes.
+     *
+     * @param objects Objects to be removed
+     * @param ordered When set to true, the deletes are executed in order and stop at the first error.
+     * @return the outcome of every object
+     */
+    BulkResult removeAll(@NotNull Collection<?> objects, boolean ordered);
+
+    /**
+     * Changes a stored object directly in MongoDB, without loading it,
+     * using the update operators like {@link com.mongodb.client.model.Updates#inc(String, Number)}.
+     * The update is atomic, so the concurrent updates of the same object are never lost.
+     * The cached object is discarded, and the pending version in the write-behind buffer is written first.
+     * The {@link dev.starless.mongo.api.annotations.MongoVersion} field of the versioned objects is incremented,
+     * so the objects loaded before the update cannot be stored over it.
+     *
+     * @param type        Type of the object
+     * @param keyOrEntity The object, the value of its key, or a map containing the values of its keys
+     * @param updates     Update to apply
+     * @return true if an object with the given key was found
+     */
+    boolean update(@NotNull Class<?> type, @NotNull Object keyOrEntity, @NotNull Bson updates);
+
+    /**
+     * Same as {@link MongoStorage#update(Class, Object, Bson)}, but the updated
+     * object is returned, loaded in the same round trip.
+     *
+     * @param type        Type of the object
+     * @param keyOrEntity The object, the value of its key, or a map containing the values of its keys
+     * @param updates     Update to apply
+     * @return Optional containing the updated object, otherwise empty if nothing is found
+     */
+    <T> Optional<T> updateAndGet(@NotNull Class<T> type, @NotNull Object keyOrEntity, @NotNull Bson updates);
+
+    /**
+     * Changes a stored object using optimistic concurrency: the object is loaded,
+     * changed by the function and stored, and if another instance has stored it in the meantime
+     * everything is done again on the latest version, waiting a bit longer after every conflict.
+     * The conflicts are detected using the {@link dev.starless.mongo.api.annotations.MongoVersion}
+     * field of the object, so the function may run more than once:
+     * the objects without a version field are simply overwritten.
+     *
+     * @param type        Type of the object
+     * @param keyOrEntity The object, the value of its key, or a map containing the values of its keys
+     * @param change      Function changing the loaded object, which can return the same instance,
+     *                    a new one with the same keys and version, or null to cancel the operation
+     * @return Optional containing the stored object, otherwise empty if the object was not found,
+     * the operation was cancelled or the conflicts did not stop
+     */
+    <T> Optional<T> modify(@NotNull Class<T> type, @NotNull Object keyOrEntity, @NotNull Function<T, T> change);
+
+    /**
+     * Applies an update to every stored object matching a filter, with a single request.
+     * The whole entity cache of the type is discarded.
+     * Like in {@link MongoStorage#update(Class, Object, Bson)}, the version of the versioned objects is incremented.
+     *
+     * @param type    Type of the objects
+     * @param filter  Filter to apply
+     * @param updates Update to apply
+     * @return the number of objects changed by this call
+     */
+    long updateMany(@NotNull Class<?> type, @NotNull Bson filter, @NotNull Bson updates);
+
+    /**
+     * Writes immediately the objects waiting in the write-behind buffer,
+     * enabled by {@link dev.starless.mongo.StorageBuilder#writeBehind(java.time.Duration, int)}.
+     * Until then, the queries may return the previous version of those objects.
+     * Does nothing if the buffer is disabled.
+     */
+    void flush();
+
+    /**
+     * Returns the counters of the entity cache of a type, enabled by
+     * {@link dev.starless.mongo.StorageBuilder#cache(Class, int, java.time.Duration)}
+     * or by {@link dev.starless.mongo.api.annotations.MongoObject#cacheSize()}.
+     *
+     * @param type Type of the cached objects
+     * @return The statistics of the cache, or empty if the type is not cached
+     */
+    Optional<CacheStats> cacheStats(Class<?> type);
+
+    /**
+     * Returns a non-blocking view of this instance, whose operations
+     * return a {@link java.util.concurrent.CompletableFuture}.
+     * The view shares the connection and the configuration of this instance.
+     *
+     * @return The {@link AsyncMongoStorage} view of this instance
+     */
+    AsyncMongoStorage async();
+
+    /**
+     * This method returns the collection handling a particular type of object.
+     *
+     * @param type Type of {@link dev.starless.mongo.api.annotations.MongoObject} annotated object
+     * @return The {@link MongoCollection<Document>} storing this type of object
+     */
+    MongoCollection<Document> getObjectCollection(Class<?> type);
+
+    /**
+     * @return The underlying {@link MongoClient} used by this {@link MongoStorage} instance
+     */
+    MongoClient getClient();
+}
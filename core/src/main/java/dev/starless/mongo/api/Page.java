@@ -0,0 +1,24 @@
+package dev.starless.mongo.api;
+
+import java.util.List;
+
+/**
+ * A page of results returned by {@link MongoStorage#page(Class, org.bson.conversions.Bson, String, boolean, String, int)}.
+ *
+ * @param items     Objects of this page, in order
+ * @param nextToken Opaque token used to request the next page, or null if this is the last one
+ * @param <T>       Type of the objects
+ */
+public record Page<T>(List<T> items, String nextToken) {
+
+    public static <T> Page<T> empty() {
+        return new Page<>(List.of(), null);
+    }
+
+    /**
+     * @return true if there are more results after this page
+     */
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+}
@@ -0,0 +1,34 @@
+package dev.starless.mongo.api.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MongoObject {
+
+    String database();
+
+    String collection() default "";
+
+    /**
+     * Maximum number of objects kept in the entity cache, which serves
+     * {@link dev.starless.mongo.api.MongoStorage#findFirst(Class, org.bson.conversions.Bson)}
+     * when the filter is an equality on the keys. Zero disables the cache.
+     */
+    int cacheSize() default 0;
+
+    /**
+     * Seconds after which a cached object is loaded again from MongoDB.
+     * Zero means that the objects never expire.
+     */
+    long cacheTtl() default 0;
+
+    /**
+     * When set to true, {@link dev.starless.mongo.api.MongoStorage#store(Object, boolean)}
+     * sends only the fields changed since the object was loaded, instead of replacing the whole document.
+     */
+    boolean trackChanges() default false;
+}
@@ -0,0 +1,18 @@
+package dev.starless.mongo.api.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the int or long field containing the version of an object.
+ * When an object is stored with update = true, it overwrites the stored one only if
+ * their versions are the same, and the version is incremented: when another
+ * instance has changed the object in the meantime, the store fails instead of losing its changes.
+ * The field must not be final.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface MongoVersion {
+}
@@ -0,0 +1,84 @@
+package dev.starless.mongo.api.gateway;
+
+import dev.starless.mongo.api.IterableProcessor;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.querying.Query;
+import dev.starless.mongo.api.querying.QueryTemplate;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Optional;
+
+public abstract class GatewayImpl<T> implements IGateway<T> {
+
+    private final MongoStorage storage;
+    private final Class<T> type;
+
+    /**
+     * The type of the objects is read from the type argument of the subclass.
+     */
+    public GatewayImpl(MongoStorage storage) {
+        this.storage = storage;
+        this.type = resolveType();
+    }
+
+    public GatewayImpl(MongoStorage storage, Class<T> type) {
+        this.storage = storage;
+        this.type = type;
+    }
+
+    @Override
+    public boolean insert(T value) {
+        return storage.store(value, false);
+    }
+
+    @Override
+    public void update(T value) {
+        storage.store(value, true);
+    }
+
+    @Override
+    public int remove(T value) {
+        return storage.remove(value);
+    }
+
+    @Override
+    public Optional<T> loadOne(Query query, Object... parameters) {
+        QueryTemplate template = query.compile(type());
+        // Without options, the lookups by key can be served by the entity cache
+        IterableProcessor processor = template.hasOptions() ? template.processor() : IterableProcessor.passthrough;
+        return storage.findFirst(type, processor, template.filter(parameters));
+    }
+
+    @Override
+    public List<T> loadMany(Query query, Object... parameters) {
+        QueryTemplate template = query.compile(type());
+        return storage.find(type, template.processor(), template.filter(parameters));
+    }
+
+    protected MongoStorage storage() {
+        return storage;
+    }
+
+    protected Class<T> type() {
+        if (type == null) {
+            throw new IllegalStateException("Cannot find the type of " + getClass().getSimpleName() + ", pass it to the constructor!");
+        }
+        return type;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<T> resolveType() {
+        for (Class<?> current = getClass(); current != null && current != GatewayImpl.class; current = current.getSuperclass()) {
+            Type superclass = current.getGenericSuperclass();
+            if (superclass instanceof ParameterizedType parameterized && parameterized.getRawType() == GatewayImpl.class) {
+                Type argument = parameterized.getActualTypeArguments()[0];
+                if (argument instanceof Class<?> clazz) return (Class<T>) clazz;
+                if (argument instanceof ParameterizedType generic) return (Class<T>) generic.getRawType();
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,37 @@
+package dev.starless.mongo.api.gateway;
+
+import dev.starless.mongo.api.querying.Query;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface IGateway<T> {
+
+    boolean insert(T value);
+
+    void update(T value);
+
+    int remove(T value);
+
+    default Optional<T> loadOne(Query query) {
+        return loadOne(query, new Object[0]);
+    }
+
+    /**
+     * @param query      Query to execute
+     * @param parameters Values of the parameters of the query, in order
+     * @return The first object matching the query
+     */
+    Optional<T> loadOne(Query query, Object... parameters);
+
+    default List<T> loadMany(Query query) {
+        return loadMany(query, new Object[0]);
+    }
+
+    /**
+     * @param query      Query to execute
+     * @param parameters Values of the parameters of the query, in order
+     * @return The objects matching the query
+     */
+    List<T> loadMany(Query query, Object... parameters);
+}
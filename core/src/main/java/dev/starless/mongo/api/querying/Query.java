@@ -0,0 +1,158 @@
+package dev.starless.mongo.api.querying;
+
+import java.util.*;
+
+/**
+ * Typed description of a query: the conditions on the fields,
+ * the sorting, the maximum number of results and the loaded fields.
+ * Instances are created by the {@link QueryBuilder} and are immutable,
+ * so they can be compiled once with {@link Query#compile(Class)} and reused.
+ */
+public class Query {
+
+    private final List<Condition> conditions;
+    private final List<String> parameters;
+    private final LinkedHashMap<String, Boolean> sort;
+    private final List<String> fields;
+    private final int limit;
+
+    private volatile QueryTemplate template;
+
+    protected Query() {
+        this(Collections.emptyList(), Collections.emptyList(), new LinkedHashMap<>(), Collections.emptyList(), 0);
+    }
+
+    Query(List<Condition> conditions,
+          List<String> parameters,
+          LinkedHashMap<String, Boolean> sort,
+          List<String> fields,
+          int limit) {
+        this.conditions = List.copyOf(conditions);
+        this.parameters = List.copyOf(parameters);
+        this.sort = new LinkedHashMap<>(sort);
+        this.fields = List.copyOf(fields);
+        this.limit = limit;
+    }
+
+    /**
+     * Validates the query against the fields of a {@link dev.starless.mongo.api.annotations.MongoObject}
+     * class and prebuilds everything which does not depend on the parameters.
+     * The result is cached, so calling this method again with the same type is free.
+     *
+     * @param type Class of the queried objects
+     * @return The compiled {@link QueryTemplate}
+     * @throws IllegalArgumentException if a field does not exist or a value has the wrong type
+     */
+    public QueryTemplate compile(Class<?> type) {
+        QueryTemplate current = template;
+        if (current == null || current.type() != type) {
+            current = new QueryTemplate(type, this);
+            template = current;
+        }
+        return current;
+    }
+
+    /**
+     * @param key Name of the field
+     * @return The value the field must be equal to, converted to a string
+     * @deprecated The values are not stored as strings anymore, use {@link Query#getConditions()}
+     */
+    @Deprecated
+    public String get(String key) {
+        for (Condition condition : conditions) {
+            if (condition.operator() == Operator.EQ && condition.field().equals(key)) {
+                return condition.value() == null ? null : String.valueOf(condition.value());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The queries are immutable, so the returned map cannot be used to change the query
+     * anymore and any attempt to modify it throws an {@link UnsupportedOperationException}:
+     * use {@link QueryBuilder} to create a different query.
+     *
+     * @return A read-only map of the equality conditions, converted to strings
+     * @deprecated The values are not stored as strings anymore, use {@link Query#getConditions()}
+     */
+    @Deprecated
+    public Map<String, String> getValues() {
+        Map<String, String> values = new HashMap<>();
+        for (Condition condition : conditions) {
+            if (condition.operator() == Operator.EQ) {
+                values.put(condition.field(), condition.value() == null ? null : String.valueOf(condition.value()));
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * @return The names of the parameters, in the order they must be bound
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return The sorted fields, mapped to true when the order is ascending
+     */
+    public Map<String, Boolean> getSort() {
+        return Collections.unmodifiableMap(sort);
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Comparison operators supported by the queries.
+     */
+    public enum Operator {
+        EQ("$eq"),
+        NE("$ne"),
+        GT("$gt"),
+        GTE("$gte"),
+        LT("$lt"),
+        LTE("$lte"),
+        IN("$in"),
+        NIN("$nin");
+
+        private final String name;
+
+        Operator(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        boolean acceptsMany() {
+            return this == IN || this == NIN;
+        }
+    }
+
+    /**
+     * @param field    Name of the field
+     * @param operator Comparison operator
+     * @param value    Value to compare, a {@link Parameter}, or a collection of values for the IN operators
+     */
+    public record Condition(String field, Operator operator, Object value) {
+    }
+
+    /**
+     * Placeholder for a value which is bound when the query is executed.
+     *
+     * @param name Name of the parameter
+     */
+    public record Parameter(String name) {
+    }
+}
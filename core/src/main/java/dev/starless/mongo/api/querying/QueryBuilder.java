@@ -0,0 +1,124 @@
+package dev.starless.mongo.api.querying;
+
+import java.util.*;
+
+public class QueryBuilder {
+
+    public static QueryBuilder init() {
+        return new QueryBuilder();
+    }
+
+    public static Query empty() {
+        return new Query();
+    }
+
+    /**
+     * Creates a placeholder, whose value is passed when the query is executed.
+     * The parameters are bound in the order they first appear in the query.
+     *
+     * @param name Name of the parameter
+     * @return The {@link Query.Parameter} to use in place of a value
+     */
+    public static Query.Parameter param(String name) {
+        return new Query.Parameter(name);
+    }
+
+    private final List<Query.Condition> conditions;
+    private final List<String> parameters;
+    private final LinkedHashMap<String, Boolean> sort;
+    private final List<String> fields;
+    private int limit;
+
+    private QueryBuilder() {
+        conditions = new ArrayList<>();
+        parameters = new ArrayList<>();
+        sort = new LinkedHashMap<>();
+        fields = new ArrayList<>();
+    }
+
+    public QueryBuilder add(String key, String value) {
+        return eq(key, value);
+    }
+
+    public QueryBuilder add(String key, Number value) {
+        return eq(key, value);
+    }
+
+    public QueryBuilder eq(String field, Object value) {
+        return condition(field, Query.Operator.EQ, value);
+    }
+
+    public QueryBuilder ne(String field, Object value) {
+        return condition(field, Query.Operator.NE, value);
+    }
+
+    public QueryBuilder gt(String field, Object value) {
+        return condition(field, Query.Operator.GT, value);
+    }
+
+    public QueryBuilder gte(String field, Object value) {
+        return condition(field, Query.Operator.GTE, value);
+    }
+
+    public QueryBuilder lt(String field, Object value) {
+        return condition(field, Query.Operator.LT, value);
+    }
+
+    public QueryBuilder lte(String field, Object value) {
+        return condition(field, Query.Operator.LTE, value);
+    }
+
+    /**
+     * Matches the values between from (inclusive) and to (exclusive).
+     */
+    public QueryBuilder range(String field, Object from, Object to) {
+        return gte(field, from).lt(field, to);
+    }
+
+    /**
+     * @param values A collection of values, or a {@link Query.Parameter} bound to a collection
+     */
+    public QueryBuilder in(String field, Object values) {
+        return condition(field, Query.Operator.IN, values);
+    }
+
+    /**
+     * @param values A collection of values, or a {@link Query.Parameter} bound to a collection
+     */
+    public QueryBuilder nin(String field, Object values) {
+        return condition(field, Query.Operator.NIN, values);
+    }
+
+    public QueryBuilder sort(String field, boolean ascending) {
+        sort.put(field, ascending);
+        return this;
+    }
+
+    public QueryBuilder limit(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("The limit cannot be negative!");
+
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Loads only some fields of the objects: the other ones keep their default value.
+     */
+    public QueryBuilder fields(String... fields) {
+        Collections.addAll(this.fields, fields);
+        return this;
+    }
+
+    public Query create() {
+        return new Query(conditions, parameters, sort, fields, limit);
+    }
+
+    private QueryBuilder condition(String field, Query.Operator operator, Object value) {
+        if (value instanceof Query.Parameter parameter && !parameters.contains(parameter.name())) {
+            parameters.add(parameter.name());
+        }
+
+        conditions.add(new Query.Condition(field, operator, value));
+        return this;
+    }
+}
@@ -0,0 +1,345 @@
+package dev.starless.mongo.api.querying;
+
+import com.google.gson.annotations.SerializedName;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import dev.starless.mongo.api.IterableProcessor;
+import dev.starless.mongo.codec.CodecSupport;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link Query} validated against the fields of a class.
+ * The structure of the filter, the sorting and the projection are built once:
+ * executing the query only binds the values of the parameters.
+ */
+public final class QueryTemplate {
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+    private final Class<?> type;
+    private final FieldConditions[] filter;
+    private final List<String> parameters;
+    private final Map<String, Class<?>> fieldTypes;
+    // Codecs of the scalar fields, which write the bound values like the stored documents
+    private final Map<String, Codec<Object>> fieldCodecs;
+    // Names written by the codecs for the constants of the enums, indexed by their ordinal
+    private final Map<Class<?>, String[]> enumNames;
+    private final Bson sort;
+    private final Bson projection;
+    private final int limit;
+    private final IterableProcessor processor;
+
+    QueryTemplate(Class<?> type, Query query) {
+        this.type = type;
+        this.fieldTypes = fieldTypes(type);
+        this.fieldCodecs = new HashMap<>();
+        fieldTypes.forEach((field, fieldType) -> {
+            Codec<Object> codec = CodecSupport.scalarCodec(fieldType);
+            if (codec != null) fieldCodecs.put(field, codec);
+        });
+        this.enumNames = new ConcurrentHashMap<>();
+        fieldTypes.values().forEach(fieldType -> {
+            if (fieldType.isEnum()) enumNames.computeIfAbsent(fieldType, QueryTemplate::enumNames);
+        });
+        this.parameters = query.getParameters();
+
+        // The conditions on the same field are merged, like {score: {$gte: 1, $lt: 10}}
+        Map<String, List<Query.Condition>> grouped = new LinkedHashMap<>();
+        for (Query.Condition condition : query.getConditions()) {
+            checkCondition(condition);
+            grouped.computeIfAbsent(condition.field(), key -> new ArrayList<>()).add(condition);
+        }
+        this.filter = grouped.entrySet().stream()
+                .map(entry -> fieldConditions(entry.getKey(), entry.getValue()))
+                .toArray(FieldConditions[]::new);
+
+        List<Bson> sorts = new ArrayList<>();
+        query.getSort().forEach((field, ascending) -> {
+            checkField(field);
+            sorts.add(ascending ? Sorts.ascending(field) : Sorts.descending(field));
+        });
+        this.sort = sorts.isEmpty() ? null : Sorts.orderBy(sorts).toBsonDocument();
+
+        query.getFields().forEach(this::checkField);
+        this.projection = query.getFields().isEmpty() ? null : Projections.include(query.getFields()).toBsonDocument();
+        this.limit = query.getLimit();
+
+        this.processor = iterable -> {
+            if (sort != null) iterable.sort(sort);
+            if (projection != null) iterable.projection(projection);
+            if (limit > 0) iterable.limit(limit);
+            return iterable;
+        };
+    }
+
+    /**
+     * Binds the parameters, in the order they first appear in the query.
+     *
+     * @param values Values of the parameters
+     * @return The filter as a {@link Bson} object
+     * @throws IllegalArgumentException if the number or the type of the values is wrong
+     */
+    public Bson filter(Object... values) {
+        if (values.length != parameters.size()) {
+            throw new IllegalArgumentException("The query needs " + parameters.size() + " parameters, but " + values.length + " were passed!");
+        }
+
+        for (FieldConditions conditions : filter) {
+            for (int i = 0; i < conditions.conditions().length; i++) {
+                int parameter = conditions.parameters()[i];
+                if (parameter >= 0) {
+                    checkValue(conditions.field(), conditions.conditions()[i].operator(), values[parameter]);
+                }
+            }
+        }
+        return new BoundFilter(values);
+    }
+
+    /**
+     * Binds the parameters by name.
+     *
+     * @param values Values of the parameters
+     * @return The filter as a {@link Bson} object
+     */
+    public Bson filter(Map<String, ?> values) {
+        Object[] array = new Object[parameters.size()];
+        for (int i = 0; i < array.length; i++) {
+            String name = parameters.get(i);
+            if (!values.containsKey(name)) throw new IllegalArgumentException("The parameter " + name + " is missing!");
+
+            array[i] = values.get(name);
+        }
+        return filter(array);
+    }
+
+    /**
+     * @return The processor applying the sorting, the projection and the limit of the query
+     */
+    public IterableProcessor processor() {
+        return processor;
+    }
+
+    /**
+     * @return true if the query sorts, limits or projects the results
+     */
+    public boolean hasOptions() {
+        return sort != null || projection != null || limit > 0;
+    }
+
+    public Class<?> type() {
+        return type;
+    }
+
+    public Bson sort() {
+        return sort;
+    }
+
+    public Bson projection() {
+        return projection;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    // The position of every parameter is found once, instead of every time the values are bound
+    private FieldConditions fieldConditions(String field, List<Query.Condition> conditions) {
+        int[] indexes = new int[conditions.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = conditions.get(i).value() instanceof Query.Parameter parameter ? parameters.indexOf(parameter.name()) : -1;
+        }
+        return new FieldConditions(field, conditions.toArray(Query.Condition[]::new), indexes);
+    }
+
+    private void checkCondition(Query.Condition condition) {
+        checkField(condition.field());
+        if (!(condition.value() instanceof Query.Parameter)) {
+            checkValue(condition.field(), condition.operator(), condition.value());
+        }
+    }
+
+    private void checkField(String field) {
+        // Only the first part of the nested fields can be checked
+        String root = field.split("\\.", 2)[0];
+        if (!root.equals("_id") && !fieldTypes.containsKey(root)) {
+            throw new IllegalArgumentException("The class " + type.getSimpleName() + " has no field named " + root + "!");
+        }
+    }
+
+    private void checkValue(String field, Query.Operator operator, Object value) {
+        Class<?> fieldType = fieldTypes.get(field);
+        if (fieldType == null) return;
+
+        if (operator.acceptsMany()) {
+            if (!(value instanceof Collection<?> collection)) {
+                throw new IllegalArgumentException("The operator " + operator.getName() + " on " + field + " needs a collection of values!");
+            }
+            for (Object element : collection) {
+                checkValue(field, Query.Operator.EQ, element);
+            }
+        } else if (!accepts(fieldType, value)) {
+            throw new IllegalArgumentException("The field " + field + " of " + type.getSimpleName() + " cannot be compared to " + value.getClass().getSimpleName() + "!");
+        }
+    }
+
+    private static boolean accepts(Class<?> fieldType, Object value) {
+        if (value == null) return !fieldType.isPrimitive();
+
+        Class<?> boxed = box(fieldType);
+        if (boxed.isInstance(value)) return true;
+        // Numbers of different types are compared by value
+        if (Number.class.isAssignableFrom(boxed)) return value instanceof Number;
+        if (boxed == Character.class) return value instanceof CharSequence;
+        // Enum constants are stored by name
+        if (fieldType.isEnum()) return value instanceof String;
+        if (boxed == String.class || boxed == Boolean.class) return false;
+
+        // The values of arrays and collections are matched element by element,
+        // and the other objects may be written by custom adapters
+        return true;
+    }
+
+    private static String[] enumNames(Class<?> enumType) {
+        Object[] constants = enumType.getEnumConstants();
+        String[] names = new String[constants.length];
+        for (Object constant : constants) {
+            Enum<?> value = (Enum<?>) constant;
+            try {
+                SerializedName annotation = enumType.getField(value.name()).getAnnotation(SerializedName.class);
+                names[value.ordinal()] = annotation != null ? annotation.value() : value.name();
+            } catch (NoSuchFieldException e) {
+                names[value.ordinal()] = value.name();
+            }
+        }
+        return names;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        return Array.get(Array.newInstance(type, 1), 0).getClass();
+    }
+
+    // Finds the names written in the documents, like the codecs do
+    private static Map<String, Class<?>> fieldTypes(Class<?> type) {
+        Map<String, Class<?>> fields = new HashMap<>();
+        for (Class<?> current = type; current != null && current != Object.class && current != Record.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) continue;
+
+                SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                if (serializedName != null) {
+                    fields.putIfAbsent(serializedName.value(), field.getType());
+                    for (String alternate : serializedName.alternate()) {
+                        fields.putIfAbsent(alternate, field.getType());
+                    }
+                } else {
+                    fields.putIfAbsent(field.getName(), field.getType());
+                }
+            }
+        }
+        return fields;
+    }
+
+    /*
+    The conditions on a field and, for each of them, the index
+    of its parameter in the bound values or -1 for a constant value.
+     */
+    private record FieldConditions(String field, Query.Condition[] conditions, int[] parameters) {
+
+        // A single equality is written as {field: value}, which the entity cache recognizes
+        boolean isEquality() {
+            return conditions.length == 1 && conditions[0].operator() == Query.Operator.EQ;
+        }
+    }
+
+    /*
+    Writes the prebuilt structure of the filter directly,
+    taking the values of the parameters from the array.
+     */
+    private final class BoundFilter implements Bson {
+
+        private final Object[] values;
+
+        private BoundFilter(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public <TDocument> BsonDocument toBsonDocument(Class<TDocument> documentClass, CodecRegistry registry) {
+            BsonDocument document = new BsonDocument();
+            BsonWriter writer = new BsonDocumentWriter(document);
+            writer.writeStartDocument();
+            for (FieldConditions conditions : filter) {
+                writer.writeName(conditions.field());
+                if (conditions.isEquality()) {
+                    writeValue(writer, registry, conditions.field(), value(conditions, 0));
+                    continue;
+                }
+
+                writer.writeStartDocument();
+                for (int i = 0; i < conditions.conditions().length; i++) {
+                    Query.Condition condition = conditions.conditions()[i];
+                    writer.writeName(condition.operator().getName());
+                    Object value = value(conditions, i);
+                    if (condition.operator().acceptsMany()) {
+                        writer.writeStartArray();
+                        for (Object element : (Collection<?>) value) {
+                            writeValue(writer, registry, conditions.field(), element);
+                        }
+                        writer.writeEndArray();
+                    } else {
+                        writeValue(writer, registry, conditions.field(), value);
+                    }
+                }
+                writer.writeEndDocument();
+            }
+            writer.writeEndDocument();
+            return document;
+        }
+
+        private Object value(FieldConditions conditions, int index) {
+            int parameter = conditions.parameters()[index];
+            return parameter >= 0 ? values[parameter] : conditions.conditions()[index].value();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeValue(BsonWriter writer, CodecRegistry registry, String field, Object value) {
+            if (value == null) {
+                writer.writeNull();
+            } else if (value instanceof Enum<?> constant) {
+                // The enums of the nested fields are not known in advance
+                writer.writeString(enumNames.computeIfAbsent(constant.getDeclaringClass(), QueryTemplate::enumNames)[constant.ordinal()]);
+            } else {
+                // The codec of the field is used when the value has its type, otherwise
+                // the scalars (like UUIDs compared to nested fields) are still written like the codecs do.
+                // The numbers of other types are written as they are, since MongoDB compares them by value.
+                Codec<Object> codec = fieldCodecs.get(field);
+                if (codec == null || !codec.getEncoderClass().isInstance(value)) {
+                    codec = CodecSupport.scalarCodec(value.getClass());
+                }
+                if (codec == null) {
+                    codec = (Codec<Object>) registry.get(value.getClass());
+                }
+                ENCODER_CONTEXT.encodeWithChildContext(codec, writer, value);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return toBsonDocument().toJson();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package dev.starless.mongo.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores java arrays (primitive ones too) as BSON arrays.
+ */
+final class ArrayCodec implements Codec<Object> {
+
+    private final ObjectCodecProvider provider;
+    private final Class<?> componentType;
+    private final Codec<Object> componentCodec;
+
+    ArrayCodec(ObjectCodecProvider provider, Class<?> componentType, Type genericComponentType) {
+        this.provider = provider;
+        this.componentType = componentType;
+        this.componentCodec = provider.codecFor(genericComponentType);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Object value, EncoderContext encoderContext) {
+        writer.writeStartArray();
+        int length = Array.getLength(value);
+        for (int i = 0; i < length; i++) {
+            provider.encodeValue(writer, componentCodec, componentType, Array.get(value, i), encoderContext);
+        }
+        writer.writeEndArray();
+    }
+
+    @Override
+    public Object decode(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+
+        List<Object> values = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            values.add(provider.decodeValue(reader, componentCodec, decoderContext));
+        }
+        reader.readEndArray();
+
+        Object array = Array.newInstance(componentType, values.size());
+        for (int i = 0; i < values.size(); i++) {
+            Object element = values.get(i);
+            // Primitive arrays cannot contain nulls
+            if (element != null || !componentType.isPrimitive()) {
+                Array.set(array, i, element);
+            }
+        }
+        return array;
+    }
+
+    @Override
+    public Class<Object> getEncoderClass() {
+        return Object.class;
+    }
+}
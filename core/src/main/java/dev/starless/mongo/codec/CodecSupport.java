@@ -0,0 +1,176 @@
+package dev.starless.mongo.codec;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonReader;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+
+/**
+ * Utility methods used by the code generated by the MongoStorage-processor module.
+ * Reading methods are lenient and return null when the value has an unexpected type.
+ */
+public final class CodecSupport {
+
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+    private CodecSupport() {
+    }
+
+    /**
+     * Creates a getter for a field which cannot be accessed directly.
+     *
+     * @param owner     The class of the object
+     * @param declaring The class declaring the field
+     * @param name      The name of the field
+     * @return a {@link MethodHandle} of type (owner) -> field type
+     */
+    public static MethodHandle getter(Class<?> owner, Class<?> declaring, String name) {
+        Field field = field(declaring, name);
+        try {
+            return MethodHandles.lookup().unreflectGetter(field)
+                    .asType(MethodType.methodType(field.getType(), owner));
+        } catch (IllegalAccessException e) {
+            throw new CodecConfigurationException("Cannot access the field " + name, e);
+        }
+    }
+
+    /**
+     * Creates a setter for a field which cannot be accessed directly.
+     *
+     * @param owner     The class of the object
+     * @param declaring The class declaring the field
+     * @param name      The name of the field
+     * @return a {@link MethodHandle} of type (owner, field type) -> void
+     */
+    public static MethodHandle setter(Class<?> owner, Class<?> declaring, String name) {
+        Field field = field(declaring, name);
+        try {
+            return MethodHandles.lookup().unreflectSetter(field)
+                    .asType(MethodType.methodType(void.class, owner, field.getType()));
+        } catch (IllegalAccessException e) {
+            throw new CodecConfigurationException("Cannot access the field " + name, e);
+        }
+    }
+
+    /**
+     * @return The generic type of a field
+     */
+    public static Type fieldType(Class<?> declaring, String name) {
+        return field(declaring, name).getGenericType();
+    }
+
+    public static void write(ObjectCodecProvider provider, BsonWriter writer, Codec<Object> codec, Class<?> declaredType, Object value, EncoderContext context) {
+        provider.encodeValue(writer, codec, declaredType, value, context);
+    }
+
+    public static Object read(ObjectCodecProvider provider, BsonReader reader, Codec<Object> codec, DecoderContext context) {
+        return provider.decodeValue(reader, codec, context);
+    }
+
+    /**
+     * Returns the codec used by the object codecs for the fields of a scalar type,
+     * like the numbers, the strings and the UUIDs.
+     *
+     * @param type Type of the field
+     * @return The codec, or null if the type is not a scalar
+     */
+    @SuppressWarnings("unchecked")
+    public static Codec<Object> scalarCodec(Class<?> type) {
+        return (Codec<Object>) (Codec<?>) ScalarCodec.of(type);
+    }
+
+    /**
+     * Converts a value to the same representation it has inside the stored documents.
+     */
+    public static BsonValue toBsonValue(ObjectCodecProvider provider, Codec<Object> codec, Class<?> declaredType, Object value) {
+        BsonDocument document = new BsonDocument();
+        BsonDocumentWriter writer = new BsonDocumentWriter(document);
+        writer.writeStartDocument();
+        writer.writeName("v");
+        provider.encodeValue(writer, codec, declaredType, value, ENCODER_CONTEXT);
+        writer.writeEndDocument();
+        return document.get("v");
+    }
+
+    /**
+     * Converts a string, a number or a boolean to the same representation written by the scalar codecs,
+     * without going through a writer.
+     *
+     * @return The value, or null if it is not a string, a number or a boolean
+     */
+    public static BsonValue toBsonValue(Object value) {
+        if (value == null) return BsonNull.VALUE;
+        if (value instanceof String string) return new BsonString(string);
+        if (value instanceof Long number) return new BsonInt64(number);
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return new BsonInt32(((Number) value).intValue());
+        }
+        if (value instanceof Double || value instanceof Float) return new BsonDouble(((Number) value).doubleValue());
+        if (value instanceof Boolean bool) return BsonBoolean.valueOf(bool);
+        return null;
+    }
+
+    public static String readString(BsonReader reader) {
+        return (String) ScalarCodec.STRING.decode(reader, DECODER_CONTEXT);
+    }
+
+    public static Integer readInt(BsonReader reader) {
+        return (Integer) ScalarCodec.INT.decode(reader, DECODER_CONTEXT);
+    }
+
+    public static Long readLong(BsonReader reader) {
+        return (Long) ScalarCodec.LONG.decode(reader, DECODER_CONTEXT);
+    }
+
+    public static Double readDouble(BsonReader reader) {
+        return (Double) ScalarCodec.DOUBLE.decode(reader, DECODER_CONTEXT);
+    }
+
+    public static Float readFloat(BsonReader reader) {
+        return (Float) ScalarCodec.FLOAT.decode(reader, DECODER_CONTEXT);
+    }
+
+    public static Short readShort(BsonReader reader) {
+        return (Short) ScalarCodec.SHORT.decode(reader, DECODER_CONTEXT);
+    }
+
+    public static Byte readByte(BsonReader reader) {
+        return (Byte) ScalarCodec.BYTE.decode(reader, DECODER_CONTEXT);
+    }
+
+    public static Boolean readBoolean(BsonReader reader) {
+        return (Boolean) ScalarCodec.BOOLEAN.decode(reader, DECODER_CONTEXT);
+    }
+
+    public static Character readChar(BsonReader reader) {
+        return (Character) ScalarCodec.CHAR.decode(reader, DECODER_CONTEXT);
+    }
+
+    private static Field field(Class<?> declaring, String name) {
+        try {
+            Field field = declaring.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new CodecConfigurationException("Cannot find the field " + name + " in " + declaring.getName(), e);
+        }
+    }
+}
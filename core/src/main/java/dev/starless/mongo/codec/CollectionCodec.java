@@ -0,0 +1,98 @@
+package dev.starless.mongo.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Stores every {@link Collection} as a BSON array.
+ */
+final class CollectionCodec implements Codec<Object> {
+
+    private final ObjectCodecProvider provider;
+    private final Supplier<Collection<Object>> factory;
+    private final Class<?> elementType;
+    private final Codec<Object> elementCodec;
+
+    private CollectionCodec(ObjectCodecProvider provider, Supplier<Collection<Object>> factory, Type elementType) {
+        this.provider = provider;
+        this.factory = factory;
+        this.elementType = ObjectCodecProvider.rawType(elementType);
+        this.elementCodec = provider.codecFor(elementType);
+    }
+
+    /**
+     * @return a new codec, or null if we do not know how to instantiate the collection
+     */
+    static CollectionCodec of(ObjectCodecProvider provider, Class<?> raw, Type elementType) {
+        Supplier<Collection<Object>> factory = factory(raw);
+        return factory != null ? new CollectionCodec(provider, factory, elementType) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Collection<Object>> factory(Class<?> raw) {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            // The same implementations chosen by Gson
+            if (SortedSet.class.isAssignableFrom(raw)) return TreeSet::new;
+            if (Set.class.isAssignableFrom(raw)) return LinkedHashSet::new;
+            if (Queue.class.isAssignableFrom(raw)) return ArrayDeque::new;
+            if (raw.isAssignableFrom(ArrayList.class)) return ArrayList::new;
+            return null;
+        }
+
+        try {
+            Constructor<?> constructor = raw.getDeclaredConstructor();
+            if (!Modifier.isPublic(constructor.getModifiers())) return null;
+
+            return () -> {
+                try {
+                    return (Collection<Object>) constructor.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Object value, EncoderContext encoderContext) {
+        writer.writeStartArray();
+        for (Object element : (Collection<?>) value) {
+            provider.encodeValue(writer, elementCodec, elementType, element, encoderContext);
+        }
+        writer.writeEndArray();
+    }
+
+    @Override
+    public Object decode(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+
+        Collection<Object> collection = factory.get();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            collection.add(provider.decodeValue(reader, elementCodec, decoderContext));
+        }
+        reader.readEndArray();
+
+        return collection;
+    }
+
+    @Override
+    public Class<Object> getEncoderClass() {
+        return Object.class;
+    }
+}
@@ -0,0 +1,54 @@
+package dev.starless.mongo.codec;
+
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+
+import java.util.Map;
+
+/**
+ * Metadata and serialization logic of a {@link dev.starless.mongo.api.annotations.MongoObject}
+ * annotated class, generated at compile time by the MongoStorage-processor module.
+ * Implementations are discovered using a {@link java.util.ServiceLoader}:
+ * when no implementation is found for a class, the library falls back to reflection.
+ *
+ * @param <T> Type of the object
+ */
+public interface EntityModel<T> {
+
+    /**
+     * @return The class described by this model
+     */
+    Class<T> type();
+
+    /**
+     * @return The database declared in the {@link dev.starless.mongo.api.annotations.MongoObject} annotation
+     */
+    String database();
+
+    /**
+     * @return The collection declared in the {@link dev.starless.mongo.api.annotations.MongoObject} annotation
+     */
+    String collection();
+
+    /**
+     * @return The names and types of the fields annotated with {@link dev.starless.mongo.api.annotations.MongoKey}
+     */
+    Map<String, Class<?>> keys();
+
+    /**
+     * Creates the codec used to read and write this type of object.
+     *
+     * @param provider The provider used to handle the values that are not strings or primitives
+     * @return a new {@link Codec} instance
+     */
+    Codec<T> codec(ObjectCodecProvider provider);
+
+    /**
+     * Creates a filter which matches the documents having the same keys of the object.
+     *
+     * @param provider The provider used to convert the keys that are not strings or primitives
+     * @param obj      Object to look for
+     * @return The filter as a {@link Bson} object
+     */
+    Bson keyFilter(ObjectCodecProvider provider, T obj);
+}
@@ -0,0 +1,79 @@
+package dev.starless.mongo.codec;
+
+import com.google.gson.annotations.SerializedName;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores enum constants by name, honoring
+ * the {@link SerializedName} annotations like Gson does.
+ */
+final class EnumCodec implements Codec<Object> {
+
+    private final Class<?> type;
+    private final Map<String, Enum<?>> constants;
+    private final Map<Enum<?>, String> names;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    <E extends Enum<E>> EnumCodec(Class<E> type) {
+        this.type = type;
+        this.constants = new HashMap<>();
+        this.names = new EnumMap(type);
+
+        for (E constant : type.getEnumConstants()) {
+            String name = constant.name();
+            try {
+                SerializedName annotation = type.getField(name).getAnnotation(SerializedName.class);
+                if (annotation != null) {
+                    name = annotation.value();
+                    for (String alternate : annotation.alternate()) {
+                        constants.put(alternate, constant);
+                    }
+                }
+            } catch (NoSuchFieldException ignored) {
+                // Should never happen
+            }
+
+            constants.put(name, constant);
+            names.put(constant, name);
+        }
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Object value, EncoderContext encoderContext) {
+        writer.writeString(format(value));
+    }
+
+    @Override
+    public Object decode(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() != BsonType.STRING) {
+            reader.skipValue();
+            return null;
+        }
+
+        return parse(reader.readString());
+    }
+
+    String format(Object value) {
+        return names.get((Enum<?>) value);
+    }
+
+    Object parse(String value) {
+        return constants.get(value);
+    }
+
+    @Override
+    public Class<Object> getEncoderClass() {
+        @SuppressWarnings("unchecked")
+        Class<Object> clazz = (Class<Object>) type;
+        return clazz;
+    }
+}
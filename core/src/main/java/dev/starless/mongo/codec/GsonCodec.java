@@ -0,0 +1,162 @@
+package dev.starless.mongo.codec;
+
+import com.google.gson.*;
+import org.bson.*;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * Compatibility codec which relies on Gson to (de)serialize the values
+ * of types that cannot be handled natively, for example the ones that have
+ * a TypeAdapter registered via {@link dev.starless.mongo.StorageBuilder#typeAdapter(Type, Object)}.
+ * The value is converted to a {@link JsonElement} tree and then written
+ * in the same format that {@link Document#parse(String)} would produce.
+ */
+final class GsonCodec<T> implements Codec<T> {
+
+    private static final BsonValueCodec BSON_VALUE_CODEC = new BsonValueCodec();
+    private static final JsonWriterSettings RELAXED = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+    private final Gson gson;
+    private final Class<T> clazz;
+    private final Type type;
+
+    GsonCodec(Gson gson, Class<T> clazz, Type type) {
+        this.gson = gson;
+        this.clazz = clazz;
+        this.type = type;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+        // Use the runtime type if it differs from the declared one,
+        // since we could lose some fields otherwise
+        Type runtimeType = value.getClass() == clazz ? type : value.getClass();
+        writeElement(writer, gson.toJsonTree(value, runtimeType));
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        BsonValue value = BSON_VALUE_CODEC.decode(reader, decoderContext);
+        try {
+            return gson.fromJson(toElement(value), type);
+        } catch (JsonParseException | IllegalStateException | ClassCastException | NumberFormatException e) {
+            // The value has already been consumed, so we can safely ignore it
+            return null;
+        }
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return clazz;
+    }
+
+    private static void writeElement(BsonWriter writer, JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            writer.writeNull();
+        } else if (element.isJsonArray()) {
+            writer.writeStartArray();
+            for (JsonElement child : element.getAsJsonArray()) {
+                writeElement(writer, child);
+            }
+            writer.writeEndArray();
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            if (isExtendedJson(object)) {
+                // Something like {"$oid": "..."}, which Document#parse would have converted
+                BsonValue value = BsonDocument.parse("{\"v\": " + object + "}").get("v");
+                BSON_VALUE_CODEC.encode(writer, value, EncoderContext.builder().build());
+                return;
+            }
+
+            writer.writeStartDocument();
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                writer.writeName(entry.getKey());
+                writeElement(writer, entry.getValue());
+            }
+            writer.writeEndDocument();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                writer.writeBoolean(primitive.getAsBoolean());
+            } else if (primitive.isString()) {
+                writer.writeString(primitive.getAsString());
+            } else {
+                writeNumber(writer, primitive.getAsNumber());
+            }
+        }
+    }
+
+    // Mimics the conversions made by the Json parser of the driver
+    private static void writeNumber(BsonWriter writer, Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            writer.writeDouble(number.doubleValue());
+            return;
+        }
+
+        long value;
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+            value = number.longValue();
+        } else {
+            String text = number.toString();
+            if (text.contains(".") || text.contains("e") || text.contains("E")) {
+                writer.writeDouble(Double.parseDouble(text));
+                return;
+            }
+
+            BigInteger integer = new BigInteger(text);
+            if (integer.bitLength() >= Long.SIZE) {
+                writer.writeDouble(new BigDecimal(integer).doubleValue());
+                return;
+            }
+            value = integer.longValue();
+        }
+
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            writer.writeInt32((int) value);
+        } else {
+            writer.writeInt64(value);
+        }
+    }
+
+    private static boolean isExtendedJson(JsonObject object) {
+        if (object.size() == 0 || object.size() > 2) return false;
+
+        return object.keySet().iterator().next().startsWith("$");
+    }
+
+    private static JsonElement toElement(BsonValue value) {
+        return switch (value.getBsonType()) {
+            case NULL, UNDEFINED -> JsonNull.INSTANCE;
+            case STRING -> new JsonPrimitive(value.asString().getValue());
+            case SYMBOL -> new JsonPrimitive(value.asSymbol().getSymbol());
+            case BOOLEAN -> new JsonPrimitive(value.asBoolean().getValue());
+            case INT32 -> new JsonPrimitive(value.asInt32().getValue());
+            case INT64 -> new JsonPrimitive(value.asInt64().getValue());
+            case DOUBLE -> new JsonPrimitive(value.asDouble().getValue());
+            case ARRAY -> {
+                JsonArray array = new JsonArray();
+                value.asArray().forEach(child -> array.add(toElement(child)));
+                yield array;
+            }
+            case DOCUMENT -> {
+                JsonObject object = new JsonObject();
+                value.asDocument().forEach((key, child) -> object.add(key, toElement(child)));
+                yield object;
+            }
+            // Use the same representation that Document#toJson would produce
+            default -> JsonParser.parseString(new BsonDocument("v", value).toJson(RELAXED))
+                    .getAsJsonObject()
+                    .get("v");
+        };
+    }
+}
@@ -0,0 +1,163 @@
+package dev.starless.mongo.codec;
+
+import com.google.gson.annotations.SerializedName;
+import dev.starless.mongo.api.annotations.MongoKey;
+import org.bson.*;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.*;
+
+/**
+ * Reads only the {@link MongoKey} annotated fields of an object to build
+ * the filter matching its document. The values are converted using
+ * the same codecs used to store the objects, so they always match
+ * the representation found inside the documents.
+ */
+public final class KeyAccessor {
+
+    private final ObjectCodecProvider provider;
+    private final Class<?> type;
+    private final Map<String, Class<?>> keys;
+    private final String[] names;
+
+    // Only one of these is used, depending on how the class is serialized
+    private final EntityModel<Object> model;
+    private final PropertyModel[] properties;
+
+    @SuppressWarnings("unchecked")
+    KeyAccessor(ObjectCodecProvider provider, Class<?> type, EntityModel<?> model, Codec<?> codec) {
+        this.provider = provider;
+        this.type = type;
+        this.model = (EntityModel<Object>) model;
+
+        if (model != null) {
+            this.keys = model.keys();
+            this.properties = null;
+        } else if (codec instanceof ObjectCodec<?> objectCodec) {
+            this.properties = Arrays.stream(objectCodec.properties())
+                    .filter(property -> property.field().isAnnotationPresent(MongoKey.class))
+                    .toArray(PropertyModel[]::new);
+
+            Map<String, Class<?>> map = new LinkedHashMap<>();
+            for (PropertyModel property : properties) {
+                map.put(property.name(), property.rawType());
+            }
+            this.keys = Collections.unmodifiableMap(map);
+        } else {
+            // The object is serialized by Gson, so we need
+            // to look for the keys by ourselves
+            this.properties = null;
+            this.keys = Collections.unmodifiableMap(searchKeys(type));
+        }
+        this.names = keys.keySet().toArray(String[]::new);
+    }
+
+    /**
+     * @return The names of the keys, as found inside the documents, and the types of their fields
+     */
+    public Map<String, Class<?>> keys() {
+        return keys;
+    }
+
+    /**
+     * Creates a filter which matches the documents having the same keys of the object.
+     *
+     * @param obj Object to look for
+     * @return The filter as a {@link Bson} object
+     */
+    public Bson filter(Object obj) {
+        if (model != null) return model.keyFilter(provider, obj);
+
+        if (properties != null) {
+            // A single key does not need any additional allocation
+            if (properties.length == 1) {
+                return new BsonDocument(names[0], toBsonValue(properties[0], properties[0].get(obj)));
+            }
+
+            BsonDocument filter = new BsonDocument();
+            for (int i = 0; i < properties.length; i++) {
+                filter.append(names[i], toBsonValue(properties[i], properties[i].get(obj)));
+            }
+            return filter;
+        }
+
+        // Slow path: serialize the whole object
+        BsonDocument document = new BsonDocument();
+        provider.codecFor((Type) type).encode(new BsonDocumentWriter(document), obj, EncoderContext.builder().build());
+
+        BsonDocument filter = new BsonDocument();
+        for (String name : names) {
+            filter.append(name, document.get(name, BsonNull.VALUE));
+        }
+        return filter;
+    }
+
+    /**
+     * Converts the value of a key passed by the user to the same representation
+     * it has inside the documents, using the codec of the key field.
+     * The numbers are converted to the type of the field, so an int can be used for a long key.
+     *
+     * @param name  Name of the key, as found inside the documents
+     * @param value Value of the key
+     * @return The value as a {@link BsonValue}
+     * @throws IllegalArgumentException if the value cannot be converted to the type of the key
+     */
+    public BsonValue keyValue(String name, Object value) {
+        Class<?> keyType = keys.get(name);
+        if (keyType == null) throw new IllegalArgumentException(name + " is not a key of " + type.getSimpleName());
+        if (value == null) return BsonNull.VALUE;
+
+        Codec<Object> codec = null;
+        if (properties != null) {
+            for (PropertyModel property : properties) {
+                if (property.name().equals(name)) codec = property.codec();
+            }
+        } else {
+            codec = provider.codecFor((Type) keyType);
+        }
+
+        if (codec instanceof ScalarCodec scalar) {
+            value = scalar.coerce(value);
+        } else if (!wrap(keyType).isInstance(value)) {
+            throw new IllegalArgumentException(value + " cannot be converted to " + keyType.getSimpleName());
+        }
+        return CodecSupport.toBsonValue(provider, codec, keyType, value);
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    private BsonValue toBsonValue(PropertyModel property, Object value) {
+        if (value == null) return BsonNull.VALUE;
+
+        Codec<Object> codec = property.codec();
+        if (codec instanceof ScalarCodec) {
+            // Same representation written by the ScalarCodec
+            BsonValue scalar = CodecSupport.toBsonValue(value);
+            if (scalar != null) return scalar;
+        }
+
+        return CodecSupport.toBsonValue(provider, codec, property.rawType(), value);
+    }
+
+    private static Map<String, Class<?>> searchKeys(Class<?> type) {
+        Map<String, Class<?>> keys = new LinkedHashMap<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || !field.isAnnotationPresent(MongoKey.class)) continue;
+
+                SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                keys.putIfAbsent(serializedName != null ? serializedName.value() : field.getName(), field.getType());
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,123 @@
+package dev.starless.mongo.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Stores {@link Map} objects as BSON documents.
+ * Like Gson does, the keys are converted to their string representation.
+ */
+final class MapCodec implements Codec<Object> {
+
+    private final ObjectCodecProvider provider;
+    private final Supplier<Map<Object, Object>> factory;
+    private final Function<Object, String> keyFormatter;
+    private final Function<String, Object> keyParser;
+    private final Class<?> valueType;
+    private final Codec<Object> valueCodec;
+
+    private MapCodec(ObjectCodecProvider provider,
+                     Supplier<Map<Object, Object>> factory,
+                     Function<Object, String> keyFormatter,
+                     Function<String, Object> keyParser,
+                     Type valueType) {
+        this.provider = provider;
+        this.factory = factory;
+        this.keyFormatter = keyFormatter;
+        this.keyParser = keyParser;
+        this.valueType = ObjectCodecProvider.rawType(valueType);
+        this.valueCodec = provider.codecFor(valueType);
+    }
+
+    /**
+     * @return a new codec, or null if the map or its keys cannot be handled natively
+     */
+    static MapCodec of(ObjectCodecProvider provider, Class<?> raw, Type keyType, Type valueType) {
+        Supplier<Map<Object, Object>> factory = factory(raw);
+        if (factory == null) return null;
+
+        Codec<Object> keyCodec = provider.codecFor(keyType);
+        if (keyCodec instanceof ScalarCodec scalar) {
+            return new MapCodec(provider, factory, scalar::format, scalar::parse, valueType);
+        } else if (keyCodec instanceof EnumCodec enumCodec) {
+            return new MapCodec(provider, factory, enumCodec::format, enumCodec::parse, valueType);
+        }
+
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Map<Object, Object>> factory(Class<?> raw) {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            if (SortedMap.class.isAssignableFrom(raw)) return TreeMap::new;
+            if (raw.isAssignableFrom(LinkedHashMap.class)) return LinkedHashMap::new;
+            return null;
+        }
+
+        try {
+            Constructor<?> constructor = raw.getDeclaredConstructor();
+            if (!Modifier.isPublic(constructor.getModifiers())) return null;
+
+            return () -> {
+                try {
+                    return (Map<Object, Object>) constructor.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Object value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            writer.writeName(keyFormatter.apply(entry.getKey()));
+            provider.encodeValue(writer, valueCodec, valueType, entry.getValue(), encoderContext);
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Object decode(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+            reader.skipValue();
+            return null;
+        }
+
+        Map<Object, Object> map = factory.get();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            Object key;
+            try {
+                key = keyParser.apply(reader.readName());
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                key = null;
+            }
+
+            Object value = provider.decodeValue(reader, valueCodec, decoderContext);
+            if (key != null) map.put(key, value);
+        }
+        reader.readEndDocument();
+
+        return map;
+    }
+
+    @Override
+    public Class<Object> getEncoderClass() {
+        return Object.class;
+    }
+}
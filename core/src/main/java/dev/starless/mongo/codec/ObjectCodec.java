@@ -0,0 +1,223 @@
+package dev.starless.mongo.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Reads and writes the fields of an object directly from/to BSON using {@link MethodHandle}s.
+ * Fields are chosen following the same rules used by Gson:
+ * static, transient and synthetic fields are ignored, while
+ * the fields of the superclasses are included.
+ */
+final class ObjectCodec<T> implements Codec<T> {
+
+    private final ObjectCodecProvider provider;
+    private final Class<T> type;
+    private final PropertyModel[] properties;
+    private final Map<String, Integer> indexes;
+
+    // Only one of these is used
+    private final MethodHandle constructor;
+    private final MethodHandle recordConstructor;
+
+    ObjectCodec(ObjectCodecProvider provider, Class<T> type) {
+        this.provider = provider;
+        this.type = type;
+
+        boolean isRecord = type.isRecord();
+        List<Field> fields = new ArrayList<>();
+        if (isRecord) {
+            // The order of the fields must match the canonical constructor
+            for (RecordComponent component : type.getRecordComponents()) {
+                try {
+                    fields.add(type.getDeclaredField(component.getName()));
+                } catch (NoSuchFieldException e) {
+                    throw new CodecConfigurationException("Cannot find the field " + component.getName(), e);
+                }
+            }
+        } else {
+            searchFields(type, fields);
+        }
+
+        List<PropertyModel> models = new ArrayList<>();
+        Map<String, Integer> names = new HashMap<>();
+        for (Field field : fields) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) continue;
+
+            PropertyModel model = new PropertyModel(provider, field, !isRecord);
+            // Fields of the subclasses hide the ones of their superclasses
+            if (names.containsKey(model.name())) continue;
+
+            names.put(model.name(), models.size());
+            for (String alternate : model.alternateNames()) {
+                names.putIfAbsent(alternate, models.size());
+            }
+            models.add(model);
+        }
+        this.properties = models.toArray(PropertyModel[]::new);
+        this.indexes = names;
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            if (isRecord) {
+                Class<?>[] components = Arrays.stream(type.getRecordComponents())
+                        .map(RecordComponent::getType)
+                        .toArray(Class<?>[]::new);
+                Constructor<T> canonical = type.getDeclaredConstructor(components);
+                canonical.setAccessible(true);
+
+                this.constructor = null;
+                this.recordConstructor = lookup.unreflectConstructor(canonical)
+                        .asSpreader(Object[].class, components.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } else {
+                this.constructor = instantiator(lookup, type);
+                this.recordConstructor = null;
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new CodecConfigurationException("Cannot instantiate the class " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        for (PropertyModel property : properties) {
+            writer.writeName(property.name());
+            provider.encodeValue(writer, property.codec(), property.rawType(), property.get(value), encoderContext);
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() != null && reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+            reader.skipValue();
+            return null;
+        }
+
+        return recordConstructor != null
+                ? decodeRecord(reader, decoderContext)
+                : decodeObject(reader, decoderContext);
+    }
+
+    private T decodeObject(BsonReader reader, DecoderContext decoderContext) {
+        T instance = newInstance();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            PropertyModel property = property(reader.readName());
+            if (property == null) {
+                // Unknown fields (like _id) are ignored
+                reader.skipValue();
+                continue;
+            }
+
+            property.set(instance, provider.decodeValue(reader, property.codec(), decoderContext));
+        }
+        reader.readEndDocument();
+
+        return instance;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decodeRecord(BsonReader reader, DecoderContext decoderContext) {
+        Object[] arguments = new Object[properties.length];
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            Integer index = indexes.get(reader.readName());
+            if (index == null) {
+                reader.skipValue();
+                continue;
+            }
+
+            arguments[index] = provider.decodeValue(reader, properties[index].codec(), decoderContext);
+        }
+        reader.readEndDocument();
+
+        for (int i = 0; i < arguments.length; i++) {
+            Class<?> componentType = properties[i].rawType();
+            if (arguments[i] == null && componentType.isPrimitive()) {
+                arguments[i] = defaultValue(componentType);
+            }
+        }
+
+        try {
+            return (T) recordConstructor.invokeExact(arguments);
+        } catch (Throwable e) {
+            throw new CodecConfigurationException("Cannot instantiate the record " + type.getName(), e);
+        }
+    }
+
+    private PropertyModel property(String name) {
+        Integer index = indexes.get(name);
+        return index != null ? properties[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T newInstance() {
+        try {
+            return (T) constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new CodecConfigurationException("Cannot instantiate the class " + type.getName(), e);
+        }
+    }
+
+    PropertyModel[] properties() {
+        return properties;
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return type;
+    }
+
+    /*
+    Uses the no-args constructor if present, otherwise
+    the object is allocated without calling any constructor,
+    exactly like Gson does.
+     */
+    private static MethodHandle instantiator(MethodHandles.Lookup lookup, Class<?> type) throws ReflectiveOperationException {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException ignored) {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+
+            return lookup.findVirtual(unsafeClass, "allocateInstance", MethodType.methodType(Object.class, Class.class))
+                    .bindTo(unsafe)
+                    .bindTo(type);
+        }
+    }
+
+    private static Object defaultValue(Class<?> primitive) {
+        return Array.get(Array.newInstance(primitive, 1), 0);
+    }
+
+    // Finds all fields of a class recursively
+    private static void searchFields(Class<?> objectType, List<Field> fields) {
+        Collections.addAll(fields, objectType.getDeclaredFields());
+
+        Class<?> superClass = objectType.getSuperclass();
+        if (superClass != null && superClass != Object.class && superClass != Record.class) {
+            searchFields(superClass, fields);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package dev.starless.mongo.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.annotations.SerializedName;
+import dev.starless.mongo.api.annotations.MongoObject;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This {@link CodecProvider} creates codecs which read and write
+ * {@link MongoObject} annotated classes directly from/to BSON,
+ * without building an intermediate JSON string.
+ * Types which cannot be handled natively (or that have a Gson
+ * TypeAdapter registered in the {@link dev.starless.mongo.StorageBuilder})
+ * are (de)serialized using the provided {@link Gson} instance.
+ * When an {@link EntityModel} was generated at compile time for a class,
+ * its codec is preferred to the reflection based one.
+ */
+public final class ObjectCodecProvider implements CodecProvider {
+
+    private final Gson gson;
+    private final Set<Type> adaptedTypes;
+    private final Map<Class<?>, EntityModel<?>> models;
+    private final Map<Type, Codec<?>> codecs;
+    private final Map<Class<?>, KeyAccessor> keyAccessors;
+    private final Map<Class<?>, Optional<VersionAccessor>> versionAccessors;
+
+    public ObjectCodecProvider(Gson gson, Set<Type> adaptedTypes, Map<Class<?>, EntityModel<?>> models) {
+        this.gson = gson;
+        this.adaptedTypes = adaptedTypes;
+        this.models = models;
+        this.codecs = new ConcurrentHashMap<>();
+        this.keyAccessors = new ConcurrentHashMap<>();
+        this.versionAccessors = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+        if (clazz.getAnnotation(MongoObject.class) == null) return null;
+
+        return codecFor(clazz);
+    }
+
+    /**
+     * Returns the codec used to (de)serialize objects of the given class.
+     *
+     * @param clazz Type of the object
+     * @return A cached {@link Codec} instance
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> codecFor(Class<T> clazz) {
+        return (Codec<T>) codecFor((Type) clazz);
+    }
+
+    /**
+     * Returns the codec used to (de)serialize values of the given generic type.
+     *
+     * @param type Type of the value
+     * @return A cached {@link Codec} instance
+     */
+    @SuppressWarnings("unchecked")
+    public Codec<Object> codecFor(Type type) {
+        Codec<?> codec = codecs.get(type);
+        if (codec == null) {
+            // We cannot use computeIfAbsent here, since
+            // the creation of a codec can be recursive
+            codec = createCodec(type);
+            Codec<?> previous = codecs.putIfAbsent(type, codec);
+            if (previous != null) codec = previous;
+        }
+
+        return (Codec<Object>) codec;
+    }
+
+    /**
+     * Returns the object used to read the keys of the given class.
+     *
+     * @param type Type of the object
+     * @return A cached {@link KeyAccessor} instance
+     */
+    public KeyAccessor keyAccessor(Class<?> type) {
+        KeyAccessor accessor = keyAccessors.get(type);
+        if (accessor == null) {
+            accessor = new KeyAccessor(this, type, models.get(type), codecFor((Type) type));
+            keyAccessors.putIfAbsent(type, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns the object used to read and write the {@link dev.starless.mongo.api.annotations.MongoVersion}
+     * annotated field of the given class.
+     *
+     * @param type Type of the object
+     * @return A cached {@link VersionAccessor} instance, or null if the class is not versioned
+     * @throws IllegalArgumentException if the annotated field cannot contain a version
+     */
+    public VersionAccessor versionAccessor(Class<?> type) {
+        return versionAccessors.computeIfAbsent(type, key -> Optional.ofNullable(VersionAccessor.of(key))).orElse(null);
+    }
+
+    /**
+     * Returns the names of the fields written in the documents for the given class,
+     * including the alternate names declared using {@link com.google.gson.annotations.SerializedName}.
+     *
+     * @param type Type of the object
+     * @return The names of the fields in declaration order
+     */
+    public Set<String> fieldNames(Class<?> type) {
+        Set<String> names = new LinkedHashSet<>();
+        if (codecFor((Type) type) instanceof ObjectCodec<?> codec) {
+            for (PropertyModel property : codec.properties()) {
+                names.add(property.name());
+                Collections.addAll(names, property.alternateNames());
+            }
+            return names;
+        }
+
+        // The generated and the Gson codecs read the same fields of the reflection based one
+        for (Class<?> current = type; current != null && current != Object.class && current != Record.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) continue;
+
+                SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                if (serializedName != null) {
+                    names.add(serializedName.value());
+                    Collections.addAll(names, serializedName.alternate());
+                } else {
+                    names.add(field.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    public Gson getGson() {
+        return gson;
+    }
+
+    void encodeValue(BsonWriter writer, Codec<Object> codec, Class<?> declaredType, Object value, EncoderContext context) {
+        if (value == null) {
+            writer.writeNull();
+            return;
+        }
+
+        // Like Gson does, serialize the runtime type of the object
+        // when a subclass of the declared one is found
+        if (value.getClass() != declaredType && isObject(declaredType)) {
+            codec = codecFor((Type) value.getClass());
+        }
+        codec.encode(writer, value, context);
+    }
+
+    Object decodeValue(BsonReader reader, Codec<Object> codec, DecoderContext context) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+
+        return codec.decode(reader, context);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Codec<?> createCodec(Type type) {
+        Class<?> raw = rawType(type);
+        if (adaptedTypes.contains(type) || adaptedTypes.contains(raw) || raw.getAnnotation(JsonAdapter.class) != null) {
+            return new GsonCodec<>(gson, raw, type);
+        }
+
+        EntityModel<?> model = models.get(raw);
+        if (model != null) return model.codec(this);
+
+        ScalarCodec scalar = ScalarCodec.of(raw);
+        if (scalar != null) return scalar;
+
+        if (raw.isEnum() || (raw.getSuperclass() != null && raw.getSuperclass().isEnum())) {
+            return new EnumCodec((Class<? extends Enum>) (raw.isEnum() ? raw : raw.getSuperclass()));
+        } else if (raw.isArray()) {
+            Type component = type instanceof GenericArrayType array ? array.getGenericComponentType() : raw.getComponentType();
+            return new ArrayCodec(this, rawType(component), component);
+        } else if (Collection.class.isAssignableFrom(raw)) {
+            CollectionCodec codec = CollectionCodec.of(this, raw, typeArgument(type, 0));
+            if (codec != null) return codec;
+        } else if (Map.class.isAssignableFrom(raw)) {
+            MapCodec codec = MapCodec.of(this, raw, typeArgument(type, 0), typeArgument(type, 1));
+            if (codec != null) return codec;
+        } else if (isObject(raw)) {
+            try {
+                return new ObjectCodec<>(this, raw);
+            } catch (RuntimeException ignored) {
+                // The class cannot be accessed by us,
+                // so we let Gson try to handle it
+            }
+        }
+
+        return new GsonCodec<>(gson, raw, type);
+    }
+
+    // Classes which should be handled field by field
+    private boolean isObject(Class<?> raw) {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers()) || raw.isAnonymousClass() || raw.isLocalClass()) {
+            return false;
+        }
+        if (raw.isMemberClass() && !Modifier.isStatic(raw.getModifiers())) return false;
+
+        String name = raw.getName();
+        return !name.startsWith("java.")
+                && !name.startsWith("javax.")
+                && !name.startsWith("jdk.")
+                && !name.startsWith("org.bson.")
+                && !name.startsWith("com.google.gson.");
+    }
+
+    static Class<?> rawType(Type type) {
+        if (type instanceof Class<?> clazz) {
+            return clazz;
+        } else if (type instanceof ParameterizedType parameterized) {
+            return (Class<?>) parameterized.getRawType();
+        } else if (type instanceof GenericArrayType array) {
+            return java.lang.reflect.Array.newInstance(rawType(array.getGenericComponentType()), 0).getClass();
+        } else if (type instanceof WildcardType wildcard) {
+            return rawType(wildcard.getUpperBounds()[0]);
+        }
+
+        // Unresolved type variables
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType parameterized) {
+            Type argument = parameterized.getActualTypeArguments()[index];
+            if (argument instanceof WildcardType wildcard) return wildcard.getUpperBounds()[0];
+            if (argument instanceof TypeVariable<?>) return Object.class;
+            return argument;
+        }
+
+        return Object.class;
+    }
+}
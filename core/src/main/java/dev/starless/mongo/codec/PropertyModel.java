@@ -0,0 +1,97 @@
+package dev.starless.mongo.codec;
+
+import com.google.gson.annotations.SerializedName;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+/**
+ * Contains everything needed to read
+ * and write a single field of an object.
+ */
+final class PropertyModel {
+
+    private final ObjectCodecProvider provider;
+    private final Field field;
+    private final String name;
+    private final String[] alternateNames;
+    private final Type type;
+    private final Class<?> rawType;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    private volatile Codec<Object> codec;
+
+    PropertyModel(ObjectCodecProvider provider, Field field, boolean writable) {
+        this.provider = provider;
+        this.field = field;
+        this.type = field.getGenericType();
+        this.rawType = field.getType();
+
+        SerializedName serializedName = field.getAnnotation(SerializedName.class);
+        this.name = serializedName != null ? serializedName.value() : field.getName();
+        this.alternateNames = serializedName != null ? serializedName.alternate() : new String[0];
+
+        try {
+            field.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            this.getter = lookup.unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = writable && !Modifier.isStatic(field.getModifiers())
+                    ? lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class))
+                    : null;
+        } catch (IllegalAccessException e) {
+            throw new CodecConfigurationException("Cannot access the field " + field.getName(), e);
+        }
+    }
+
+    Object get(Object instance) {
+        try {
+            return getter.invokeExact(instance);
+        } catch (Throwable e) {
+            throw new CodecConfigurationException("Cannot read the field " + field.getName(), e);
+        }
+    }
+
+    void set(Object instance, Object value) {
+        // Primitive fields are left untouched when the value is missing
+        if (value == null && rawType.isPrimitive()) return;
+
+        try {
+            setter.invokeExact(instance, value);
+        } catch (Throwable e) {
+            throw new CodecConfigurationException("Cannot write the field " + field.getName(), e);
+        }
+    }
+
+    Codec<Object> codec() {
+        Codec<Object> current = codec;
+        if (current == null) {
+            // Resolved lazily, since classes can reference themselves
+            current = provider.codecFor(type);
+            codec = current;
+        }
+        return current;
+    }
+
+    Field field() {
+        return field;
+    }
+
+    String name() {
+        return name;
+    }
+
+    String[] alternateNames() {
+        return alternateNames;
+    }
+
+    Class<?> rawType() {
+        return rawType;
+    }
+}
@@ -0,0 +1,170 @@
+package dev.starless.mongo.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Handles strings, primitives and their wrappers.
+ * Values are read leniently: every numeric BSON type can be
+ * converted to every numeric java type, since documents written
+ * through Json could store a long as an int32 (and so on).
+ * The integer fields are never read from values with a fractional part.
+ */
+final class ScalarCodec implements Codec<Object> {
+
+    private enum Kind {
+        STRING, INT, LONG, DOUBLE, FLOAT, SHORT, BYTE, BOOLEAN, CHAR, UUID
+    }
+
+    static final ScalarCodec STRING = new ScalarCodec(Kind.STRING, String.class);
+    static final ScalarCodec INT = new ScalarCodec(Kind.INT, Integer.class);
+    static final ScalarCodec LONG = new ScalarCodec(Kind.LONG, Long.class);
+    static final ScalarCodec DOUBLE = new ScalarCodec(Kind.DOUBLE, Double.class);
+    static final ScalarCodec FLOAT = new ScalarCodec(Kind.FLOAT, Float.class);
+    static final ScalarCodec SHORT = new ScalarCodec(Kind.SHORT, Short.class);
+    static final ScalarCodec BYTE = new ScalarCodec(Kind.BYTE, Byte.class);
+    static final ScalarCodec BOOLEAN = new ScalarCodec(Kind.BOOLEAN, Boolean.class);
+    static final ScalarCodec CHAR = new ScalarCodec(Kind.CHAR, Character.class);
+    static final ScalarCodec ID = new ScalarCodec(Kind.UUID, UUID.class);
+
+    private final Kind kind;
+    private final Class<?> type;
+
+    private ScalarCodec(Kind kind, Class<?> type) {
+        this.kind = kind;
+        this.type = type;
+    }
+
+    static ScalarCodec of(Class<?> type) {
+        if (type == String.class) return STRING;
+        if (type == int.class || type == Integer.class) return INT;
+        if (type == long.class || type == Long.class) return LONG;
+        if (type == double.class || type == Double.class) return DOUBLE;
+        if (type == float.class || type == Float.class) return FLOAT;
+        if (type == short.class || type == Short.class) return SHORT;
+        if (type == byte.class || type == Byte.class) return BYTE;
+        if (type == boolean.class || type == Boolean.class) return BOOLEAN;
+        if (type == char.class || type == Character.class) return CHAR;
+        if (type == UUID.class) return ID;
+        return null;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Object value, EncoderContext encoderContext) {
+        switch (kind) {
+            case STRING -> writer.writeString((String) value);
+            case INT, SHORT, BYTE -> writer.writeInt32(((Number) value).intValue());
+            case LONG -> writer.writeInt64((Long) value);
+            case DOUBLE -> writer.writeDouble(((Number) value).doubleValue());
+            // Widening the float would store 1.1f as 1.100000023841858
+            case FLOAT -> writer.writeDouble(Double.parseDouble(Float.toString((Float) value)));
+            case BOOLEAN -> writer.writeBoolean((Boolean) value);
+            case CHAR, UUID -> writer.writeString(value.toString());
+        }
+    }
+
+    @Override
+    public Object decode(BsonReader reader, DecoderContext decoderContext) {
+        BsonType bsonType = reader.getCurrentBsonType();
+        try {
+            return switch (bsonType) {
+                case STRING -> parse(reader.readString());
+                case SYMBOL -> parse(reader.readSymbol());
+                case INT32 -> convert(reader.readInt32());
+                case INT64 -> convert(reader.readInt64());
+                case DOUBLE -> convert(reader.readDouble());
+                case DECIMAL128 -> convert(reader.readDecimal128().bigDecimalValue());
+                case BOOLEAN -> kind == Kind.BOOLEAN || kind == Kind.STRING ? parse(String.valueOf(reader.readBoolean())) : skip(reader);
+                default -> skip(reader);
+            };
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            // The value has already been consumed
+            return null;
+        }
+    }
+
+    /**
+     * Converts the value to a String which can be used
+     * as the key of a document.
+     */
+    String format(Object value) {
+        return String.valueOf(value);
+    }
+
+    /**
+     * Reads a value from its string representation.
+     */
+    Object parse(String value) {
+        return switch (kind) {
+            case STRING -> value;
+            case INT -> new BigDecimal(value).intValueExact();
+            case LONG -> new BigDecimal(value).longValueExact();
+            case DOUBLE -> Double.parseDouble(value);
+            case FLOAT -> Float.parseFloat(value);
+            case SHORT -> new BigDecimal(value).shortValueExact();
+            case BYTE -> new BigDecimal(value).byteValueExact();
+            case BOOLEAN -> Boolean.parseBoolean(value);
+            case CHAR -> value.isEmpty() ? null : value.charAt(0);
+            case UUID -> java.util.UUID.fromString(value);
+        };
+    }
+
+    /**
+     * Converts a value passed by the user, like the key of a query,
+     * to the type of the field: the numbers are converted only if their value fits,
+     * and the strings are parsed for the UUID and char fields.
+     *
+     * @throws IllegalArgumentException if the value cannot be converted
+     */
+    Object coerce(Object value) {
+        if (type.isInstance(value)) return value;
+
+        boolean numeric = kind != Kind.STRING && kind != Kind.BOOLEAN && kind != Kind.CHAR && kind != Kind.UUID;
+        boolean text = kind == Kind.UUID || kind == Kind.CHAR;
+        if ((numeric && value instanceof Number) || (text && value instanceof String)) {
+            try {
+                Object converted = parse(value.toString());
+                if (converted != null) return converted;
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                // Reported below
+            }
+        }
+        throw new IllegalArgumentException(value + " cannot be converted to " + type.getSimpleName());
+    }
+
+    private Object convert(Number number) {
+        return switch (kind) {
+            case STRING -> number.toString();
+            case INT -> exact(number).intValueExact();
+            case LONG -> exact(number).longValueExact();
+            case DOUBLE -> number.doubleValue();
+            case FLOAT -> number.floatValue();
+            case SHORT -> exact(number).shortValueExact();
+            case BYTE -> exact(number).byteValueExact();
+            case BOOLEAN, CHAR, UUID -> null;
+        };
+    }
+
+    private static BigDecimal exact(Number number) {
+        return number instanceof BigDecimal decimal ? decimal : new BigDecimal(number.toString());
+    }
+
+    private Object skip(BsonReader reader) {
+        reader.skipValue();
+        return null;
+    }
+
+    @Override
+    public Class<Object> getEncoderClass() {
+        @SuppressWarnings("unchecked")
+        Class<Object> clazz = (Class<Object>) type;
+        return clazz;
+    }
+}
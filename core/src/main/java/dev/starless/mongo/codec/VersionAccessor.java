@@ -0,0 +1,86 @@
+package dev.starless.mongo.codec;
+
+import com.google.gson.annotations.SerializedName;
+import dev.starless.mongo.api.annotations.MongoVersion;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reads and writes the {@link MongoVersion} annotated field of an object.
+ */
+public final class VersionAccessor {
+
+    private final Field field;
+    private final String name;
+
+    private VersionAccessor(Field field) {
+        this.field = field;
+
+        SerializedName serializedName = field.getAnnotation(SerializedName.class);
+        this.name = serializedName != null ? serializedName.value() : field.getName();
+    }
+
+    /**
+     * @param type Type of the object
+     * @return The accessor of the version field, or null if the class has none
+     * @throws IllegalArgumentException if the annotated field cannot contain a version
+     */
+    static VersionAccessor of(Class<?> type) {
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!field.isAnnotationPresent(MongoVersion.class)) continue;
+
+                int modifiers = field.getModifiers();
+                Class<?> fieldType = field.getType();
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || Modifier.isTransient(modifiers)) {
+                    throw new IllegalArgumentException("The version field of " + type.getSimpleName() + " must not be static, final or transient!");
+                }
+                if (fieldType != int.class && fieldType != long.class && fieldType != Integer.class && fieldType != Long.class) {
+                    throw new IllegalArgumentException("The version field of " + type.getSimpleName() + " must be an int or a long!");
+                }
+
+                field.setAccessible(true);
+                return new VersionAccessor(field);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The name of the field, as found inside the documents
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @param obj Object to read
+     * @return The version of the object, where null is the same as zero
+     */
+    public long get(Object obj) {
+        try {
+            Object value = field.get(obj);
+            return value == null ? 0 : ((Number) value).longValue();
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param obj     Object to change
+     * @param version New version of the object
+     */
+    public void set(Object obj, long version) {
+        try {
+            Class<?> fieldType = field.getType();
+            if (fieldType == int.class || fieldType == Integer.class) {
+                field.set(obj, (int) version);
+            } else {
+                field.set(obj, version);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
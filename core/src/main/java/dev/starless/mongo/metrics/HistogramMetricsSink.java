@@ -0,0 +1,123 @@
+package dev.starless.mongo.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link MetricsSink} keeping a {@link LatencyHistogram} for every type, operation and phase,
+ * for every command and for every event of the connection pool.
+ * The number of operations is the count of their {@link MetricsSink.Phase#TOTAL} histogram.
+ */
+public class HistogramMetricsSink implements MetricsSink {
+
+    private static final int PHASES = Phase.values().length;
+
+    private final Map<Class<?>, LatencyHistogram[]> operations;
+    private final Map<String, LatencyHistogram[]> commands;
+    private final LatencyHistogram[] poolEvents;
+    private final Map<Class<?>, LongAdder[]> deduplicated;
+
+    public HistogramMetricsSink() {
+        this.operations = new ConcurrentHashMap<>();
+        this.commands = new ConcurrentHashMap<>();
+        this.poolEvents = newHistograms(PoolEvent.values().length);
+        this.deduplicated = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void recordOperation(Class<?> type, Operation operation, Phase phase, long nanos) {
+        LatencyHistogram[] histograms = operations.get(type);
+        if (histograms == null) {
+            histograms = operations.computeIfAbsent(type, key -> newHistograms(Operation.values().length * PHASES));
+        }
+        histograms[operation.ordinal() * PHASES + phase.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordCommand(String command, boolean succeeded, long nanos) {
+        LatencyHistogram[] histograms = commands.get(command);
+        if (histograms == null) {
+            histograms = commands.computeIfAbsent(command, key -> newHistograms(2));
+        }
+        histograms[succeeded ? 0 : 1].record(nanos);
+    }
+
+    @Override
+    public void recordPoolEvent(PoolEvent event, long nanos) {
+        poolEvents[event.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordDeduplicated(Class<?> type, Operation operation) {
+        LongAdder[] counters = deduplicated.get(type);
+        if (counters == null) {
+            counters = deduplicated.computeIfAbsent(type, key -> {
+                LongAdder[] adders = new LongAdder[Operation.values().length];
+                for (int i = 0; i < adders.length; i++) {
+                    adders[i] = new LongAdder();
+                }
+                return adders;
+            });
+        }
+        counters[operation.ordinal()].increment();
+    }
+
+    /**
+     * @return The histogram of an operation, or null if it has never been executed
+     */
+    public LatencyHistogram operation(Class<?> type, Operation operation, Phase phase) {
+        LatencyHistogram[] histograms = operations.get(type);
+        return histograms == null ? null : histograms[operation.ordinal() * PHASES + phase.ordinal()];
+    }
+
+    /**
+     * @return The histogram of the successful (or failed) executions of a command,
+     * or null if it has never been sent
+     */
+    public LatencyHistogram command(String command, boolean succeeded) {
+        LatencyHistogram[] histograms = commands.get(command);
+        return histograms == null ? null : histograms[succeeded ? 0 : 1];
+    }
+
+    public LatencyHistogram poolEvent(PoolEvent event) {
+        return poolEvents[event.ordinal()];
+    }
+
+    /**
+     * @return How many requests of an operation have shared the result of an identical one
+     * instead of querying MongoDB
+     */
+    public long deduplicated(Class<?> type, Operation operation) {
+        LongAdder[] counters = deduplicated.get(type);
+        return counters == null ? 0 : counters[operation.ordinal()].sum();
+    }
+
+    /**
+     * @return The snapshots of the operations which have been executed at least once,
+     * indexed by a key like "User.FIND_FIRST.NETWORK"
+     */
+    public Map<String, LatencyHistogram.Snapshot> snapshot() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new LinkedHashMap<>();
+        operations.forEach((type, histograms) -> {
+            for (Operation operation : Operation.values()) {
+                for (Phase phase : Phase.values()) {
+                    LatencyHistogram histogram = histograms[operation.ordinal() * PHASES + phase.ordinal()];
+                    if (histogram.count() > 0) {
+                        snapshots.put(type.getSimpleName() + "." + operation + "." + phase, histogram.snapshot());
+                    }
+                }
+            }
+        });
+        return snapshots;
+    }
+
+    private static LatencyHistogram[] newHistograms(int size) {
+        LatencyHistogram[] histograms = new LatencyHistogram[size];
+        for (int i = 0; i < size; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,111 @@
+package dev.starless.mongo.metrics;
+
+/**
+ * Receives the measurements of the storage, set using
+ * {@link dev.starless.mongo.StorageBuilder#metrics(MetricsSink)}.
+ * The methods are called on the hot path by many threads at the same time,
+ * so the implementations should be thread safe and fast.
+ * {@link HistogramMetricsSink} is a ready to use implementation.
+ */
+public interface MetricsSink {
+
+    /**
+     * Implementation which ignores every measurement.
+     * When it is used, the storage does not measure anything at all.
+     */
+    MetricsSink NOOP = new MetricsSink() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    };
+
+    /**
+     * @return false if the measurements should not be taken at all
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Records the time spent by an operation in one of its phases.
+     *
+     * @param type      Type of the objects
+     * @param operation Operation executed by the storage
+     * @param phase     Phase of the operation
+     * @param nanos     Elapsed time in nanoseconds
+     */
+    default void recordOperation(Class<?> type, Operation operation, Phase phase, long nanos) {
+    }
+
+    /**
+     * Records a command sent to MongoDB by the driver.
+     *
+     * @param command   Name of the command, like find or update
+     * @param succeeded false if MongoDB returned an error
+     * @param nanos     Elapsed time in nanoseconds
+     */
+    default void recordCommand(String command, boolean succeeded, long nanos) {
+    }
+
+    /**
+     * Records an event of the connection pool of the driver.
+     *
+     * @param event Type of the event
+     * @param nanos Time spent waiting for a connection, or 0 for the events which do not wait
+     */
+    default void recordPoolEvent(PoolEvent event, long nanos) {
+    }
+
+    /**
+     * Records a read which has not been sent to MongoDB, because an identical
+     * one was already running and its result has been shared,
+     * as enabled by {@link dev.starless.mongo.StorageBuilder#coalesceReads(boolean)}.
+     *
+     * @param type      Type of the objects
+     * @param operation Operation which has been deduplicated
+     */
+    default void recordDeduplicated(Class<?> type, Operation operation) {
+    }
+
+    enum Operation {
+        FIND,
+        FIND_FIRST,
+        FIND_BY_KEYS,
+        STREAM,
+        PAGE,
+        STORE,
+        REMOVE,
+        STORE_ALL,
+        REMOVE_ALL,
+        UPDATE,
+        UPDATE_MANY
+    }
+
+    enum Phase {
+        /**
+         * Conversion of the objects to BSON
+         */
+        ENCODE,
+        /**
+         * Round trips to MongoDB, including the time spent by the server
+         */
+        NETWORK,
+        /**
+         * Conversion of the documents to objects
+         */
+        DECODE,
+        /**
+         * Whole duration of the operation
+         */
+        TOTAL
+    }
+
+    enum PoolEvent {
+        CONNECTION_CREATED,
+        CONNECTION_CLOSED,
+        CHECKED_OUT,
+        CHECK_OUT_FAILED,
+        CHECKED_IN
+    }
+}
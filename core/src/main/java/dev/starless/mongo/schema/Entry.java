@@ -0,0 +1,46 @@
+package dev.starless.mongo.schema;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import dev.starless.mongo.schema.suppliers.ValueSupplier;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public record Entry(String fieldName, ValueSupplier defaultSupplier) {
+
+    public boolean hasDeprecatedName() {
+        return defaultSupplier.deprecatedKey() != null;
+    }
+
+    // Matches the documents which need to be migrated
+    public Bson missingFieldFilter() {
+        return Filters.exists(fieldName, false);
+    }
+
+    // Adds the value computed by the supplier to the document
+    public Bson migrationUpdate(Document document) {
+        return Updates.set(fieldName, defaultSupplier.supply(document));
+    }
+
+    // Returns the pipeline which migrates every document on the server
+    // or null if the value must be computed by the supplier
+    public List<Bson> pipelineUpdate() {
+        Bson expression = defaultSupplier.expression();
+        if (expression == null) return null;
+
+        List<Bson> pipeline = new ArrayList<>(2);
+        pipeline.add(new Document("$set", new Document(fieldName, expression)));
+        if (hasDeprecatedName()) {
+            pipeline.add(new Document("$unset", defaultSupplier.deprecatedKey()));
+        }
+        return pipeline;
+    }
+
+    // Matches the documents which still contain the deprecated field
+    public Bson deprecatedFieldFilter() {
+        return Filters.exists(defaultSupplier.deprecatedKey(), true);
+    }
+}
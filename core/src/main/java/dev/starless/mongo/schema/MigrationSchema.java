@@ -0,0 +1,198 @@
+package dev.starless.mongo.schema;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import dev.starless.mongo.api.annotations.MongoObject;
+import dev.starless.mongo.schema.suppliers.ValueSupplier;
+import dev.starless.mongo.schema.suppliers.impl.ConstantSupplier;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+public class MigrationSchema {
+
+    /**
+     * Name of the field containing the version of the schema used to write a document
+     */
+    public static final String VERSION_FIELD = "_schemaVersion";
+
+    private final String clazzName;
+    private final String database;
+    private final String collection;
+
+    private final Set<Entry> entries;
+    private boolean lazy;
+    private int version;
+
+    public MigrationSchema(Class<?> clazz) {
+        MongoObject annotation = clazz.getAnnotation(MongoObject.class);
+        Objects.requireNonNull(annotation);
+
+        this.clazzName = clazz.getName();
+        this.database = annotation.database();
+        this.collection = annotation.collection();
+
+        // The entries are applied in the same order they are added
+        this.entries = new LinkedHashSet<>();
+    }
+
+    public MigrationSchema entry(String currentName, Object fixedValue) {
+        return entry(currentName, new ConstantSupplier(null, fixedValue));
+    }
+
+    public MigrationSchema entry(String currentName, String deprecatedKey, Object fixedValue) {
+        return entry(currentName, new ConstantSupplier(deprecatedKey, fixedValue));
+    }
+
+    public MigrationSchema entry(String currentName, ValueSupplier defaultSupplier) {
+        entries.add(new Entry(currentName, defaultSupplier));
+        return this;
+    }
+
+    /**
+     * Migrates the documents when they are read instead of during the initialization.
+     * The migrated documents are written back in the background, which also
+     * migrates slowly the documents that are never read.
+     * The queries filtering on the new fields may not match the documents
+     * which have not been migrated yet.
+     *
+     * @return this {@link MigrationSchema} instance
+     */
+    public MigrationSchema lazy() {
+        this.lazy = true;
+        return this;
+    }
+
+    /**
+     * Sets the version of the schema, which should be increased every time new entries are added.
+     * The library writes the version in every document it stores or migrates,
+     * and keeps an index on it: during the initialization, only the documents
+     * with an older version are migrated, applying every entry in a single update.
+     *
+     * @param version Version of the schema, must be positive
+     * @return this {@link MigrationSchema} instance
+     */
+    public MigrationSchema version(int version) {
+        if (version <= 0) throw new IllegalArgumentException("The version must be positive!");
+
+        this.version = version;
+        return this;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isVersioned() {
+        return version > 0;
+    }
+
+    // Matches the documents written with an older version of the schema.
+    // Both conditions can use the index on the version field.
+    public Bson staleFilter() {
+        return Filters.or(Filters.lt(VERSION_FIELD, version), Filters.eq(VERSION_FIELD, null));
+    }
+
+    // Returns the pipeline which applies every entry to the documents on the server
+    // or null if at least one value must be computed by its supplier
+    public List<Bson> pipelineUpdate() {
+        List<Bson> pipeline = new ArrayList<>(entries.size() + 2);
+        Set<String> deprecatedFields = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            Bson expression = entry.defaultSupplier().expression();
+            if (expression == null) return null;
+
+            // Only the missing fields are set
+            String path = "$" + entry.fieldName();
+            Document missing = new Document("$eq", List.of(new Document("$type", path), "missing"));
+            pipeline.add(new Document("$set", new Document(entry.fieldName(), new Document("$cond", List.of(missing, expression, path)))));
+
+            if (entry.hasDeprecatedName()) {
+                deprecatedFields.add(entry.defaultSupplier().deprecatedKey());
+            }
+        }
+
+        if (!deprecatedFields.isEmpty()) {
+            pipeline.add(new Document("$unset", new ArrayList<>(deprecatedFields)));
+        }
+        pipeline.add(new Document("$set", new Document(VERSION_FIELD, version)));
+        return pipeline;
+    }
+
+    // Applies every missing entry to the document and returns the update
+    // which does the same in the database, including the new version if the schema is versioned
+    public Bson migrationUpdate(Document document) {
+        List<Bson> updates = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!document.containsKey(entry.fieldName())) {
+                Object value = entry.defaultSupplier().supply(document);
+                document.put(entry.fieldName(), value);
+                updates.add(Updates.set(entry.fieldName(), value));
+            }
+
+            if (entry.hasDeprecatedName() && document.containsKey(entry.defaultSupplier().deprecatedKey())) {
+                document.remove(entry.defaultSupplier().deprecatedKey());
+                updates.add(Updates.unset(entry.defaultSupplier().deprecatedKey()));
+            }
+        }
+
+        if (isVersioned()) {
+            document.put(VERSION_FIELD, version);
+            updates.add(Updates.set(VERSION_FIELD, version));
+        }
+        return Updates.combine(updates);
+    }
+
+    /**
+     * Plans the migration of a collection: a versioned schema applies every entry
+     * to the stale documents in a single step, otherwise the entries are applied
+     * in order, one step each, to the documents missing their field.
+     *
+     * @return The steps to run in order
+     */
+    public List<MigrationStep> steps() {
+        if (isVersioned()) {
+            return List.of(new MigrationStep("@" + version, staleFilter(), pipelineUpdate(), this::migrationUpdate, null));
+        }
+
+        List<MigrationStep> steps = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            // Delete the deprecated field from the documents which already had the new one
+            MigrationStep.Cleanup cleanup = entry.hasDeprecatedName()
+                    ? new MigrationStep.Cleanup(entry.deprecatedFieldFilter(), unsetFields(Set.of(entry.defaultSupplier().deprecatedKey())))
+                    : null;
+            steps.add(new MigrationStep("." + entry.fieldName(), entry.missingFieldFilter(), entry.pipelineUpdate(), entry::migrationUpdate, cleanup));
+        }
+        return steps;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    // Deletes the deprecated fields from every document
+    public static Bson unsetFields(Set<String> fields) {
+        return Updates.combine(fields.stream().map(Updates::unset).toList());
+    }
+
+    public String getDatabase() {
+        return database;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public Set<Entry> getEntries() {
+        return entries;
+    }
+
+    public String getClazzName() {
+        return clazzName;
+    }
+}
@@ -0,0 +1,47 @@
+package dev.starless.mongo.schema;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A single pass of the migration of a collection, planned by {@link MigrationSchema#steps()}
+ * and shared by the storages of both the sync and the reactive drivers.
+ * The documents matching the filter are migrated by MongoDB with the pipeline or, when the pipeline
+ * is null, one at a time with the updates computed by {@link #documentUpdate(Document)}.
+ *
+ * @param name     Suffix of the collection name identifying the step, like <code>.field</code> or <code>@2</code>
+ * @param filter   Matches the documents to migrate
+ * @param pipeline Pipeline update migrating every document on the server, or null
+ * @param update   Applies the step to a document and returns the same update for the database
+ * @param cleanup  Filter and update deleting the deprecated fields once the documents are migrated, or null
+ */
+public record MigrationStep(String name,
+                            Bson filter,
+                            List<Bson> pipeline,
+                            Function<Document, Bson> update,
+                            Cleanup cleanup) {
+
+    /**
+     * Migrates a single document. Filtering again on the documents to migrate
+     * makes the update harmless if it has already been migrated in the meantime.
+     *
+     * @param document Document to migrate, which is changed like the stored one
+     * @return The update of the stored document
+     */
+    public UpdateOneModel<Document> documentUpdate(Document document) {
+        Object id = document.get("_id");
+        return new UpdateOneModel<>(Filters.and(Filters.eq("_id", id), filter), update.apply(document));
+    }
+
+    /**
+     * @param filter Matches the documents still containing the deprecated fields
+     * @param update Deletes the deprecated fields
+     */
+    public record Cleanup(Bson filter, Bson update) {
+    }
+}
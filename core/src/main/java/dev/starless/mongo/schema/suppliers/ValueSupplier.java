@@ -1,6 +1,7 @@
 package dev.starless.mongo.schema.suppliers;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 public interface ValueSupplier {
 
@@ -11,4 +12,11 @@ public interface ValueSupplier {
     // During validation, if a document contains a field with this name
     // it will be deleted after the execution of the migration function
     String deprecatedKey();
+
+    // The aggregation expression which computes the same value on the server,
+    // so that every document can be migrated with a single update.
+    // Return null if the value can only be computed by this class.
+    default Bson expression() {
+        return null;
+    }
 }
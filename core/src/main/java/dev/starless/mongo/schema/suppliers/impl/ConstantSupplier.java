@@ -2,6 +2,7 @@ package dev.starless.mongo.schema.suppliers.impl;
 
 import dev.starless.mongo.schema.suppliers.FixedKeySupplier;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 // This supplier will always return only the fixedValue Object
 public class ConstantSupplier extends FixedKeySupplier {
@@ -18,4 +19,10 @@ public class ConstantSupplier extends FixedKeySupplier {
     public Object supply(Document document) {
         return fixedValue;
     }
+
+    @Override
+    public Bson expression() {
+        // $literal prevents strings starting with $ from being read as field paths
+        return new Document("$literal", fixedValue);
+    }
 }
@@ -2,6 +2,9 @@ package dev.starless.mongo.schema.suppliers.impl;
 
 import dev.starless.mongo.schema.suppliers.FixedKeySupplier;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
 
 // This supplier will return the object associated with the previousKey
 // and if it is not present the defaultValue Object will be returned
@@ -23,4 +26,12 @@ public class SimpleSupplier extends FixedKeySupplier {
         Object value = document.get(key);
         return value != null ? value : defaultValue;
     }
+
+    @Override
+    public Bson expression() {
+        String key = deprecatedKey();
+        if (key == null) return new Document("$literal", null);
+
+        return new Document("$ifNull", List.of("$" + key, new Document("$literal", defaultValue)));
+    }
 }
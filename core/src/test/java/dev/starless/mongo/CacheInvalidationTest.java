@@ -0,0 +1,195 @@
+package dev.starless.mongo;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoNamespace;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Runs a cached read while a write is being sent, using a fake client
+whose collection runs the read right before applying the write.
+ */
+class CacheInvalidationTest {
+
+    @MongoObject(database = "cache", collection = "players", cacheSize = 10)
+    static class Player {
+        @MongoKey
+        int id;
+        int coins;
+
+        Player(int id, int coins) {
+            this.id = id;
+            this.coins = coins;
+        }
+    }
+
+    private static final Bson KEY = Filters.eq("id", 1);
+
+    private FakeCollection collection;
+    private StorageImpl storage;
+
+    @BeforeEach
+    void setUp() {
+        collection = new FakeCollection();
+        storage = (StorageImpl) StorageBuilder.create("mongodb://localhost").build();
+        storage.init(collection.client());
+
+        collection.stored.set(new Player(1, 10));
+        assertEquals(10, find().orElseThrow().coins);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+    }
+
+    private Optional<Player> find() {
+        return storage.findFirst(Player.class, KEY);
+    }
+
+    // The read finds the stored document before the write is applied
+    private void readDuringWrite(Object written) {
+        collection.written = written;
+        collection.duringWrite = () -> assertTrue(find().isPresent());
+    }
+
+    @Test
+    void removedObjectsAreNotServed() {
+        readDuringWrite(null);
+        storage.remove(new Player(1, 10));
+
+        assertTrue(find().isEmpty());
+    }
+
+    @Test
+    void removedBulkObjectsAreNotServed() {
+        readDuringWrite(null);
+        storage.removeAll(List.of(new Player(1, 10)));
+
+        assertTrue(find().isEmpty());
+    }
+
+    @Test
+    void overwrittenBulkObjectsAreNotServed() {
+        readDuringWrite(new Player(1, 20));
+        storage.storeAll(List.of(new Player(1, 20)), true);
+
+        assertEquals(20, find().orElseThrow().coins);
+    }
+
+    @Test
+    void updatedObjectsAreNotServed() {
+        readDuringWrite(new Player(1, 20));
+        assertTrue(storage.update(Player.class, 1, Updates.set("coins", 20)));
+
+        assertEquals(20, find().orElseThrow().coins);
+    }
+
+    @Test
+    void updatedAndReturnedObjectsAreCached() {
+        Player updated = new Player(1, 20);
+        readDuringWrite(updated);
+        assertSame(updated, storage.updateAndGet(Player.class, 1, Updates.set("coins", 20)).orElseThrow());
+
+        // The object is served from the cache, even if another one is stored now
+        collection.stored.set(new Player(1, 30));
+        assertSame(updated, find().orElseThrow());
+    }
+
+    @Test
+    void objectsUpdatedTogetherAreNotServed() {
+        readDuringWrite(new Player(1, 20));
+        storage.updateMany(Player.class, Filters.gt("coins", 5), Updates.set("coins", 20));
+
+        assertEquals(20, find().orElseThrow().coins);
+    }
+
+    // Collection holding a single object, which runs the hook when a write is sent
+    private static final class FakeCollection {
+
+        private final AtomicReference<Object> stored = new AtomicReference<>();
+        private volatile Object written;
+        private volatile Runnable duringWrite;
+
+        private Object write(Object result) {
+            Runnable hook = duringWrite;
+            duringWrite = null;
+            if (hook != null) hook.run();
+
+            stored.set(written);
+            return result;
+        }
+
+        private MongoClient client() {
+            MongoDatabase database = proxy(MongoDatabase.class, (method, args) -> switch (method) {
+                case "getCollection" -> proxy(MongoCollection.class, this::collection);
+                default -> null;
+            });
+            return proxy(MongoClient.class, (method, args) -> method.equals("getDatabase") ? database : null);
+        }
+
+        private Object collection(String method, Object[] args) {
+            return switch (method) {
+                case "withDocumentClass", "withCodecRegistry" -> proxy(MongoCollection.class, this::collection);
+                case "getCodecRegistry" -> MongoClientSettings.getDefaultCodecRegistry();
+                case "getNamespace" -> new MongoNamespace("cache", "players");
+                case "createIndex" -> "id_1";
+                case "find" -> proxy(FindIterable.class, (name, arguments) -> name.equals("first") ? stored.get() : null);
+                case "deleteMany" -> write(DeleteResult.acknowledged(1));
+                case "updateOne", "updateMany" -> write(UpdateResult.acknowledged(1, 1L, null));
+                case "findOneAndUpdate" -> write(written);
+                case "bulkWrite" -> {
+                    int size = ((List<?>) args[0]).size();
+                    yield write(BulkWriteResult.acknowledged(0, size, written == null ? size : 0, size, List.of(), List.of()));
+                }
+                default -> throw new UnsupportedOperationException(method);
+            };
+        }
+
+        private interface Handler {
+
+            Object invoke(String method, Object[] args);
+        }
+
+        // Methods returning the proxied interface, like the builders, return the proxy itself when the handler returns null
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, Handler handler) {
+            Object[] self = new Object[1];
+            self[0] = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class) {
+                    return switch (method.getName()) {
+                        case "equals" -> proxy == args[0];
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        default -> type.getSimpleName();
+                    };
+                }
+
+                Object result = handler.invoke(method.getName(), args);
+                Class<?> returnType = method.getReturnType();
+                if (result == null && returnType != Object.class && returnType.isAssignableFrom(type)) return self[0];
+                return result;
+            });
+            return (T) self[0];
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package dev.starless.mongo;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeTrackerTest {
+
+    private ChangeTracker tracker;
+    private Object obj;
+
+    @BeforeEach
+    void setUp() {
+        tracker = new ChangeTracker();
+        obj = new Object();
+    }
+
+    private BsonDocument diff(String snapshot, String current) {
+        tracker.track(obj, BsonDocument.parse(snapshot));
+        return tracker.diff(obj, BsonDocument.parse(current));
+    }
+
+    @Test
+    void untrackedObjectsHaveNoDiff() {
+        assertNull(tracker.diff(obj, BsonDocument.parse("{\"a\": 1}")));
+    }
+
+    @Test
+    void unchangedObjectsHaveAnEmptyUpdate() {
+        assertEquals(new BsonDocument(), diff("{\"a\": 1, \"b\": {\"c\": [1, 2]}}", "{\"a\": 1, \"b\": {\"c\": [1, 2]}}"));
+    }
+
+    @Test
+    void changedNestedFieldsAreSetByPath() {
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": 2, \"b.c.d\": \"new\"}}"),
+                diff("{\"a\": 1, \"b\": {\"c\": {\"d\": \"old\", \"e\": 5}}}",
+                        "{\"a\": 2, \"b\": {\"c\": {\"d\": \"new\", \"e\": 5}}}"));
+    }
+
+    @Test
+    void removedFieldsAreUnset() {
+        assertEquals(BsonDocument.parse("{\"$unset\": {\"a\": \"\", \"b.c\": \"\"}}"),
+                diff("{\"a\": 1, \"b\": {\"c\": 2, \"d\": 3}}", "{\"b\": {\"d\": 3}}"));
+    }
+
+    @Test
+    void addedAndRemovedFieldsAreCombined() {
+        assertEquals(BsonDocument.parse("{\"$set\": {\"b\": 2}, \"$unset\": {\"a\": \"\"}}"),
+                diff("{\"a\": 1}", "{\"b\": 2}"));
+    }
+
+    @Test
+    void rootIdIsNeverUnset() {
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": 2}}"),
+                diff("{\"_id\": {\"$oid\": \"65f0c0ffee0000000000000a\"}, \"a\": 1}", "{\"a\": 2}"));
+    }
+
+    @Test
+    void embeddedIdIsUnset() {
+        assertEquals(BsonDocument.parse("{\"$unset\": {\"a._id\": \"\"}}"),
+                diff("{\"a\": {\"_id\": 1, \"b\": 2}}", "{\"a\": {\"b\": 2}}"));
+    }
+
+    @Test
+    void arraysAreReplacedWhole() {
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": [1, 2, 4], \"b\": [{\"c\": 1}, {\"c\": 3}]}}"),
+                diff("{\"a\": [1, 2, 3], \"b\": [{\"c\": 1}, {\"c\": 2}]}",
+                        "{\"a\": [1, 2, 4], \"b\": [{\"c\": 1}, {\"c\": 3}]}"));
+    }
+
+    @Test
+    void emptyEmbeddedDocumentsAreSetWhole() {
+        // Setting every field of an empty document would not write the empty document
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": {\"b\": 1}}}"), diff("{\"a\": {}}", "{\"a\": {\"b\": 1}}"));
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": {}}}"), diff("{\"a\": {\"b\": 1}}", "{\"a\": {}}"));
+    }
+
+    @Test
+    void documentsChangingTypeAreSetWhole() {
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": {\"b\": 1}}}"), diff("{\"a\": 5}", "{\"a\": {\"b\": 1}}"));
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": null}}"), diff("{\"a\": {\"b\": 1}}", "{\"a\": null}"));
+    }
+
+    @Test
+    void keysWhichAreNotPathsAreSetWithTheirParent() {
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": {\"b.c\": 2}}}"), diff("{\"a\": {\"b.c\": 1}}", "{\"a\": {\"b.c\": 2}}"));
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": {\"$b\": 2, \"c\": 1}}}"),
+                diff("{\"a\": {\"$b\": 1, \"c\": 1}}", "{\"a\": {\"$b\": 2, \"c\": 1}}"));
+        // Unsetting the field would remove a nested one instead
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a\": {\"d\": 1}}}"), diff("{\"a\": {\"b.c\": 1, \"d\": 1}}", "{\"a\": {\"d\": 1}}"));
+        assertEquals(BsonDocument.parse("{\"$set\": {\"a.b\": {\"c.d\": 2}}}"),
+                diff("{\"a\": {\"b\": {\"c.d\": 1}, \"e\": 1}}", "{\"a\": {\"b\": {\"c.d\": 2}, \"e\": 1}}"));
+    }
+
+    @Test
+    void trackingAgainReplacesTheSnapshot() {
+        tracker.track(obj, BsonDocument.parse("{\"a\": 1}"));
+        tracker.track(obj, BsonDocument.parse("{\"a\": 2}"));
+        assertEquals(new BsonDocument(), tracker.diff(obj, BsonDocument.parse("{\"a\": 2}")));
+
+        tracker.forget(obj);
+        assertNull(tracker.diff(obj, BsonDocument.parse("{\"a\": 2}")));
+    }
+}
@@ -0,0 +1,88 @@
+package dev.starless.mongo;
+
+import com.mongodb.client.model.Filters;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.Page;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecodeTest {
+
+    @MongoObject(database = "decode", collection = "players")
+    record Player(@MongoKey int id, String name) {
+
+        Player {
+            if (name == null) throw new IllegalArgumentException("Every player has a name");
+        }
+    }
+
+    // Writes documents which cannot be decoded as players
+    @MongoObject(database = "decode", collection = "players")
+    static class BrokenPlayer {
+        @MongoKey
+        int id;
+        String name;
+    }
+
+    private String name;
+    private MongoStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        name = "decode-" + UUID.randomUUID();
+        storage = StorageBuilder.create("mem://" + name).build();
+        storage.init();
+
+        for (int id = 0; id < 6; id++) {
+            if (id == 2) {
+                BrokenPlayer broken = new BrokenPlayer();
+                broken.id = id;
+                storage.store(broken, true);
+            } else {
+                storage.store(new Player(id, "player" + id), true);
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+        InMemoryStorage.drop(name);
+    }
+
+    @Test
+    void findSkipsOnlyTheBrokenDocument() {
+        List<Integer> ids = new ArrayList<>();
+        storage.find(Player.class).forEach(player -> ids.add(player.id()));
+
+        assertEquals(List.of(0, 1, 3, 4, 5), ids);
+    }
+
+    @Test
+    void findAllByKeysSkipsOnlyTheBrokenDocument() {
+        Map<Integer, Player> found = storage.findAllByKeys(Player.class, List.of(1, 2, 3));
+
+        assertEquals(List.of(1, 3), List.copyOf(found.keySet()));
+        assertEquals("player3", found.get(3).name());
+    }
+
+    @Test
+    void pageContinuesAfterTheBrokenDocument() {
+        Page<Player> first = storage.page(Player.class, Filters.empty(), "id", true, null, 3);
+        assertEquals(2, first.items().size());
+        assertNotNull(first.nextToken());
+
+        Page<Player> second = storage.page(Player.class, Filters.empty(), "id", true, first.nextToken(), 3);
+        assertEquals(List.of(3, 4, 5), second.items().stream().map(Player::id).toList());
+    }
+}
@@ -0,0 +1,110 @@
+package dev.starless.mongo;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentMatcherTest {
+
+    private static boolean matches(String document, String filter) {
+        return DocumentMatcher.matches(BsonDocument.parse(document), BsonDocument.parse(filter));
+    }
+
+    @Test
+    void nullMatchesMissingFields() {
+        assertTrue(matches("{\"a\": null}", "{\"a\": null}"));
+        assertTrue(matches("{}", "{\"a\": null}"));
+        assertTrue(matches("{\"a\": {}}", "{\"a.b\": null}"));
+        assertFalse(matches("{\"a\": 0}", "{\"a\": null}"));
+
+        assertFalse(matches("{}", "{\"a\": {\"$ne\": null}}"));
+        assertTrue(matches("{}", "{\"a\": {\"$in\": [1, null]}}"));
+        assertTrue(matches("{}", "{\"a\": {\"$nin\": [1, 2]}}"));
+    }
+
+    @Test
+    void existsIsTrueForNullValues() {
+        assertTrue(matches("{\"a\": null}", "{\"a\": {\"$exists\": true}}"));
+        assertFalse(matches("{\"a\": null}", "{\"a\": {\"$exists\": false}}"));
+        assertTrue(matches("{}", "{\"a\": {\"$exists\": false}}"));
+        assertTrue(matches("{\"a\": {\"b\": 1}}", "{\"a.b\": {\"$exists\": 1}}"));
+    }
+
+    @Test
+    void numbersAreComparedAcrossTypes() {
+        assertTrue(matches("{\"a\": 1}", "{\"a\": {\"$numberLong\": \"1\"}}"));
+        assertTrue(matches("{\"a\": 1.0}", "{\"a\": 1}"));
+        assertTrue(matches("{\"a\": {\"$numberDecimal\": \"2.50\"}}", "{\"a\": 2.5}"));
+        assertTrue(matches("{\"a\": {\"$numberLong\": \"5\"}}", "{\"a\": {\"$gt\": 4.5, \"$lte\": 5}}"));
+        assertFalse(matches("{\"a\": 9007199254740993}", "{\"a\": 9007199254740992}"));
+        assertTrue(matches("{\"a\": 2}", "{\"a\": {\"$in\": [1.0, 2.0]}}"));
+    }
+
+    @Test
+    void comparisonsOnlyMatchTheSameType() {
+        assertFalse(matches("{\"a\": \"10\"}", "{\"a\": {\"$gt\": 5}}"));
+        assertFalse(matches("{\"a\": null}", "{\"a\": {\"$lt\": 5}}"));
+        assertFalse(matches("{}", "{\"a\": {\"$gte\": 0}}"));
+        assertTrue(matches("{\"a\": \"b\"}", "{\"a\": {\"$gt\": \"a\"}}"));
+    }
+
+    @Test
+    void arraysMatchAnyElementOrTheWholeArray() {
+        assertTrue(matches("{\"a\": [1, 2, 3]}", "{\"a\": 2}"));
+        assertTrue(matches("{\"a\": [1, 2, 3]}", "{\"a\": [1, 2, 3]}"));
+        assertFalse(matches("{\"a\": [1, 2, 3]}", "{\"a\": [3, 2, 1]}"));
+        assertTrue(matches("{\"a\": [[1, 2], 3]}", "{\"a\": [1, 2]}"));
+        assertFalse(matches("{\"a\": [1, 2, 3]}", "{\"a\": {\"$ne\": 2}}"));
+        assertTrue(matches("{\"a\": [1, null]}", "{\"a\": null}"));
+
+        assertTrue(matches("{\"a\": [{\"b\": 1}, {\"b\": 2}]}", "{\"a.b\": 2}"));
+        assertTrue(matches("{\"a\": [{\"b\": 1}, {\"b\": 2}]}", "{\"a.1.b\": 2}"));
+        assertFalse(matches("{\"a\": [{\"b\": 1}, {\"b\": 2}]}", "{\"a.0.b\": 2}"));
+    }
+
+    @Test
+    void arrayOperators() {
+        assertTrue(matches("{\"a\": [1, 2, 3]}", "{\"a\": {\"$size\": 3}}"));
+        assertFalse(matches("{\"a\": 3}", "{\"a\": {\"$size\": 1}}"));
+        assertTrue(matches("{\"a\": [1, 2, 3]}", "{\"a\": {\"$all\": [3, 1]}}"));
+        assertFalse(matches("{\"a\": [1, 2, 3]}", "{\"a\": {\"$all\": [1, 4]}}"));
+        assertFalse(matches("{\"a\": [1, 2, 3]}", "{\"a\": {\"$all\": []}}"));
+    }
+
+    @Test
+    void elemMatchNeedsASingleElementMatchingEveryCondition() {
+        // Without $elemMatch, the conditions can be matched by different elements
+        assertTrue(matches("{\"a\": [1, 5]}", "{\"a\": {\"$gt\": 2, \"$lt\": 4}}"));
+        assertFalse(matches("{\"a\": [1, 5]}", "{\"a\": {\"$elemMatch\": {\"$gt\": 2, \"$lt\": 4}}}"));
+        assertTrue(matches("{\"a\": [1, 3]}", "{\"a\": {\"$elemMatch\": {\"$gt\": 2, \"$lt\": 4}}}"));
+
+        String players = "{\"a\": [{\"name\": \"x\", \"score\": 1}, {\"name\": \"y\", \"score\": 9}]}";
+        assertTrue(matches(players, "{\"a\": {\"$elemMatch\": {\"name\": \"y\", \"score\": {\"$gt\": 5}}}}"));
+        assertFalse(matches(players, "{\"a\": {\"$elemMatch\": {\"name\": \"x\", \"score\": {\"$gt\": 5}}}}"));
+        assertFalse(matches("{\"a\": {\"name\": \"y\"}}", "{\"a\": {\"$elemMatch\": {\"name\": \"y\"}}}"));
+        assertFalse(matches("{}", "{\"a\": {\"$elemMatch\": {\"$gt\": 0}}}"));
+    }
+
+    @Test
+    void notMatchesTheMissingFields() {
+        assertTrue(matches("{}", "{\"a\": {\"$not\": {\"$gt\": 5}}}"));
+        assertTrue(matches("{\"a\": \"text\"}", "{\"a\": {\"$not\": {\"$gt\": 5}}}"));
+        assertTrue(matches("{\"a\": 1}", "{\"a\": {\"$not\": {\"$gt\": 5}}}"));
+        assertFalse(matches("{\"a\": 6}", "{\"a\": {\"$not\": {\"$gt\": 5}}}"));
+        assertFalse(matches("{\"a\": [1, 6]}", "{\"a\": {\"$not\": {\"$gt\": 5}}}"));
+
+        assertFalse(matches("{\"a\": \"Alice\"}", "{\"a\": {\"$not\": {\"$regex\": \"^al\", \"$options\": \"i\"}}}"));
+        assertTrue(matches("{\"a\": \"Bob\"}", "{\"a\": {\"$not\": {\"$regularExpression\": {\"pattern\": \"^al\", \"options\": \"i\"}}}}"));
+    }
+
+    @Test
+    void logicalOperators() {
+        String document = "{\"a\": 1, \"b\": 2}";
+        assertTrue(matches(document, "{\"$and\": [{\"a\": 1}, {\"b\": 2}]}"));
+        assertTrue(matches(document, "{\"$or\": [{\"a\": 2}, {\"b\": 2}]}"));
+        assertFalse(matches(document, "{\"$nor\": [{\"a\": 2}, {\"b\": 2}]}"));
+        assertThrows(IllegalArgumentException.class, () -> matches(document, "{\"$where\": \"true\"}"));
+        assertThrows(IllegalArgumentException.class, () -> matches(document, "{\"a\": {\"$mod\": [2, 1]}}"));
+    }
+}
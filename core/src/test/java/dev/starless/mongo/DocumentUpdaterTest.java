@@ -0,0 +1,117 @@
+package dev.starless.mongo;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentUpdaterTest {
+
+    private static BsonDocument apply(String document, String update) {
+        return DocumentUpdater.apply(BsonDocument.parse(document), BsonDocument.parse(update));
+    }
+
+    private static void assertUpdate(String expected, String document, String update) {
+        assertEquals(BsonDocument.parse(expected), apply(document, update));
+    }
+
+    @Test
+    void storedDocumentIsNotModified() {
+        BsonDocument document = BsonDocument.parse("{\"a\": {\"b\": [1]}}");
+        DocumentUpdater.apply(document, BsonDocument.parse("{\"$push\": {\"a.b\": 2}, \"$set\": {\"a.c\": 1}}"));
+
+        assertEquals(BsonDocument.parse("{\"a\": {\"b\": [1]}}"), document);
+    }
+
+    @Test
+    void setCreatesTheMissingDocuments() {
+        assertUpdate("{\"a\": {\"b\": {\"c\": 1}}}", "{}", "{\"$set\": {\"a.b.c\": 1}}");
+        assertUpdate("{\"a\": null}", "{\"a\": 1}", "{\"$set\": {\"a\": null}}");
+        assertThrows(IllegalArgumentException.class, () -> apply("{\"a\": 1}", "{\"$set\": {\"a.b\": 1}}"));
+    }
+
+    @Test
+    void setAndUnsetArrayElements() {
+        assertUpdate("{\"a\": [1, 5, 3]}", "{\"a\": [1, 2, 3]}", "{\"$set\": {\"a.1\": 5}}");
+        assertUpdate("{\"a\": [1, null, null, 4]}", "{\"a\": [1]}", "{\"$set\": {\"a.3\": 4}}");
+        assertUpdate("{\"a\": [{\"b\": 1}, {\"b\": 5}]}", "{\"a\": [{\"b\": 1}, {\"b\": 2}]}", "{\"$set\": {\"a.1.b\": 5}}");
+        // The element is replaced by null, so the positions of the others do not change
+        assertUpdate("{\"a\": [1, null, 3]}", "{\"a\": [1, 2, 3]}", "{\"$unset\": {\"a.1\": \"\"}}");
+    }
+
+    @Test
+    void unsetIgnoresTheMissingFields() {
+        assertUpdate("{\"a\": {}}", "{\"a\": {\"b\": 1}}", "{\"$unset\": {\"a.b\": \"\"}}");
+        assertUpdate("{\"a\": 1}", "{\"a\": 1}", "{\"$unset\": {\"b\": \"\", \"a.b\": \"\", \"c.d\": \"\"}}");
+    }
+
+    @Test
+    void arithmeticPromotesTheNumberTypes() {
+        assertUpdate("{\"a\": 3}", "{\"a\": 1}", "{\"$inc\": {\"a\": 2}}");
+        assertUpdate("{\"a\": {\"$numberLong\": \"3\"}}", "{\"a\": 1}", "{\"$inc\": {\"a\": {\"$numberLong\": \"2\"}}}");
+        assertUpdate("{\"a\": 1.5}", "{\"a\": 1}", "{\"$inc\": {\"a\": 0.5}}");
+        assertUpdate("{\"a\": {\"$numberDecimal\": \"1.5\"}}", "{\"a\": 1}", "{\"$inc\": {\"a\": {\"$numberDecimal\": \"0.5\"}}}");
+        // An int32 overflowing becomes an int64
+        assertUpdate("{\"a\": {\"$numberLong\": \"2147483648\"}}", "{\"a\": 2147483647}", "{\"$inc\": {\"a\": 1}}");
+        assertThrows(IllegalArgumentException.class, () -> apply("{\"a\": 9223372036854775807}", "{\"$inc\": {\"a\": 1}}"));
+
+        assertUpdate("{\"a\": 6}", "{\"a\": 2}", "{\"$mul\": {\"a\": 3}}");
+        assertUpdate("{\"a\": 1.0}", "{\"a\": 2}", "{\"$mul\": {\"a\": 0.5}}");
+    }
+
+    @Test
+    void arithmeticOnMissingAndNonNumericFields() {
+        assertUpdate("{\"a\": 2}", "{}", "{\"$inc\": {\"a\": 2}}");
+        assertUpdate("{\"a\": {\"$numberLong\": \"0\"}}", "{}", "{\"$mul\": {\"a\": {\"$numberLong\": \"5\"}}}");
+        assertUpdate("{\"a\": 0.0}", "{}", "{\"$mul\": {\"a\": 1.5}}");
+        assertThrows(IllegalArgumentException.class, () -> apply("{\"a\": null}", "{\"$inc\": {\"a\": 1}}"));
+        assertThrows(IllegalArgumentException.class, () -> apply("{\"a\": \"1\"}", "{\"$inc\": {\"a\": 1}}"));
+        assertThrows(IllegalArgumentException.class, () -> apply("{\"a\": 1}", "{\"$inc\": {\"a\": \"1\"}}"));
+    }
+
+    @Test
+    void minAndMaxCompareAcrossTypes() {
+        assertUpdate("{\"a\": 1.5}", "{\"a\": 2}", "{\"$min\": {\"a\": 1.5}}");
+        assertUpdate("{\"a\": 2}", "{\"a\": 2}", "{\"$min\": {\"a\": {\"$numberLong\": \"3\"}}}");
+        assertUpdate("{\"a\": 3}", "{}", "{\"$max\": {\"a\": 3}}");
+        // Null comes before the numbers, and the strings after them
+        assertUpdate("{\"a\": null}", "{\"a\": 2}", "{\"$min\": {\"a\": null}}");
+        assertUpdate("{\"a\": \"x\"}", "{\"a\": 2}", "{\"$max\": {\"a\": \"x\"}}");
+    }
+
+    @Test
+    void renameMovesTheValue() {
+        assertUpdate("{\"b\": {\"c\": [1]}}", "{\"a\": [1]}", "{\"$rename\": {\"a\": \"b.c\"}}");
+        assertUpdate("{\"b\": 1}", "{\"b\": 1}", "{\"$rename\": {\"a\": \"b\"}}");
+    }
+
+    @Test
+    void arrayUpdates() {
+        assertUpdate("{\"a\": [1, 2]}", "{}", "{\"$push\": {\"a\": {\"$each\": [1, 2]}}}");
+        assertUpdate("{\"a\": [1, 1]}", "{\"a\": [1]}", "{\"$push\": {\"a\": 1}}");
+        assertUpdate("{\"a\": [1, 2]}", "{\"a\": [1]}", "{\"$addToSet\": {\"a\": {\"$each\": [1, 2, 2]}}}");
+        assertUpdate("{\"a\": [1]}", "{\"a\": [1]}", "{\"$addToSet\": {\"a\": {\"$numberLong\": \"1\"}}}");
+        assertUpdate("{\"a\": [[1, 2]]}", "{\"a\": []}", "{\"$push\": {\"a\": [1, 2]}}");
+        assertThrows(IllegalArgumentException.class, () -> apply("{\"a\": 1}", "{\"$push\": {\"a\": 2}}"));
+
+        assertUpdate("{\"a\": [2]}", "{\"a\": [1, 2, 3]}", "{\"$pop\": {\"a\": 1}, \"$pull\": {\"a\": 1}}");
+        assertUpdate("{\"a\": [2, 3]}", "{\"a\": [1, 2, 3]}", "{\"$pop\": {\"a\": -1}}");
+        assertUpdate("{\"a\": []}", "{\"a\": []}", "{\"$pop\": {\"a\": 1}}");
+    }
+
+    @Test
+    void pullMatchesValuesAndConditions() {
+        assertUpdate("{\"a\": [1, 2]}", "{\"a\": [1, 2, 3, 3.0]}", "{\"$pull\": {\"a\": 3}}");
+        assertUpdate("{\"a\": [1, 2]}", "{\"a\": [1, 2, 3, 4]}", "{\"$pull\": {\"a\": {\"$gte\": 3}}}");
+        assertUpdate("{\"a\": [{\"b\": 1, \"c\": 1}]}", "{\"a\": [{\"b\": 1, \"c\": 1}, {\"b\": 2, \"c\": 1}]}", "{\"$pull\": {\"a\": {\"b\": 2}}}");
+        assertUpdate("{\"a\": [2]}", "{\"a\": [1, 2, 3, {\"$numberLong\": \"1\"}]}", "{\"$pullAll\": {\"a\": [1, 3]}}");
+        assertUpdate("{\"b\": 1}", "{\"b\": 1}", "{\"$pull\": {\"a\": 1}}");
+    }
+
+    @Test
+    void onlyOperatorsAreAccepted() {
+        assertThrows(IllegalArgumentException.class, () -> apply("{}", "{\"a\": 1}"));
+        assertThrows(IllegalArgumentException.class, () -> apply("{}", "{\"$set\": 1}"));
+        assertThrows(IllegalArgumentException.class, () -> apply("{}", "{\"$bit\": {\"a\": {\"and\": 1}}}"));
+    }
+}
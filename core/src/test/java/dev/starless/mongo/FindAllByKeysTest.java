@@ -0,0 +1,133 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FindAllByKeysTest {
+
+    @MongoObject(database = "keys", collection = "players")
+    static class Player {
+        @MongoKey
+        UUID id;
+        int coins;
+    }
+
+    @MongoObject(database = "keys", collection = "counters")
+    static class Counter {
+        @MongoKey
+        long id;
+        int value;
+    }
+
+    @MongoObject(database = "keys", collection = "members")
+    static class Member {
+        @MongoKey
+        String guild;
+        @MongoKey
+        long user;
+    }
+
+    private String name;
+    private MongoStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        name = "keys-" + UUID.randomUUID();
+        storage = StorageBuilder.create("mem://" + name).build();
+        storage.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+        InMemoryStorage.drop(name);
+    }
+
+    @Test
+    void findsUuidKeys() {
+        Player first = player(1);
+        Player second = player(2);
+
+        Map<Object, Player> found = storage.findAllByKeys(Player.class, List.of(first.id, UUID.randomUUID(), second.id.toString()));
+
+        assertEquals(2, found.size());
+        assertEquals(1, found.get(first.id).coins);
+        assertEquals(2, found.get(second.id.toString()).coins);
+    }
+
+    @Test
+    void findsLongKeysPassedAsInts() {
+        for (long id = 1; id <= 3; id++) {
+            Counter counter = new Counter();
+            counter.id = id;
+            counter.value = (int) id * 10;
+            storage.store(counter, true);
+        }
+
+        Map<Integer, Counter> found = storage.findAllByKeys(Counter.class, List.of(3, 1, 7));
+
+        assertEquals(List.of(3, 1), List.copyOf(found.keySet()));
+        assertEquals(30, found.get(3).value);
+        assertEquals(10, found.get(1).value);
+    }
+
+    @Test
+    void findsCompoundKeys() {
+        Member member = new Member();
+        member.guild = "a";
+        member.user = 5;
+        storage.store(member, true);
+
+        Map<Map<String, Object>, Member> found = storage.findAllByKeys(Member.class, List.of(Map.of("guild", "a", "user", 5), Map.of("guild", "b", "user", 5)));
+
+        assertEquals(1, found.size());
+        assertEquals(5, found.get(Map.of("guild", "a", "user", 5)).user);
+    }
+
+    @Test
+    void requestedKeysMatchTheStoredObjects() {
+        // StorageImpl maps the queried objects back to the requested keys using these documents
+        StorageContext context = StorageBuilder.create("mongodb://localhost").buildContext();
+        Player player = new Player();
+        player.id = UUID.randomUUID();
+        Counter counter = new Counter();
+        counter.id = 5;
+
+        BsonDocument playerKey = EntityCache.canonicalKey(context.keys(Player.class).keySet(), context.keyDocument(player));
+        BsonDocument counterKey = EntityCache.canonicalKey(context.keys(Counter.class).keySet(), context.keyDocument(counter));
+
+        assertEquals(List.of(playerKey), List.copyOf(KeyLookup.group(context, Player.class, List.of(player.id)).keySet()));
+        assertEquals(List.of(counterKey), List.copyOf(KeyLookup.group(context, Counter.class, List.of(5)).keySet()));
+    }
+
+    @Test
+    void skipsInvalidKeys() {
+        Counter counter = new Counter();
+        counter.id = 1;
+        storage.store(counter, true);
+
+        Map<Object, Counter> found = storage.findAllByKeys(Counter.class, List.of("one", 1.5, 1L));
+
+        assertEquals(1, found.size());
+        assertTrue(found.containsKey(1L));
+    }
+
+    private Player player(int coins) {
+        Player player = new Player();
+        player.id = UUID.randomUUID();
+        player.coins = coins;
+        storage.store(player, true);
+        return player;
+    }
+}
@@ -0,0 +1,74 @@
+package dev.starless.mongo;
+
+import dev.starless.mongo.api.BulkResult;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryStorageTest {
+
+    @MongoObject(database = "memory", collection = "players")
+    record Player(@MongoKey int id, String name) {
+    }
+
+    @Test
+    void dropDeletesOnlyOneDatabase() {
+        String name = "drop-" + UUID.randomUUID();
+        String other = "drop-" + UUID.randomUUID();
+        MongoStorage storage = StorageBuilder.create("mem://" + name).build();
+        MongoStorage otherStorage = StorageBuilder.create("mem://" + other).build();
+        storage.init();
+        otherStorage.init();
+
+        try {
+            storage.store(new Player(1, "alice"), true);
+            otherStorage.store(new Player(1, "bob"), true);
+
+            InMemoryStorage.drop(name);
+
+            // The open instance sees the empty database and can keep writing
+            assertTrue(storage.find(Player.class).isEmpty());
+            assertEquals("bob", otherStorage.find(Player.class).get(0).name());
+
+            storage.store(new Player(2, "carol"), true);
+            MongoStorage reopened = StorageBuilder.create("mem://" + name).build();
+            reopened.init();
+            assertEquals(1, reopened.find(Player.class).size());
+            reopened.close();
+        } finally {
+            storage.close();
+            otherStorage.close();
+            InMemoryStorage.drop(name);
+            InMemoryStorage.drop(other);
+        }
+    }
+
+    @Test
+    void bulkResultsReportEveryObject() {
+        String name = "bulk-" + UUID.randomUUID();
+        MongoStorage storage = StorageBuilder.create("mem://" + name).build();
+        storage.init();
+
+        try {
+            storage.store(new Player(1, "alice"), true);
+
+            BulkResult stored = storage.storeAll(List.of(new Player(1, "bob"), new Player(2, "carol")), false);
+            assertEquals(List.of(BulkResult.Outcome.SKIPPED, BulkResult.Outcome.INSERTED), stored.getOutcomes());
+            assertTrue(stored.isSuccessful());
+            assertThrows(UnsupportedOperationException.class, () -> stored.getOutcomes().set(0, BulkResult.Outcome.FAILED));
+
+            BulkResult removed = storage.removeAll(List.of(new Player(2, "carol"), new Player(3, "dave")));
+            assertEquals(2, removed.count(BulkResult.Outcome.REMOVED));
+            assertEquals(1, removed.getRemovedCount());
+        } finally {
+            storage.close();
+            InMemoryStorage.drop(name);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package dev.starless.mongo;
+
+import com.mongodb.client.model.Filters;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.Page;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageTest {
+
+    @MongoObject(database = "pages", collection = "users")
+    static class User {
+        @MongoKey
+        int id;
+        String name;
+    }
+
+    private String name;
+    private MongoStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        name = "pages-" + UUID.randomUUID();
+        storage = StorageBuilder.create("mem://" + name).build();
+        storage.init();
+
+        // Half of the users have no name
+        for (int id = 0; id < 10; id++) {
+            User user = new User();
+            user.id = id;
+            user.name = id % 2 == 0 ? null : "user" + id;
+            storage.store(user, true);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+        InMemoryStorage.drop(name);
+    }
+
+    @Test
+    void pagesThroughMissingValuesInAscendingOrder() {
+        List<Integer> ids = readAll(true);
+
+        assertEquals(List.of(0, 2, 4, 6, 8, 1, 3, 5, 7, 9), ids);
+    }
+
+    @Test
+    void pagesThroughMissingValuesInDescendingOrder() {
+        List<Integer> ids = readAll(false);
+
+        assertEquals(List.of(9, 7, 5, 3, 1, 8, 6, 4, 2, 0), ids);
+    }
+
+    private List<Integer> readAll(boolean ascending) {
+        List<Integer> ids = new ArrayList<>();
+        String token = null;
+        do {
+            Page<User> page = storage.page(User.class, Filters.empty(), "name", ascending, token, 3);
+            page.items().forEach(user -> ids.add(user.id));
+            token = page.nextToken();
+        } while (token != null && ids.size() <= 10);
+        return ids;
+    }
+}
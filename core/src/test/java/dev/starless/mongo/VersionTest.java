@@ -0,0 +1,102 @@
+package dev.starless.mongo;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+import dev.starless.mongo.api.annotations.MongoVersion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionTest {
+
+    @MongoObject(database = "versions", collection = "accounts")
+    static class Account {
+        @MongoKey
+        int id;
+        @MongoVersion
+        long version;
+        int coins;
+        String name;
+    }
+
+    private String name;
+    private MongoStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        name = "versions-" + UUID.randomUUID();
+        storage = StorageBuilder.create("mem://" + name).build();
+        storage.init();
+
+        Account account = new Account();
+        account.id = 1;
+        account.name = "first";
+        assertTrue(storage.store(account, true));
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+        InMemoryStorage.drop(name);
+    }
+
+    @Test
+    void modifyDoesNotLoseConcurrentUpdates() {
+        AtomicInteger calls = new AtomicInteger();
+        Optional<Account> modified = storage.modify(Account.class, 1, account -> {
+            // Another writer updates the object after it has been loaded
+            if (calls.getAndIncrement() == 0) {
+                assertTrue(storage.update(Account.class, 1, Updates.inc("coins", 5)));
+            }
+            account.name = "renamed";
+            return account;
+        });
+
+        assertTrue(modified.isPresent());
+        assertEquals(2, calls.get());
+
+        Account stored = storage.findFirst(Account.class, Filters.eq("id", 1)).orElseThrow();
+        assertEquals(5, stored.coins);
+        assertEquals("renamed", stored.name);
+        assertEquals(3, stored.version);
+    }
+
+    @Test
+    void modifyDoesNotLoseConcurrentUpdateMany() {
+        AtomicInteger calls = new AtomicInteger();
+        storage.modify(Account.class, 1, account -> {
+            if (calls.getAndIncrement() == 0) {
+                assertEquals(1, storage.updateMany(Account.class, Filters.gte("id", 0), Updates.inc("coins", 2)));
+            }
+            account.name = "renamed";
+            return account;
+        });
+
+        Account stored = storage.findFirst(Account.class, Filters.eq("id", 1)).orElseThrow();
+        assertEquals(2, stored.coins);
+        assertEquals("renamed", stored.name);
+    }
+
+    @Test
+    void updatesIncrementTheVersion() {
+        Account loaded = storage.findFirst(Account.class, Filters.eq("id", 1)).orElseThrow();
+
+        Account updated = storage.updateAndGet(Account.class, 1, Updates.combine(Updates.inc("coins", 1), Updates.set("name", "other"))).orElseThrow();
+        assertEquals(loaded.version + 1, updated.version);
+        assertEquals(1, updated.coins);
+
+        // The object loaded before the update is outdated
+        loaded.name = "stale";
+        assertFalse(storage.store(loaded, true));
+        assertEquals("other", storage.findFirst(Account.class, Filters.eq("id", 1)).orElseThrow().name);
+    }
+}
@@ -0,0 +1,99 @@
+package dev.starless.mongo.api.querying;
+
+import com.google.gson.annotations.SerializedName;
+import dev.starless.mongo.StorageBuilder;
+import dev.starless.mongo.api.MongoStorage;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+import dev.starless.mongo.api.gateway.GatewayImpl;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryTemplateTest {
+
+    @MongoObject(database = "templates", collection = "players")
+    static class Player {
+        @MongoKey
+        UUID id;
+        long score;
+        Rank rank;
+    }
+
+    enum Rank {
+        @SerializedName("bronze")
+        BRONZE,
+        SILVER
+    }
+
+    @Test
+    void bindsValuesWithTheFieldCodecs() {
+        UUID id = UUID.randomUUID();
+        QueryTemplate template = QueryBuilder.init()
+                .eq("id", QueryBuilder.param("id"))
+                .in("score", QueryBuilder.param("scores"))
+                .create()
+                .compile(Player.class);
+
+        BsonDocument filter = template.filter(id, List.of(1L, 2L)).toBsonDocument();
+
+        assertEquals(new BsonString(id.toString()), filter.get("id"));
+        assertEquals(new BsonInt64(1), filter.getDocument("score").getArray("$in").get(0));
+    }
+
+    @Test
+    void bindsParametersUsedManyTimesAndEnums() {
+        QueryTemplate template = QueryBuilder.init()
+                .gte("score", QueryBuilder.param("min"))
+                .ne("rank", Rank.SILVER)
+                .in("rank", QueryBuilder.param("ranks"))
+                .lt("score", QueryBuilder.param("max"))
+                .ne("id", QueryBuilder.param("min"))
+                .create()
+                .compile(Player.class);
+
+        BsonDocument filter = template.filter(Map.of("max", 10L, "ranks", List.of(Rank.BRONZE), "min", 2L)).toBsonDocument();
+
+        assertEquals(BsonDocument.parse("{\"score\": {\"$gte\": {\"$numberLong\": \"2\"}, \"$lt\": {\"$numberLong\": \"10\"}}, "
+                + "\"rank\": {\"$ne\": \"SILVER\", \"$in\": [\"bronze\"]}, \"id\": {\"$ne\": {\"$numberLong\": \"2\"}}}"), filter);
+        // The values are bound again by the same template
+        assertEquals(new BsonInt64(5), template.filter(5L, List.of(), 6L).toBsonDocument().getDocument("score").get("$gte"));
+    }
+
+    @Test
+    void loadsByUuidThroughTheGateway() {
+        MongoStorage storage = StorageBuilder.create("mem://templates-" + UUID.randomUUID()).build();
+        storage.init();
+        try {
+            Player player = new Player();
+            player.id = UUID.randomUUID();
+            player.score = 3;
+            storage.store(player, true);
+
+            GatewayImpl<Player> gateway = new GatewayImpl<>(storage, Player.class) {
+            };
+            Query query = QueryBuilder.init().eq("id", QueryBuilder.param("id")).create();
+
+            assertEquals(3, gateway.loadOne(query, player.id).orElseThrow().score);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void deprecatedValuesAreReadOnly() {
+        Query query = QueryBuilder.init().add("name", "a").create();
+        Map<String, String> values = query.getValues();
+
+        assertEquals("a", values.get("name"));
+        assertThrows(UnsupportedOperationException.class, () -> values.put("name", "b"));
+    }
+}
@@ -0,0 +1,60 @@
+package dev.starless.mongo.codec;
+
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonDouble;
+import org.bson.BsonInt64;
+import org.bson.BsonReader;
+import org.bson.BsonValue;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScalarCodecTest {
+
+    private static BsonValue encode(ScalarCodec codec, Object value) {
+        BsonDocument document = new BsonDocument();
+        BsonDocumentWriter writer = new BsonDocumentWriter(document);
+        writer.writeStartDocument();
+        writer.writeName("v");
+        codec.encode(writer, value, EncoderContext.builder().build());
+        writer.writeEndDocument();
+        return document.get("v");
+    }
+
+    private static Object decode(ScalarCodec codec, BsonValue value) {
+        BsonReader reader = new BsonDocumentReader(new BsonDocument("v", value));
+        reader.readStartDocument();
+        reader.readName();
+        return codec.decode(reader, DecoderContext.builder().build());
+    }
+
+    @Test
+    void floatsAreStoredWithTheirDecimalValue() {
+        assertEquals(new BsonDouble(1.1), encode(ScalarCodec.FLOAT, 1.1f));
+        assertEquals(1.1f, decode(ScalarCodec.FLOAT, encode(ScalarCodec.FLOAT, 1.1f)));
+    }
+
+    @Test
+    void integersAreReadOnlyFromIntegralValues() {
+        assertEquals(1, decode(ScalarCodec.INT, new BsonDouble(1.0)));
+        assertEquals(2L, decode(ScalarCodec.LONG, new BsonDecimal128(new Decimal128(new BigDecimal("2.00")))));
+        assertNull(decode(ScalarCodec.INT, new BsonDouble(1.5)));
+        assertNull(decode(ScalarCodec.LONG, new BsonDouble(1.5)));
+        assertNull(decode(ScalarCodec.SHORT, new BsonDouble(Double.NaN)));
+    }
+
+    @Test
+    void integersMustFit() {
+        assertNull(decode(ScalarCodec.INT, new BsonInt64(Integer.MAX_VALUE + 1L)));
+        assertNull(decode(ScalarCodec.BYTE, new BsonDouble(300)));
+        assertEquals(Long.MAX_VALUE, decode(ScalarCodec.LONG, new BsonInt64(Long.MAX_VALUE)));
+    }
+}
@@ -0,0 +1,545 @@
+package dev.starless.mongo.processor;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Writes the source code of the EntityModel of a single class.
+ * Fields are chosen following the same rules of the runtime codecs:
+ * static and transient fields are ignored, while the fields of the superclasses are included.
+ */
+final class ModelWriter {
+
+    private static final Set<String> SCALARS = Set.of(
+            "java.lang.String", "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.lang.Float",
+            "java.lang.Short", "java.lang.Byte", "java.lang.Boolean", "java.lang.Character");
+
+    private final ProcessingEnvironment env;
+    private final Elements elements;
+    private final Types types;
+    private final TypeElement entity;
+    private final String packageName;
+    private final String entityName;
+    private final String modelName;
+    private final List<Property> properties;
+
+    ModelWriter(ProcessingEnvironment env, TypeElement entity) {
+        this.env = env;
+        this.elements = env.getElementUtils();
+        this.types = env.getTypeUtils();
+        this.entity = entity;
+        this.packageName = elements.getPackageOf(entity).getQualifiedName().toString();
+        this.entityName = entity.getQualifiedName().toString();
+
+        String simpleName = packageName.isEmpty() ? entityName : entityName.substring(packageName.length() + 1);
+        this.modelName = simpleName.replace('.', '_') + "_MongoModel";
+        this.properties = new ArrayList<>();
+    }
+
+    /**
+     * @return why the class cannot be handled, or null if the model can be generated
+     */
+    String unsupportedReason() {
+        Set<Modifier> modifiers = entity.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT)) return "abstract class";
+        if (!entity.getTypeParameters().isEmpty()) return "generic class";
+        if (annotation(entity, MongoObjectProcessor.JSON_ADAPTER) != null) return "@JsonAdapter annotated class";
+
+        for (Element enclosing = entity; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) return "private class";
+            if (enclosing.getEnclosingElement() instanceof TypeElement && !enclosing.getModifiers().contains(Modifier.STATIC)) {
+                return "inner class";
+            }
+        }
+
+        boolean isRecord = entity.getKind() == ElementKind.RECORD;
+        if (!isRecord) {
+            boolean constructor = ElementFilter.constructorsIn(entity.getEnclosedElements()).stream()
+                    .anyMatch(element -> element.getParameters().isEmpty() && !element.getModifiers().contains(Modifier.PRIVATE));
+            if (!constructor) return "no accessible constructor without arguments";
+        }
+
+        Set<String> names = new HashSet<>();
+        for (VariableElement field : fields(isRecord)) {
+            if (annotation(field, MongoObjectProcessor.JSON_ADAPTER) != null) return "@JsonAdapter annotated field";
+
+            // The generic type of the field is also read at runtime
+            TypeMirror type = types.asMemberOf((DeclaredType) entity.asType(), field);
+            if (hasTypeVariables(field.asType())) return "type variables in " + field.getSimpleName();
+
+            Property property = new Property(field, (TypeElement) field.getEnclosingElement(), type, properties.size());
+            // Fields of the subclasses hide the ones of their superclasses
+            if (names.add(property.name)) {
+                properties.add(property);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes the model.
+     *
+     * @return the qualified name of the generated class
+     */
+    String write() throws IOException {
+        String qualifiedName = packageName.isEmpty() ? modelName : packageName + "." + modelName;
+        JavaFileObject file = env.getFiler().createSourceFile(qualifiedName, entity);
+        try (Writer writer = file.openWriter()) {
+            writer.write(source());
+        }
+        return qualifiedName;
+    }
+
+    private String source() {
+        boolean isRecord = entity.getKind() == ElementKind.RECORD;
+        AnnotationMirror mongoObject = annotation(entity, MongoObjectProcessor.MONGO_OBJECT);
+        String database = (String) value(mongoObject, "database");
+        String collection = (String) value(mongoObject, "collection");
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) out.append("package ").append(packageName).append(";\n\n");
+
+        out.append("import dev.starless.mongo.codec.CodecSupport;\n")
+                .append("import dev.starless.mongo.codec.EntityModel;\n")
+                .append("import dev.starless.mongo.codec.ObjectCodecProvider;\n")
+                .append("import org.bson.BsonReader;\n")
+                .append("import org.bson.BsonType;\n")
+                .append("import org.bson.BsonWriter;\n")
+                .append("import org.bson.codecs.Codec;\n")
+                .append("import org.bson.codecs.DecoderContext;\n")
+                .append("import org.bson.codecs.EncoderContext;\n")
+                .append("import org.bson.codecs.configuration.CodecConfigurationException;\n")
+                .append("import org.bson.conversions.Bson;\n\n")
+                .append("import java.lang.invoke.MethodHandle;\n")
+                .append("import java.lang.reflect.Type;\n")
+                .append("import java.util.Map;\n\n");
+
+        out.append("@javax.annotation.processing.Generated(\"").append(MongoObjectProcessor.class.getName()).append("\")\n")
+                .append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+                .append("public final class ").append(modelName).append(" implements EntityModel<").append(entityName).append("> {\n\n");
+
+        // Static metadata
+        // The order of the keys is also the order of the fields in the index
+        out.append("    private static final Map<String, Class<?>> KEYS;\n");
+
+        for (Property property : properties) {
+            if (!property.isScalar()) {
+                out.append("    private static final Type TYPE_").append(property.index)
+                        .append(" = CodecSupport.fieldType(").append(property.declaring.getQualifiedName()).append(".class, ")
+                        .append(literal(property.field.getSimpleName().toString())).append(");\n");
+            }
+            if (!isRecord && !property.canRead()) {
+                out.append("    private static final MethodHandle GET_").append(property.index)
+                        .append(" = CodecSupport.getter(").append(entityName).append(".class, ")
+                        .append(property.declaring.getQualifiedName()).append(".class, ")
+                        .append(literal(property.field.getSimpleName().toString())).append(");\n");
+            }
+            if (!isRecord && !property.canWrite()) {
+                out.append("    private static final MethodHandle SET_").append(property.index)
+                        .append(" = CodecSupport.setter(").append(entityName).append(".class, ")
+                        .append(property.declaring.getQualifiedName()).append(".class, ")
+                        .append(literal(property.field.getSimpleName().toString())).append(");\n");
+            }
+        }
+        out.append("\n    static {\n")
+                .append("        Map<String, Class<?>> keys = new java.util.LinkedHashMap<>();\n");
+        for (Property property : properties) {
+            if (property.key) {
+                out.append("        keys.put(").append(literal(property.name)).append(", ").append(rawName(property.type)).append(".class);\n");
+            }
+        }
+        out.append("        KEYS = java.util.Collections.unmodifiableMap(keys);\n")
+                .append("    }\n\n");
+
+        out.append("    @Override\n    public Class<").append(entityName).append("> type() {\n")
+                .append("        return ").append(entityName).append(".class;\n    }\n\n");
+        out.append("    @Override\n    public String database() {\n")
+                .append("        return ").append(literal(database)).append(";\n    }\n\n");
+        out.append("    @Override\n    public String collection() {\n")
+                .append("        return ").append(literal(collection)).append(";\n    }\n\n");
+        out.append("    @Override\n    public Map<String, Class<?>> keys() {\n")
+                .append("        return KEYS;\n    }\n\n");
+        out.append("    @Override\n    public Codec<").append(entityName).append("> codec(ObjectCodecProvider provider) {\n")
+                .append("        return new ModelCodec(provider);\n    }\n\n");
+
+        // Key filter
+        out.append("    @Override\n    public Bson keyFilter(ObjectCodecProvider provider, ").append(entityName).append(" value) {\n")
+                .append("        try {\n");
+        // Same flat document built by the KeyAccessor of the runtime codecs
+        List<String> keys = new ArrayList<>();
+        for (Property property : properties) {
+            if (!property.key) continue;
+
+            String read = read(property, isRecord);
+            String bsonValue = property.isScalar() && !property.isChar()
+                    ? "CodecSupport.toBsonValue(" + read + ")"
+                    : "CodecSupport.toBsonValue(provider, provider.codecFor(" + typeOf(property) + "), " + rawName(property.type) + ".class, " + read + ")";
+            keys.add(literal(property.name) + ", " + bsonValue);
+        }
+        out.append("            return new org.bson.BsonDocument(").append(keys.isEmpty() ? "" : keys.get(0)).append(")");
+        for (int i = 1; i < keys.size(); i++) {
+            out.append("\n                    .append(").append(keys.get(i)).append(")");
+        }
+        out.append(";\n");
+        out.append(rethrow("            ")).append("    }\n\n");
+
+        // Codec
+        out.append("    private static final class ModelCodec implements Codec<").append(entityName).append("> {\n\n")
+                .append("        private final ObjectCodecProvider provider;\n");
+        for (Property property : properties) {
+            if (!property.isScalar()) {
+                out.append("        private final Codec<Object> codec").append(property.index).append(";\n");
+            }
+        }
+        out.append("\n        private ModelCodec(ObjectCodecProvider provider) {\n")
+                .append("            this.provider = provider;\n");
+        for (Property property : properties) {
+            if (!property.isScalar()) {
+                out.append("            this.codec").append(property.index).append(" = provider.codecFor(TYPE_").append(property.index).append(");\n");
+            }
+        }
+        out.append("        }\n\n");
+
+        out.append("        @Override\n        public void encode(BsonWriter writer, ").append(entityName).append(" value, EncoderContext context) {\n")
+                .append("            try {\n")
+                .append("                writer.writeStartDocument();\n");
+        for (Property property : properties) {
+            out.append("                writer.writeName(").append(literal(property.name)).append(");\n");
+            out.append(encode(property, read(property, isRecord), "                "));
+        }
+        out.append("                writer.writeEndDocument();\n")
+                .append(rethrow("                "))
+                .append("        }\n\n");
+
+        out.append("        @Override\n        public ").append(entityName).append(" decode(BsonReader reader, DecoderContext context) {\n")
+                .append("            if (reader.getCurrentBsonType() != null && reader.getCurrentBsonType() != BsonType.DOCUMENT) {\n")
+                .append("                reader.skipValue();\n")
+                .append("                return null;\n")
+                .append("            }\n\n")
+                .append("            try {\n");
+        if (isRecord) {
+            for (Property property : properties) {
+                out.append("                ").append(rawName(property.type)).append(" arg").append(property.index)
+                        .append(" = ").append(defaultValue(property.type)).append(";\n");
+            }
+        } else {
+            out.append("                ").append(entityName).append(" instance = new ").append(entityName).append("();\n");
+        }
+        out.append("                reader.readStartDocument();\n")
+                .append("                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {\n")
+                .append("                    switch (reader.readName()) {\n");
+        Set<String> labels = new HashSet<>();
+        for (Property property : properties) {
+            StringJoiner cases = new StringJoiner(", ");
+            if (labels.add(property.name)) cases.add(literal(property.name));
+            for (String alternate : property.alternates) {
+                if (labels.add(alternate)) cases.add(literal(alternate));
+            }
+            if (cases.length() == 0) continue;
+
+            out.append("                        case ").append(cases).append(" -> {\n")
+                    .append(decode(property, isRecord, "                            "))
+                    .append("                        }\n");
+        }
+        out.append("                        default -> reader.skipValue();\n")
+                .append("                    }\n")
+                .append("                }\n")
+                .append("                reader.readEndDocument();\n");
+        if (isRecord) {
+            StringJoiner arguments = new StringJoiner(", ");
+            properties.forEach(property -> arguments.add("arg" + property.index));
+            out.append("                return new ").append(entityName).append("(").append(arguments).append(");\n");
+        } else {
+            out.append("                return instance;\n");
+        }
+        out.append(rethrow("                "))
+                .append("        }\n\n");
+
+        out.append("        @Override\n        public Class<").append(entityName).append("> getEncoderClass() {\n")
+                .append("            return ").append(entityName).append(".class;\n        }\n")
+                .append("    }\n")
+                .append("}\n");
+
+        return out.toString();
+    }
+
+    private String encode(Property property, String read, String indent) {
+        String kind = property.scalarKind();
+        if (kind == null) {
+            return indent + "CodecSupport.write(provider, writer, codec" + property.index + ", "
+                    + rawName(property.type) + ".class, " + read + ", context);\n";
+        }
+
+        String variable = "v" + property.index;
+        String write = switch (kind) {
+            case "int", "short", "byte", "java.lang.Integer", "java.lang.Short", "java.lang.Byte" -> "writer.writeInt32(" + variable + ")";
+            case "long", "java.lang.Long" -> "writer.writeInt64(" + variable + ")";
+            case "double", "float", "java.lang.Double", "java.lang.Float" -> "writer.writeDouble(" + variable + ")";
+            case "boolean", "java.lang.Boolean" -> "writer.writeBoolean(" + variable + ")";
+            case "char", "java.lang.Character" -> "writer.writeString(String.valueOf(" + variable + "))";
+            default -> "writer.writeString(" + variable + ")";
+        };
+
+        // Convert the boxed types to the right primitives
+        String type = switch (kind) {
+            case "java.lang.Short", "java.lang.Byte" -> "java.lang.Integer";
+            case "java.lang.Float" -> "java.lang.Double";
+            case "short", "byte" -> "int";
+            case "float" -> "double";
+            default -> kind;
+        };
+        String value = type.equals(kind) ? read : conversion(kind, read);
+
+        if (property.type.getKind().isPrimitive()) {
+            return indent + type + " " + variable + " = " + value + ";\n"
+                    + indent + write + ";\n";
+        }
+
+        return indent + kind + " " + variable + " = " + read + ";\n"
+                + indent + "if (" + variable + " == null) writer.writeNull();\n"
+                + indent + "else " + write.replace("(" + variable + ")", "(" + conversion(kind, variable) + ")") + ";\n";
+    }
+
+    private String conversion(String kind, String expression) {
+        return switch (kind) {
+            case "java.lang.Short", "java.lang.Byte" -> expression + ".intValue()";
+            case "java.lang.Float" -> expression + ".doubleValue()";
+            default -> expression;
+        };
+    }
+
+    private String decode(Property property, boolean isRecord, String indent) {
+        String kind = property.scalarKind();
+        String raw = rawName(property.type);
+        String value;
+        if (kind == null) {
+            value = cast(raw, "java.lang.Object") + "CodecSupport.read(provider, reader, codec" + property.index + ", context)";
+        } else {
+            value = "CodecSupport." + switch (kind) {
+                case "int", "java.lang.Integer" -> "readInt";
+                case "long", "java.lang.Long" -> "readLong";
+                case "double", "java.lang.Double" -> "readDouble";
+                case "float", "java.lang.Float" -> "readFloat";
+                case "short", "java.lang.Short" -> "readShort";
+                case "byte", "java.lang.Byte" -> "readByte";
+                case "boolean", "java.lang.Boolean" -> "readBoolean";
+                case "char", "java.lang.Character" -> "readChar";
+                default -> "readString";
+            } + "(reader)";
+        }
+
+        if (!property.type.getKind().isPrimitive()) {
+            return indent + assign(property, isRecord, value) + ";\n";
+        }
+
+        // Primitive fields are left untouched when the value is missing
+        String boxed = types.boxedClass((PrimitiveType) property.type).getQualifiedName().toString();
+        String variable = "v" + property.index;
+        return indent + boxed + " " + variable + " = " + value + ";\n"
+                + indent + "if (" + variable + " != null) " + assign(property, isRecord, variable) + ";\n";
+    }
+
+    private String read(Property property, boolean isRecord) {
+        if (isRecord) return "value." + property.field.getSimpleName() + "()";
+        if (property.canRead()) return receiver(property, "value") + "." + property.field.getSimpleName();
+
+        return "((" + rawName(property.type) + ") GET_" + property.index + ".invokeExact(value))";
+    }
+
+    private String assign(Property property, boolean isRecord, String value) {
+        if (isRecord) return "arg" + property.index + " = " + value;
+        if (property.canWrite()) return receiver(property, "instance") + "." + property.field.getSimpleName() + " = " + value;
+
+        // The values of the primitive fields are boxed, while invokeExact needs the exact type
+        String argument = property.type.getKind().isPrimitive() ? "(" + rawName(property.type) + ") " + value : value;
+        return "SET_" + property.index + ".invokeExact(instance, " + argument + ")";
+    }
+
+    // The entity is cast to the declaring class only when one of its fields hides the property
+    private String receiver(Property property, String variable) {
+        if (!property.isHidden()) return variable;
+
+        return "((" + property.declaring.getQualifiedName() + ") " + variable + ")";
+    }
+
+    private static String cast(String target, String source) {
+        return target.equals(source) ? "" : "(" + target + ") ";
+    }
+
+    private String typeOf(Property property) {
+        return property.isScalar() ? "(Type) " + rawName(property.type) + ".class" : "TYPE_" + property.index;
+    }
+
+    private String rethrow(String indent) {
+        String inner = indent.substring(4);
+        return inner + "} catch (RuntimeException e) {\n"
+                + indent + "throw e;\n"
+                + inner + "} catch (Throwable e) {\n"
+                + indent + "throw new CodecConfigurationException(\"Cannot access the fields of " + entityName + "\", e);\n"
+                + inner + "}\n";
+    }
+
+    private List<VariableElement> fields(boolean isRecord) {
+        List<VariableElement> fields = new ArrayList<>();
+        TypeElement current = entity;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")
+                && !current.getQualifiedName().contentEquals("java.lang.Record")) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) continue;
+
+                fields.add(field);
+            }
+
+            // The fields of a record are exactly its components
+            if (isRecord) break;
+
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+        }
+        return fields;
+    }
+
+    private String rawName(TypeMirror type) {
+        TypeMirror erased = types.erasure(type);
+        return switch (erased.getKind()) {
+            case ARRAY -> rawName(((ArrayType) erased).getComponentType()) + "[]";
+            case DECLARED -> ((TypeElement) types.asElement(erased)).getQualifiedName().toString();
+            default -> erased.getKind().name().toLowerCase(Locale.ROOT);
+        };
+    }
+
+    private String defaultValue(TypeMirror type) {
+        return switch (type.getKind()) {
+            case BOOLEAN -> "false";
+            case CHAR -> "'\\0'";
+            case BYTE, SHORT, INT, LONG, FLOAT, DOUBLE -> "0";
+            default -> "null";
+        };
+    }
+
+    private boolean hasTypeVariables(TypeMirror type) {
+        return switch (type.getKind()) {
+            case TYPEVAR, INTERSECTION, UNION -> true;
+            case ARRAY -> hasTypeVariables(((ArrayType) type).getComponentType());
+            case DECLARED -> ((DeclaredType) type).getTypeArguments().stream().anyMatch(this::hasTypeVariables);
+            case WILDCARD -> {
+                WildcardType wildcard = (WildcardType) type;
+                yield (wildcard.getExtendsBound() != null && hasTypeVariables(wildcard.getExtendsBound()))
+                        || (wildcard.getSuperBound() != null && hasTypeVariables(wildcard.getSuperBound()));
+            }
+            default -> false;
+        };
+    }
+
+    private AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(name)) return mirror;
+        }
+        return null;
+    }
+
+    private Object value(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) return entry.getValue().getValue();
+        }
+        return null;
+    }
+
+    private static String literal(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                default -> builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private final class Property {
+
+        private final VariableElement field;
+        private final TypeElement declaring;
+        private final TypeMirror type;
+        private final int index;
+        private final String name;
+        private final List<String> alternates;
+        private final boolean key;
+
+        private Property(VariableElement field, TypeElement declaring, TypeMirror type, int index) {
+            this.field = field;
+            this.declaring = declaring;
+            this.type = type;
+            this.index = index;
+            this.key = annotation(field, MongoObjectProcessor.MONGO_KEY) != null;
+            this.alternates = new ArrayList<>();
+
+            AnnotationMirror serializedName = annotation(field, MongoObjectProcessor.SERIALIZED_NAME);
+            if (serializedName != null) {
+                this.name = (String) value(serializedName, "value");
+                Object values = value(serializedName, "alternate");
+                if (values instanceof List<?> list) {
+                    list.forEach(alternate -> alternates.add((String) ((AnnotationValue) alternate).getValue()));
+                }
+            } else {
+                this.name = field.getSimpleName().toString();
+            }
+        }
+
+        // The name of the primitive or boxed type, or null for every other type
+        private String scalarKind() {
+            if (type.getKind().isPrimitive()) return type.getKind().name().toLowerCase(Locale.ROOT);
+
+            String raw = rawName(type);
+            return SCALARS.contains(raw) ? raw : null;
+        }
+
+        private boolean isScalar() {
+            return scalarKind() != null;
+        }
+
+        private boolean isChar() {
+            return type.getKind() == TypeKind.CHAR || rawName(type).equals("java.lang.Character");
+        }
+
+        private boolean canRead() {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) return false;
+
+            boolean samePackage = elements.getPackageOf(declaring).equals(elements.getPackageOf(entity));
+            boolean publicClass = declaring.getModifiers().contains(Modifier.PUBLIC);
+            return samePackage || (publicClass && modifiers.contains(Modifier.PUBLIC));
+        }
+
+        private boolean canWrite() {
+            return canRead() && !field.getModifiers().contains(Modifier.FINAL);
+        }
+
+        // Whether a field with the same name, even a static or private one, is declared below the declaring class
+        private boolean isHidden() {
+            TypeElement current = entity;
+            while (current != null && !current.equals(declaring)) {
+                for (VariableElement other : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                    if (other.getSimpleName().contentEquals(field.getSimpleName())) return true;
+                }
+
+                TypeMirror superclass = current.getSuperclass();
+                current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dev.starless.mongo.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates an implementation of {@code dev.starless.mongo.codec.EntityModel}
+ * for every class annotated with {@code @MongoObject}, and registers them
+ * in the service file read by the library at runtime.
+ * Classes which cannot be handled (for example the ones with private constructors)
+ * are skipped: the library will use reflection for them.
+ */
+@SupportedAnnotationTypes(MongoObjectProcessor.MONGO_OBJECT)
+public final class MongoObjectProcessor extends AbstractProcessor {
+
+    static final String MONGO_OBJECT = "dev.starless.mongo.api.annotations.MongoObject";
+    static final String MONGO_KEY = "dev.starless.mongo.api.annotations.MongoKey";
+    static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+    static final String JSON_ADAPTER = "com.google.gson.annotations.JsonAdapter";
+
+    private static final String SERVICE_FILE = "META-INF/services/dev.starless.mongo.codec.EntityModel";
+
+    private final Set<String> generated = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.RECORD) continue;
+
+                ModelWriter writer = new ModelWriter(processingEnv, (TypeElement) element);
+                String reason = writer.unsupportedReason();
+                if (reason != null) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                            "No model generated for " + element + " (" + reason + "), reflection will be used instead.",
+                            element);
+                    continue;
+                }
+
+                try {
+                    generated.add(writer.write());
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Could not write the model of " + element + ": " + e.getMessage(),
+                            element);
+                }
+            }
+        }
+
+        if (roundEnv.processingOver() && !generated.isEmpty()) {
+            writeServiceFile();
+        }
+        return false;
+    }
+
+    private void writeServiceFile() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Writer writer = file.openWriter()) {
+                for (String name : generated) {
+                    writer.write(name);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + SERVICE_FILE + ": " + e.getMessage());
+        }
+    }
+}
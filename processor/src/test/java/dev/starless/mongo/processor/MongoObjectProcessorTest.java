@@ -0,0 +1,193 @@
+package dev.starless.mongo.processor;
+
+import com.google.gson.GsonBuilder;
+import dev.starless.mongo.codec.EntityModel;
+import dev.starless.mongo.codec.ObjectCodecProvider;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.*;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MongoObjectProcessorTest {
+
+    private static final List<String> SAMPLES = List.of("sample/Base.java", "sample/Player.java", "sample/Member.java");
+
+    @TempDir
+    static Path output;
+
+    private static List<Diagnostic<? extends JavaFileObject>> diagnostics;
+    private static ClassLoader loader;
+
+    @BeforeAll
+    static void compile() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(collector, Locale.ROOT, StandardCharsets.UTF_8)) {
+            List<File> sources = new ArrayList<>();
+            for (String sample : SAMPLES) {
+                sources.add(resource(sample));
+            }
+
+            List<String> options = List.of("-Xlint:all",
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-d", output.toString());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, files, collector, options, null, files.getJavaFileObjectsFromFiles(sources));
+            task.setProcessors(List.of(new MongoObjectProcessor()));
+            assertTrue(task.call(), () -> collector.getDiagnostics().toString());
+        }
+
+        diagnostics = collector.getDiagnostics();
+        loader = new URLClassLoader(new URL[]{output.toUri().toURL()}, MongoObjectProcessorTest.class.getClassLoader());
+    }
+
+    @Test
+    void generatedModelsCompileWithoutWarnings() {
+        List<String> warnings = diagnostics.stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.WARNING || diagnostic.getKind() == Diagnostic.Kind.MANDATORY_WARNING)
+                .filter(diagnostic -> diagnostic.getSource() != null && diagnostic.getSource().getName().endsWith("_MongoModel.java"))
+                .map(diagnostic -> diagnostic.getLineNumber() + ": " + diagnostic.getMessage(Locale.ROOT))
+                .toList();
+
+        assertEquals(List.of(), warnings);
+    }
+
+    @Test
+    void playerModelEncodesLikeReflection() throws Exception {
+        Class<?> type = loader.loadClass("sample.Player");
+        Object player = newInstance(type);
+        set(player, "created", 5L);
+        set(player, "owner", "alice");
+        set(player, "tags", List.of("a", "b"));
+        set(player, "id", UUID.randomUUID());
+        set(player, "displayName", "Alice");
+        set(player, "coins", 10);
+        set(player, "level", 3);
+        set(player, "rank", 7);
+        set(player, "small", (short) 2);
+        set(player, "tiny", (byte) 1);
+        set(player, "ratio", 0.5f);
+        set(player, "score", 1.25);
+        set(player, "active", true);
+        set(player, "grade", 'A');
+        set(player, "boxedSmall", (short) 4);
+        set(player, "boxedRatio", 2.5f);
+        set(player, "friend", UUID.randomUUID());
+        set(player, "items", Map.of("sword", 1));
+        set(player, "tier", loader.loadClass("sample.Player$Tier").getEnumConstants()[1]);
+        set(player, "ignored", 99);
+        setDeclared(player, loader.loadClass("sample.Base"), "shadowed", 6);
+
+        Object stats = newInstance(loader.loadClass("sample.Player$Stats"));
+        set(stats, "kills", 12);
+        set(stats, "times", List.of(1.5, 2.0));
+        set(player, "stats", stats);
+
+        assertSameCodecs(type, player);
+    }
+
+    @Test
+    void recordModelEncodesLikeReflection() throws Exception {
+        Class<?> type = loader.loadClass("sample.Member");
+        Object member = type.getDeclaredConstructors()[0].newInstance("guild", 5L, 3, (short) 2, 'B', null, UUID.randomUUID(), List.of("admin"));
+
+        assertSameCodecs(type, member);
+    }
+
+    @Test
+    void alternateNamesAreDecoded() throws Exception {
+        Class<?> type = loader.loadClass("sample.Player");
+        BsonDocument document = BsonDocument.parse("{\"name\": \"Bob\", \"coins\": 4}");
+
+        BsonDocument reflective = encode(reflective().codecFor(type), decode(reflective().codecFor(type), document));
+        BsonDocument generated = encode(reflective().codecFor(type), decode(generated(type).codecFor(type), document));
+        assertEquals(reflective, generated);
+        assertEquals("Bob", generated.getString("display").getValue());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void assertSameCodecs(Class<?> type, Object obj) throws Exception {
+        ObjectCodecProvider reflective = reflective();
+        ObjectCodecProvider generated = generated(type);
+        Codec reflectiveCodec = reflective.codecFor(type);
+        Codec generatedCodec = generated.codecFor(type);
+        assertNotSame(reflectiveCodec.getClass(), generatedCodec.getClass());
+
+        BsonDocument expected = encode(reflectiveCodec, obj);
+        assertEquals(expected, encode(generatedCodec, obj));
+
+        // The generated codec reads back every field written by the reflective one
+        assertEquals(expected, encode(reflectiveCodec, decode(generatedCodec, expected)));
+
+        BsonDocument reflectiveKey = reflective.keyAccessor(type).filter(obj).toBsonDocument();
+        assertEquals(reflectiveKey, generated.keyAccessor(type).filter(obj).toBsonDocument());
+    }
+
+    private static ObjectCodecProvider reflective() {
+        return new ObjectCodecProvider(new GsonBuilder().serializeNulls().create(), Set.of(), Map.of());
+    }
+
+    private static ObjectCodecProvider generated(Class<?> type) throws Exception {
+        EntityModel<?> model = (EntityModel<?>) newInstance(loader.loadClass(type.getName() + "_MongoModel"));
+        return new ObjectCodecProvider(new GsonBuilder().serializeNulls().create(), Set.of(), Map.of(type, model));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static BsonDocument encode(Codec codec, Object obj) {
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), obj, EncoderContext.builder().build());
+        return document;
+    }
+
+    private static Object decode(Codec<?> codec, BsonDocument document) {
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    private static Object newInstance(Class<?> type) throws Exception {
+        var constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return constructor.newInstance();
+    }
+
+    private static void set(Object obj, String name, Object value) throws Exception {
+        for (Class<?> current = obj.getClass(); current != null; current = current.getSuperclass()) {
+            try {
+                Field field = current.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(obj, value);
+                return;
+            } catch (NoSuchFieldException ignored) {
+                // Declared by a superclass
+            }
+        }
+        fail("No field " + name + " in " + obj.getClass().getName());
+    }
+
+    private static void setDeclared(Object obj, Class<?> declaring, String name, Object value) throws Exception {
+        Field field = declaring.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(obj, value);
+    }
+
+    private static File resource(String name) throws URISyntaxException {
+        URL url = MongoObjectProcessorTest.class.getClassLoader().getResource(name);
+        assertNotNull(url, name);
+        return new File(url.toURI());
+    }
+}
@@ -0,0 +1,11 @@
+package sample;
+
+import java.util.List;
+
+public class Base {
+
+    long created;
+    private String owner;
+    protected List<String> tags;
+    int shadowed;
+}
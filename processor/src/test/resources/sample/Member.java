@@ -0,0 +1,18 @@
+package sample;
+
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+
+import java.util.List;
+import java.util.UUID;
+
+@MongoObject(database = "sample", collection = "members")
+public record Member(@MongoKey String guild,
+                     @MongoKey long user,
+                     int level,
+                     short rank,
+                     char grade,
+                     Integer bonus,
+                     UUID invitedBy,
+                     List<String> roles) {
+}
@@ -0,0 +1,51 @@
+package sample;
+
+import com.google.gson.annotations.SerializedName;
+import dev.starless.mongo.api.annotations.MongoKey;
+import dev.starless.mongo.api.annotations.MongoObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@MongoObject(database = "sample", collection = "players")
+public class Player extends Base {
+
+    @MongoKey
+    UUID id;
+    @SerializedName(value = "display", alternate = {"name"})
+    String displayName;
+    int coins;
+    private int level;
+    Integer rank;
+    private Integer bonus;
+    short small;
+    byte tiny;
+    float ratio;
+    double score;
+    boolean active;
+    char grade;
+    Short boxedSmall;
+    Float boxedRatio;
+    Character boxedGrade;
+    private UUID friend;
+    Stats stats;
+    private Stats previous;
+    Map<String, Integer> items;
+    Tier tier;
+    transient int ignored;
+    static int alsoIgnored;
+    // Hides the field of Base, which is still stored
+    static String shadowed;
+
+    public enum Tier {
+        BRONZE,
+        GOLD
+    }
+
+    public static class Stats {
+
+        int kills;
+        List<Double> times;
+    }
+}
@@ -0,0 +1,19 @@
+package dev.starless.mongo.reactive;
+
+import com.mongodb.reactivestreams.client.FindPublisher;
+import org.bson.Document;
+
+/**
+ * This interface allows to perform operations directly on the FindPublisher object
+ * returned by Mongo in find operations. It is the reactive counterpart of
+ * {@link dev.starless.mongo.api.IterableProcessor}.
+ */
+public interface PublisherProcessor {
+
+    /**
+     * This processor instance does not modify the FindPublisher object
+     */
+    PublisherProcessor passthrough = publisher -> publisher;
+
+    FindPublisher<Document> process(FindPublisher<Document> publisher);
+}
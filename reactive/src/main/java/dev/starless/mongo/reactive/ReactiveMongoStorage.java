@@ -0,0 +1,152 @@
+package dev.starless.mongo.reactive;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import dev.starless.mongo.StorageBuilder;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+import org.reactivestreams.Publisher;
+
+/**
+ * This class handles interactions between MongoDB and java objects
+ * annotated with {@link dev.starless.mongo.api.annotations.MongoObject}
+ * using the reactive streams driver.
+ * It mirrors {@link dev.starless.mongo.api.MongoStorage}, but nothing is executed
+ * until a subscriber requests the results of the returned publishers.
+ */
+public interface ReactiveMongoStorage {
+
+    /**
+     * Creates a new reactive storage using the configuration
+     * of the builder: type adapters, migration schemas, registered types and logger.
+     *
+     * @param builder {@link StorageBuilder} instance
+     * @return A new {@link ReactiveMongoStorage} implementation
+     */
+    static ReactiveMongoStorage create(@NotNull StorageBuilder builder) {
+        return new ReactiveStorageImpl(builder.buildContext());
+    }
+
+    /**
+     * Connects to MongoDB, migrates the documents according
+     * to the schemas and creates the indexes of the registered types.
+     * The documents of the lazy schemas are migrated here too,
+     * since the reactive storage does not migrate them while reading.
+     *
+     * @return A publisher which completes when the storage is ready
+     */
+    Publisher<Void> init();
+
+    /**
+     * Closes the connection to MongoDB.
+     */
+    void close();
+
+    /**
+     * Overrides the collection name for a specific {@link dev.starless.mongo.api.annotations.MongoObject}
+     * annotated class.
+     *
+     * @param type {@link Class Class<?>} object
+     * @param name new collection name
+     */
+    void overrideCollectionName(Class<?> type, String name);
+
+    /**
+     * Convenience method which calls {@link ReactiveMongoStorage#find(Class, PublisherProcessor, Bson)}
+     * without filtering or doing operations on the output.
+     *
+     * @param type Type to look for
+     * @return a publisher of the objects of the requested type
+     */
+    default <T> Publisher<T> find(@NotNull Class<? extends T> type) {
+        return find(type, Filters.empty());
+    }
+
+    /**
+     * Convenience method which calls {@link ReactiveMongoStorage#find(Class, PublisherProcessor, Bson)}
+     * accepting every type of object T matching a certain criteria.
+     *
+     * @param type   Type to look for
+     * @param filter Filter to apply
+     * @return a publisher of the objects of the requested type
+     */
+    default <T> Publisher<T> find(@NotNull Class<? extends T> type, @NotNull Bson filter) {
+        return find(type, PublisherProcessor.passthrough, filter);
+    }
+
+    /**
+     * Retrieves the objects from MongoDB. The documents are fetched from
+     * the cursor in batches only when the subscriber requests them:
+     * unless the processor sets a batch size, the size of each batch
+     * follows the demand of the subscriber.
+     *
+     * @param type      Type of the object to retrieve
+     * @param processor Operations to perform directly on the {@link com.mongodb.reactivestreams.client.FindPublisher} before the serialization
+     * @param filter    Filter to apply
+     * @return a publisher of the objects of the requested type
+     */
+    <T> Publisher<T> find(@NotNull Class<? extends T> type,
+                          @NotNull PublisherProcessor processor,
+                          @NotNull Bson filter);
+
+    /**
+     * Convenience method which calls {@link ReactiveMongoStorage#findFirst(Class, PublisherProcessor, Bson)}
+     * passing only a Filter as a parameter.
+     *
+     * @param type   Type to look for
+     * @param filter Filter to apply
+     * @return a publisher of the first object found matching the criteria
+     */
+    default <T> Publisher<T> findFirst(@NotNull Class<? extends T> type, @NotNull Bson filter) {
+        return findFirst(type, PublisherProcessor.passthrough, filter);
+    }
+
+    /**
+     * Retrieves a <b>single</b> object from MongoDB.
+     *
+     * @param type      Type of the object to retrieve
+     * @param processor Operations to perform directly on the {@link com.mongodb.reactivestreams.client.FindPublisher} before the serialization
+     * @param filter    Filter to apply
+     * @return a publisher which emits the object, or completes empty if nothing is found
+     */
+    <T> Publisher<T> findFirst(@NotNull Class<? extends T> type,
+                               @NotNull PublisherProcessor processor,
+                               @NotNull Bson filter);
+
+    /**
+     * Save an object to the database:
+     * can be used to insert or update a document.
+     *
+     * @param obj    Object to save
+     * @param update When set to false, the object will not be saved if another object with the same key is found.
+     *               Otherwise, the previous saved object is overwritten: the objects with a
+     *               {@link dev.starless.mongo.api.annotations.MongoVersion} field overwrite it only if it has
+     *               the same version, like in {@link dev.starless.mongo.api.MongoStorage#store(Object, boolean)}.
+     * @return a publisher which emits true if the MongoDB collection was changed,
+     * or false if a versioned object has been changed by others in the meantime
+     */
+    Publisher<Boolean> store(@NotNull Object obj, boolean update);
+
+    /**
+     * Remove an object from the database.
+     *
+     * @param obj Object to be removed
+     * @return a publisher which emits the number of objects removed
+     */
+    Publisher<Integer> remove(@NotNull Object obj);
+
+    /**
+     * This method returns the collection handling a particular type of object.
+     *
+     * @param type Type of {@link dev.starless.mongo.api.annotations.MongoObject} annotated object
+     * @return The {@link MongoCollection<Document>} storing this type of object
+     */
+    MongoCollection<Document> getObjectCollection(Class<?> type);
+
+    /**
+     * @return The underlying {@link MongoClient} used by this {@link ReactiveMongoStorage} instance
+     */
+    MongoClient getClient();
+}
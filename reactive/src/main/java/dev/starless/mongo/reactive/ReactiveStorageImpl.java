@@ -0,0 +1,406 @@
+package dev.starless.mongo.reactive;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.reactivestreams.client.*;
+import dev.starless.mongo.StorageContext;
+import dev.starless.mongo.api.annotations.MongoObject;
+import dev.starless.mongo.codec.VersionAccessor;
+import dev.starless.mongo.logging.ILogger;
+import dev.starless.mongo.schema.MigrationSchema;
+import dev.starless.mongo.schema.MigrationStep;
+import org.bson.BSONException;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class ReactiveStorageImpl implements ReactiveMongoStorage {
+
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private final StorageContext context;
+    private final ILogger logger;
+
+    private volatile MongoClient client;
+    private volatile boolean initialized;
+
+    private final Map<String, MongoDatabase> cachedDatabases;
+    private final Map<Class<?>, MongoCollection<?>> cachedCollections;
+    private final Map<Class<?>, Mono<Boolean>> uniqueKeys;
+
+    ReactiveStorageImpl(StorageContext context) {
+        this.context = context;
+        this.logger = context.getLogger();
+        this.initialized = false;
+
+        this.cachedDatabases = new ConcurrentHashMap<>();
+        this.cachedCollections = new ConcurrentHashMap<>();
+        this.uniqueKeys = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Publisher<Void> init() {
+        return Mono.defer(() -> {
+            if (client != null) close();
+
+            client = MongoClients.create(context.clientSettings());
+            logger.info("Connected to MongoDB");
+
+            // Check for schema changes, one schema at a time
+            return Flux.fromIterable(context.getSchemas())
+                    .concatMap(this::migrate)
+                    .then(Mono.fromRunnable(() -> logger.info("Validated all documents according to schemas.")))
+                    // Create the indexes of the known types in advance,
+                    // the other ones are created when first used
+                    .thenMany(Flux.fromIterable(context.knownTypes()))
+                    .concatMap(type -> {
+                        MongoCollection<?> collection = getTypedCollection(type);
+                        return collection == null ? Mono.empty() : uniqueKeys.get(type);
+                    })
+                    .then(Mono.fromRunnable(() -> initialized = true));
+        });
+    }
+
+    /*
+    Runs the steps planned by the schema, like SchemaMigrator: a versioned schema migrates
+    only the stale documents, found using the index on the version field.
+    There is no background writer here, so the lazy schemas are migrated immediately.
+     */
+    private Mono<Void> migrate(MigrationSchema schema) {
+        MongoDatabase database = getDatabase(schema.getDatabase());
+        MongoCollection<Document> collection = database.getCollection(context.collectionName(schema.getClazzName(), schema.getCollection()));
+
+        Mono<Void> index = schema.isVersioned()
+                ? Mono.from(collection.createIndex(Indexes.ascending(MigrationSchema.VERSION_FIELD))).then()
+                : Mono.empty();
+        return index.thenMany(Flux.fromIterable(schema.steps()))
+                .concatMap(step -> migrate(collection, step)
+                        .onErrorResume(MongoException.class, e -> {
+                            logger.error("Could not migrate %s%s: %s", collection.getNamespace().getFullName(), step.name(), e.getMessage());
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    private Mono<Void> migrate(MongoCollection<Document> collection, MigrationStep step) {
+        Mono<?> migration;
+        if (step.pipeline() != null) {
+            // Every document is migrated by MongoDB in a single round trip
+            migration = Mono.from(collection.updateMany(step.filter(), step.pipeline()));
+        } else {
+            // The values are computed here and sent in bulk writes
+            migration = Flux.from(collection.find(step.filter()).batchSize(MIGRATION_BATCH_SIZE))
+                    .map(step::documentUpdate)
+                    .buffer(MIGRATION_BATCH_SIZE)
+                    .concatMap(models -> Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(false)))
+                            .onErrorResume(MongoBulkWriteException.class, e -> {
+                                logger.error("%d documents of %s could not be migrated: %s",
+                                        e.getWriteErrors().size(), collection.getNamespace().getCollectionName(), e.getWriteErrors().get(0).getMessage());
+                                return Mono.empty();
+                            }))
+                    .then();
+        }
+
+        MigrationStep.Cleanup cleanup = step.cleanup();
+        return migration.then(Mono.defer(() -> cleanup != null
+                ? Mono.from(collection.updateMany(cleanup.filter(), cleanup.update())).then()
+                : Mono.empty()));
+    }
+
+    @Override
+    public void close() {
+        if (client == null) return;
+
+        // Close MongoClient
+        client.close();
+        client = null;
+
+        // Clear cached resources
+        cachedDatabases.clear();
+        cachedCollections.clear();
+        uniqueKeys.clear();
+
+        initialized = false;
+    }
+
+    @Override
+    public void overrideCollectionName(Class<?> type, String name) {
+        if (context.overrideCollectionName(type, name)) {
+            cachedCollections.remove(type);
+            uniqueKeys.remove(type);
+        }
+    }
+
+    @Override
+    public <T> Publisher<T> find(@NotNull Class<? extends T> type,
+                                 @NotNull PublisherProcessor processor,
+                                 @NotNull Bson filter) {
+        // The FindPublisher fetches a new batch only when the
+        // subscriber requests more elements than the ones already received
+        return this.<T>processRequest(type, collection -> decodeEach("find", type, collection,
+                applyProcessor(processor, collection.find(filter, RawBsonDocument.class))));
+    }
+
+    @Override
+    public <T> Publisher<T> findFirst(@NotNull Class<? extends T> type,
+                                      @NotNull PublisherProcessor processor,
+                                      @NotNull Bson filter) {
+        return this.<T>processRequest(type, collection -> decodeEach("findFirst", type, collection,
+                        this.<RawBsonDocument>applyProcessor(processor, collection.find(filter, RawBsonDocument.class)).first()))
+                .next();
+    }
+
+    /*
+    The documents are decoded one at a time, so the ones which cannot be decoded
+    are skipped and counted instead of ending the whole query with an error.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Flux<T> decodeEach(String operation, Class<?> type, MongoCollection<Object> collection,
+                                   Publisher<RawBsonDocument> documents) {
+        Codec<T> codec;
+        try {
+            codec = (Codec<T>) collection.getCodecRegistry().get(type);
+        } catch (CodecConfigurationException e) {
+            logger.error("An error occurred while running %s on %s class. (Type mismatch)", operation, type.getSimpleName());
+            return Flux.empty();
+        }
+
+        AtomicInteger failed = new AtomicInteger();
+        return Flux.from(documents)
+                .<T>handle((document, sink) -> {
+                    try {
+                        sink.next(codec.decode(document.asBsonReader(), DECODER_CONTEXT));
+                    } catch (BSONException | CodecConfigurationException e) {
+                        failed.incrementAndGet();
+                    }
+                })
+                .doFinally(signal -> {
+                    if (failed.get() > 0) {
+                        logger.error("%d documents could not be decoded while running %s on %s class. (Type mismatch)",
+                                failed.get(), operation, type.getSimpleName());
+                    }
+                });
+    }
+
+    @Override
+    public Publisher<Boolean> store(@NotNull Object obj, boolean update) {
+        return processRequest(obj.getClass(), collection -> {
+            Bson filter = context.keyFilter(obj); // Create a filter which looks for the same object
+
+            // If we need to update
+            if (update) {
+                VersionAccessor version = versionOf(obj.getClass());
+                if (version != null) return storeVersioned(collection, filter, obj, version);
+
+                // Replace the document, or insert it
+                // if nothing matches the filter
+                return Mono.from(collection.replaceOne(filter, obj, new ReplaceOptions().upsert(true))).thenReturn(true);
+            }
+
+            return insert(collection, filter, obj);
+        }, false);
+    }
+
+    // Inserts the object only if no other object has the same keys
+    private Mono<Boolean> insert(MongoCollection<Object> collection, Bson filter, Object obj) {
+        return uniqueKeys.getOrDefault(obj.getClass(), Mono.just(false)).flatMap(unique -> {
+            // The unique index on the keys lets MongoDB
+            // refuse the duplicates in a single round trip
+            if (unique) {
+                return Mono.from(collection.insertOne(obj))
+                        .thenReturn(true)
+                        .onErrorResume(MongoWriteException.class, e -> {
+                            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) return Mono.error(e);
+
+                            // Another equal object is already present
+                            return Mono.just(false);
+                        });
+            }
+
+            // If another equal object is found, abort the mission
+            return Mono.from(collection.withDocumentClass(BsonDocument.class)
+                            .find(filter)
+                            .projection(Projections.include("_id"))
+                            .first())
+                    .map(document -> false)
+                    .switchIfEmpty(Mono.defer(() -> Mono.from(collection.insertOne(obj)).thenReturn(true)));
+        });
+    }
+
+    /*
+    Same as StorageImpl#storeVersioned: the document is overwritten only if it has
+    the same version of the object, incrementing the version of both. The objects
+    which have never been stored (with version zero) are inserted if their document does not exist.
+     */
+    private Mono<Boolean> storeVersioned(MongoCollection<Object> collection, Bson keyFilter, Object obj, VersionAccessor version) {
+        long expected = version.get(obj);
+        // The documents written before the version field was added have no version
+        Bson filter = Filters.and(keyFilter, expected == 0
+                ? Filters.in(version.name(), 0, null)
+                : Filters.eq(version.name(), expected));
+
+        // The object is encoded when the replacement is sent, after the version has been changed
+        return Mono.defer(() -> {
+                    version.set(obj, expected + 1);
+                    return Mono.from(collection.replaceOne(filter, obj, new ReplaceOptions().upsert(false)));
+                })
+                .flatMap(result -> {
+                    if (result.getMatchedCount() > 0) return Mono.just(true);
+
+                    // A different version means that the object has been changed in the meantime
+                    return expected == 0 ? insert(collection, keyFilter, obj) : Mono.just(false);
+                })
+                .doOnNext(written -> {
+                    if (!written) {
+                        version.set(obj, expected);
+                    }
+                })
+                .doOnError(e -> version.set(obj, expected));
+    }
+
+    private VersionAccessor versionOf(Class<?> type) {
+        try {
+            return context.getCodecProvider().versionAccessor(type);
+        } catch (IllegalArgumentException e) {
+            logger.error("%s", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Publisher<Integer> remove(@NotNull Object obj) {
+        return processRequest(obj.getClass(), collection -> Mono.from(collection.deleteMany(context.keyFilter(obj)))
+                // Get the number of objects deleted by MongoDB
+                .map(result -> (int) result.getDeletedCount()), 0);
+    }
+
+    /*
+    This method enables us to perform operations directly on
+    the collections containing object with type T.
+    The publisher is created only when someone subscribes to it.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Flux<T> processRequest(Class<?> type, RequestFunction<T> function) {
+        return Flux.defer(() -> {
+            if (!initialized) {
+                logger.error("Please run ReactiveMongoStorage#init before querying the database!");
+                return Flux.empty();
+            }
+
+            // Small check for invalid keys
+            if (context.keys(type).isEmpty()) {
+                logger.warn("There are no keys for this object");
+                return Flux.empty();
+            }
+
+            MongoCollection<Object> collection = (MongoCollection<Object>) getTypedCollection(type);
+            if (collection == null) return Flux.empty();
+
+            // Now let's execute the code passed via parameter
+            return Flux.from(function.apply(collection));
+        });
+    }
+
+    // Same as above, but emits the default value when the request cannot be executed
+    private <T> Mono<T> processRequest(Class<?> type, RequestFunction<T> function, T defaultValue) {
+        return this.processRequest(type, function).next().defaultIfEmpty(defaultValue);
+    }
+
+    private interface RequestFunction<T> {
+
+        Publisher<T> apply(MongoCollection<Object> collection);
+    }
+
+    /*
+    The processors work on FindPublisher<Document> objects, but they only
+    change the options of the query, so they can be safely applied
+    to publishers which decode the documents to other types.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private <T> FindPublisher<T> applyProcessor(PublisherProcessor processor, FindPublisher<?> publisher) {
+        return (FindPublisher<T>) processor.process((FindPublisher) publisher);
+    }
+
+    @Override
+    public MongoCollection<Document> getObjectCollection(Class<?> type) {
+        MongoObject annotation = context.annotation(type);
+        if (annotation == null) return null;
+
+        return getDatabase(annotation.database()).getCollection(context.collectionName(type.getName(), annotation.collection()));
+    }
+
+    private MongoDatabase getDatabase(String name) {
+        return cachedDatabases.computeIfAbsent(name, client::getDatabase);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> MongoCollection<T> getTypedCollection(Class<T> type) {
+        MongoCollection<?> cache = cachedCollections.get(type);
+        if (cache != null) return (MongoCollection<T>) cache;
+
+        MongoCollection<Document> collection = getObjectCollection(type);
+        if (collection == null) return null;
+
+        // The documents are decoded directly using our codecs
+        MongoCollection<T> typed = collection.withDocumentClass(type);
+        MigrationSchema schema = context.schema(type);
+        if (schema != null && schema.isVersioned()) {
+            // Stamp the current version on the stored documents, like the sync storage
+            Codec<T> codec = context.versioned(type, typed.getCodecRegistry().get(type));
+            typed = typed.withCodecRegistry(CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(codec), typed.getCodecRegistry()));
+        }
+        // The index is created once, by the first request which needs it
+        uniqueKeys.put(type, createKeyIndex(type, typed).cache());
+        cachedCollections.put(type, typed);
+
+        return typed;
+    }
+
+    /*
+    Creates a unique index on the keys of the objects, so that
+    MongoDB itself can detect duplicates. If the collection already
+    contains duplicates, the index cannot be created: in that case
+    the objects are stored checking for duplicates beforehand.
+     */
+    private Mono<Boolean> createKeyIndex(Class<?> type, MongoCollection<?> collection) {
+        Map<String, Class<?>> keys = context.keys(type);
+        if (keys.isEmpty()) return Mono.just(false);
+        // MongoDB always creates a unique index on the _id field
+        if (keys.size() == 1 && keys.containsKey("_id")) return Mono.just(true);
+
+        return Mono.from(collection.createIndex(Indexes.ascending(new ArrayList<>(keys.keySet())), new IndexOptions().unique(true)))
+                .thenReturn(true)
+                .onErrorResume(MongoException.class, e -> {
+                    logger.warn("Could not create a unique index on the keys of %s: %s", type.getSimpleName(), e.getMessage());
+                    return Mono.just(false);
+                });
+    }
+
+    @Override
+    public MongoClient getClient() {
+        return client;
+    }
+}
@@ -1,15 +0,0 @@
-package dev.starless.mongo.api.annotations;
-
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
-
-@Retention(RetentionPolicy.RUNTIME)
-@Target(ElementType.TYPE)
-public @interface MongoObject {
-
-    String database();
-
-    String collection() default "";
-}